@@ -83,6 +83,73 @@ public class Constants {
      */
     public static final String BCRYPT_WORK_ENV = "DOCS_BCRYPT_WORK";
 
+    /**
+     * Search suggestions environment variable (enabled by default).
+     */
+    public static final String SEARCH_SUGGESTION_ENV = "DOCS_SEARCH_SUGGESTION";
+
+    /**
+     * Lucene near-real-time configuration environment variables.
+     */
+    public static final String LUCENE_NRT_ENV = "DOCS_LUCENE_NRT";
+    public static final String LUCENE_REFRESH_INTERVAL_ENV = "DOCS_LUCENE_REFRESH_INTERVAL";
+    public static final String LUCENE_COMMIT_INTERVAL_ENV = "DOCS_LUCENE_COMMIT_INTERVAL";
+    public static final String LUCENE_COMMIT_OPERATIONS_ENV = "DOCS_LUCENE_COMMIT_OPERATIONS";
+
+    /**
+     * Decrypted renditions cache configuration environment variables.
+     */
+    public static final String RENDITION_CACHE_SIZE_ENV = "DOCS_RENDITION_CACHE_SIZE";
+    public static final String RENDITION_CACHE_OFF_HEAP_ENV = "DOCS_RENDITION_CACHE_OFF_HEAP";
+
+    /**
+     * Lifetime of the authenticated principals in cache (in seconds), 0 to disable the cache.
+     */
+    public static final String PRINCIPAL_CACHE_TTL_ENV = "DOCS_PRINCIPAL_CACHE_TTL";
+
+    /**
+     * Asynchronous jobs queue configuration environment variables.
+     */
+    public static final String JOB_CONCURRENCY_ENV = "DOCS_JOB_CONCURRENCY";
+    public static final String JOB_FILE_PROCESSING_CONCURRENCY_ENV = "DOCS_JOB_FILE_PROCESSING_CONCURRENCY";
+    public static final String JOB_MAX_ATTEMPTS_ENV = "DOCS_JOB_MAX_ATTEMPTS";
+    public static final String JOB_QUEUE_LIMIT_ENV = "DOCS_JOB_QUEUE_LIMIT";
+    public static final String JOB_FAILED_RETENTION_DAYS_ENV = "DOCS_JOB_FAILED_RETENTION_DAYS";
+
+    /**
+     * OCR configuration environment variables.
+     */
+    public static final String OCR_THREADS_ENV = "DOCS_OCR_THREADS";
+    public static final String OCR_MAX_PROCESSES_ENV = "DOCS_OCR_MAX_PROCESSES";
+
+    /**
+     * Share the stored files of a user having the same content.
+     */
+    public static final String STORAGE_DEDUP_ENV = "DOCS_STORAGE_DEDUP";
+
+    /**
+     * Storage backend configuration environment variables.
+     */
+    public static final String STORAGE_BACKEND_ENV = "DOCS_STORAGE_BACKEND";
+    public static final String STORAGE_PATHS_ENV = "DOCS_STORAGE_PATHS";
+    public static final String STORAGE_S3_ENDPOINT_ENV = "DOCS_STORAGE_S3_ENDPOINT";
+    public static final String STORAGE_S3_REGION_ENV = "DOCS_STORAGE_S3_REGION";
+    public static final String STORAGE_S3_BUCKET_ENV = "DOCS_STORAGE_S3_BUCKET";
+    public static final String STORAGE_S3_ACCESS_KEY_ENV = "DOCS_STORAGE_S3_ACCESS_KEY";
+    public static final String STORAGE_S3_SECRET_KEY_ENV = "DOCS_STORAGE_S3_SECRET_KEY";
+    public static final String STORAGE_S3_PART_SIZE_ENV = "DOCS_STORAGE_S3_PART_SIZE";
+
+    /**
+     * Migration of the storage directory to the sharded layout configuration environment variables.
+     */
+    public static final String STORAGE_MIGRATION_BATCH_SIZE_ENV = "DOCS_STORAGE_MIGRATION_BATCH_SIZE";
+    public static final String STORAGE_MIGRATION_DELAY_ENV = "DOCS_STORAGE_MIGRATION_DELAY";
+
+    /**
+     * Count the results of a paginated query with a window function in the page query.
+     */
+    public static final String PAGINATION_WINDOW_COUNT_ENV = "DOCS_PAGINATION_WINDOW_COUNT";
+
     /**
      * Expiration time of the password recovery in hours.
      */
@@ -0,0 +1,23 @@
+package com.sismics.docs.core.constant;
+
+/**
+ * Asynchronous job status.
+ *
+ * @author bgamard
+ */
+public enum JobStatus {
+    /**
+     * Waiting to be run.
+     */
+    PENDING,
+
+    /**
+     * Leased by a worker.
+     */
+    RUNNING,
+
+    /**
+     * Failed too many times, kept for inspection.
+     */
+    FAILED
+}
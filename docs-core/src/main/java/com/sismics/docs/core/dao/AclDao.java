@@ -37,6 +37,7 @@ public class AclDao {
         // Create the ACL
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(acl);
+        new EffectiveAclDao().refreshSource(acl.getSourceId());
 
         // Create audit log
         AuditLogUtil.create(acl, AuditLogType.CREATE, userId);
@@ -132,15 +133,12 @@ public class AclDao {
             return false;
         }
 
+        // The effective ACLs include the ACLs inherited from the tags
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("select a.ACL_ID_C from T_ACL a ");
-        sb.append(" where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = :sourceId and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
-        sb.append(" union all ");
-        sb.append(" select a.ACL_ID_C from T_ACL a, T_DOCUMENT_TAG dt, T_DOCUMENT d ");
-        sb.append(" where a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null ");
-        sb.append(" and d.DOC_ID_C = :sourceId and d.DOC_DELETEDATE_D is null ");
-        sb.append(" and a.ACL_TARGETID_C in (:targetIdList) and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
+        StringBuilder sb = new StringBuilder("select ea.EFA_TARGETID_C from T_EFFECTIVE_ACL ea ");
+        sb.append(" where ea.EFA_IDSOURCE_C = :sourceId and ea.EFA_PERM_C = :perm and ea.EFA_TARGETID_C in (:targetIdList) ");
         Query q = em.createNativeQuery(sb.toString());
+        q.setMaxResults(1);
         q.setParameter("sourceId", sourceId);
         q.setParameter("perm", perm.name());
         q.setParameter("targetIdList", targetIdList);
@@ -181,5 +179,6 @@ public class AclDao {
         q.setParameter("type", type);
         q.setParameter("dateNow", new Date());
         q.executeUpdate();
+        new EffectiveAclDao().refreshSource(sourceId);
     }
 }
\ No newline at end of file
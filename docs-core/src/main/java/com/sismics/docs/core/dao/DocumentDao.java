@@ -59,6 +59,26 @@ public class DocumentDao {
         return q.getResultList();
     }
 
+    /**
+     * Returns the list of all active documents after an ID, ordered by ID.
+     *
+     * @param lastId Last ID returned (null to start from the beginning)
+     * @param limit Limit
+     * @return List of documents
+     */
+    public List<Document> findAllAfter(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<Document> q;
+        if (lastId == null) {
+            q = em.createQuery("select d from Document d where d.deleteDate is null order by d.id", Document.class);
+        } else {
+            q = em.createQuery("select d from Document d where d.deleteDate is null and d.id > :lastId order by d.id", Document.class);
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
     /**
      * Returns the list of all active documents from a user.
      * 
@@ -72,6 +92,25 @@ public class DocumentDao {
         return q.getResultList();
     }
     
+    /**
+     * Returns the active documents using the ACLs of a source, the document itself or one of its tags.
+     *
+     * @param sourceId ACL source ID
+     * @param lastId Last document ID returned, null for the first batch
+     * @param limit Maximum number of documents
+     * @return List of documents
+     */
+    public List<Document> findByAclSourceAfter(String sourceId, String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<Document> q = em.createQuery("select d from Document d where d.deleteDate is null and d.id > :lastId " +
+                " and (d.id = :sourceId or d.id in (select dt.documentId from DocumentTag dt where dt.tagId = :sourceId and dt.deleteDate is null)) " +
+                " order by d.id", Document.class);
+        q.setParameter("sourceId", sourceId);
+        q.setParameter("lastId", lastId == null ? "" : lastId);
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
     /**
      * Returns an active document with permission checking.
      * 
@@ -166,6 +205,9 @@ public class DocumentDao {
         q.setParameter("documentId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+
+        // Remove the effective ACLs of the deleted document
+        new EffectiveAclDao().refreshSource(id);
         
         // Create audit log
         AuditLogUtil.create(documentDb, AuditLogType.DELETE, userId);
@@ -0,0 +1,167 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.util.*;
+
+/**
+ * Effective ACL DAO.
+ * T_EFFECTIVE_ACL is a projection of the active ACLs of each source, plus the ACLs inherited by
+ * the active documents from their tags. It is refreshed in the transaction changing the ACLs or the tag links,
+ * so a permission check is a single lookup on its primary key.
+ *
+ * @author bgamard
+ */
+public class EffectiveAclDao {
+    /**
+     * Effective ACLs, the condition is formatted with the source and target columns of each part.
+     */
+    private static final String EFFECTIVE_ACL_QUERY = "select a.ACL_SOURCEID_C, a.ACL_PERM_C, a.ACL_TARGETID_C from T_ACL a " +
+            " where a.ACL_DELETEDATE_D is null and (%1$s) " +
+            " union " +
+            " select d.DOC_ID_C, a.ACL_PERM_C, a.ACL_TARGETID_C from T_DOCUMENT d " +
+            " join T_DOCUMENT_TAG dt on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null " +
+            " join T_ACL a on a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and a.ACL_DELETEDATE_D is null " +
+            " where d.DOC_DELETEDATE_D is null and (%2$s) ";
+
+    /**
+     * Refresh the effective ACLs of a source, and of the documents linked to it if it is a tag.
+     *
+     * @param sourceId Source ID
+     */
+    public void refreshSource(String sourceId) {
+        refresh("%1$s = :id or %1$s in (select dts.DOT_IDDOCUMENT_C from T_DOCUMENT_TAG dts where dts.DOT_IDTAG_C = :id)", sourceId);
+    }
+
+    /**
+     * Refresh the effective ACLs given to a target.
+     *
+     * @param targetId Target ID
+     */
+    public void refreshTarget(String targetId) {
+        refresh("%2$s = :id", targetId);
+    }
+
+    /**
+     * Refresh the effective ACLs of the documents of a user.
+     *
+     * @param userId User ID
+     */
+    public void refreshUserDocuments(String userId) {
+        refresh("%1$s in (select du.DOC_ID_C from T_DOCUMENT du where du.DOC_IDUSER_C = :id)", userId);
+    }
+
+    /**
+     * Rebuild the effective ACLs of a batch of sources, in the order of their IDs.
+     * Only the sources of the batch are locked, the caller commits between the batches.
+     *
+     * @param afterSourceId Rebuild the sources after this ID, or null to start from the first source
+     * @param batchSize Number of sources to rebuild
+     * @return ID of the last source rebuilt, or null if there is no source left
+     */
+    @SuppressWarnings("unchecked")
+    public String rebuild(String afterSourceId, int batchSize) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select s.SOURCEID from (" +
+                " select a.ACL_SOURCEID_C SOURCEID from T_ACL a where a.ACL_DELETEDATE_D is null " +
+                " union select d.DOC_ID_C from T_DOCUMENT d where d.DOC_DELETEDATE_D is null " +
+                " union select ea.EFA_IDSOURCE_C from T_EFFECTIVE_ACL ea) s " +
+                " where s.SOURCEID > :afterSourceId order by s.SOURCEID");
+        q.setParameter("afterSourceId", afterSourceId == null ? "" : afterSourceId);
+        q.setMaxResults(batchSize);
+        List<String> sourceIdList = q.getResultList();
+        if (sourceIdList.isEmpty()) {
+            return null;
+        }
+
+        refresh("%1$s in (:id)", sourceIdList);
+        return sourceIdList.get(sourceIdList.size() - 1);
+    }
+
+    /**
+     * Returns the targets of the effective ACLs of some sources.
+     *
+     * @param sourceIdList Source IDs
+     * @param perm Permission
+     * @return Target IDs by source ID
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<String>> findTargetIdMap(Collection<String> sourceIdList, PermType perm) {
+        Map<String, List<String>> targetIdMap = new HashMap<>();
+        if (sourceIdList.isEmpty()) {
+            return targetIdMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select ea.EFA_IDSOURCE_C, ea.EFA_TARGETID_C from T_EFFECTIVE_ACL ea where ea.EFA_IDSOURCE_C in (:sourceIdList) and ea.EFA_PERM_C = :perm");
+        q.setParameter("sourceIdList", sourceIdList);
+        q.setParameter("perm", perm.name());
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            targetIdMap.computeIfAbsent((String) o[0], k -> new ArrayList<>()).add((String) o[1]);
+        }
+        return targetIdMap;
+    }
+
+    /**
+     * Compare the effective ACLs to the ACLs and tag links.
+     *
+     * @return Number of missing and stale effective ACLs
+     */
+    public Map<String, Long> check() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.flush();
+        String effectiveAclQuery = formatQuery("1 = 1");
+        String storedAclQuery = "select ea.EFA_IDSOURCE_C, ea.EFA_PERM_C, ea.EFA_TARGETID_C from T_EFFECTIVE_ACL ea";
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        Query q = em.createNativeQuery("select count(*) from (" + effectiveAclQuery + " except " + storedAclQuery + ") e");
+        result.put("missing", ((Number) q.getSingleResult()).longValue());
+        q = em.createNativeQuery("select count(*) from (" + storedAclQuery + " except " + effectiveAclQuery + ") e");
+        result.put("stale", ((Number) q.getSingleResult()).longValue());
+        return result;
+    }
+
+    /**
+     * Recompute the effective ACLs matching a condition.
+     *
+     * @param condition Condition on the source (%1$s) and target (%2$s) columns
+     * @param id Parameter of the condition, an ID or a list of IDs
+     */
+    private void refresh(String condition, Object id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.flush();
+
+        // Lock the refreshed sources, so two transactions do not insert the same effective ACLs
+        String sourceQuery = "select ea.EFA_IDSOURCE_C from T_EFFECTIVE_ACL ea where " + String.format(condition, "ea.EFA_IDSOURCE_C", "ea.EFA_TARGETID_C") +
+                " union select e.ACL_SOURCEID_C from (" + formatQuery(condition) + ") e";
+        Query q = em.createNativeQuery("select d.DOC_ID_C from T_DOCUMENT d where d.DOC_ID_C in (" + sourceQuery + ") order by d.DOC_ID_C for update");
+        q.setParameter("id", id);
+        q.getResultList();
+        q = em.createNativeQuery("select t.TAG_ID_C from T_TAG t where t.TAG_ID_C in (" + sourceQuery + ") order by t.TAG_ID_C for update");
+        q.setParameter("id", id);
+        q.getResultList();
+
+        q = em.createNativeQuery("delete from T_EFFECTIVE_ACL where " + String.format(condition, "EFA_IDSOURCE_C", "EFA_TARGETID_C"));
+        q.setParameter("id", id);
+        q.executeUpdate();
+
+        q = em.createNativeQuery("insert into T_EFFECTIVE_ACL (EFA_IDSOURCE_C, EFA_PERM_C, EFA_TARGETID_C) " + formatQuery(condition));
+        q.setParameter("id", id);
+        q.executeUpdate();
+    }
+
+    /**
+     * Returns the query of the effective ACLs matching a condition.
+     *
+     * @param condition Condition on the source (%1$s) and target (%2$s) columns
+     * @return Native query
+     */
+    private String formatQuery(String condition) {
+        return String.format(EFFECTIVE_ACL_QUERY,
+                String.format(condition, "a.ACL_SOURCEID_C", "a.ACL_TARGETID_C"),
+                String.format(condition, "d.DOC_ID_C", "a.ACL_TARGETID_C"));
+    }
+}
@@ -2,6 +2,7 @@ package com.sismics.docs.core.dao;
 
 import com.sismics.docs.core.constant.AuditLogType;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.FileContent;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import jakarta.persistence.EntityManager;
@@ -45,16 +46,32 @@ public class FileDao {
     }
     
     /**
-     * Returns the list of all files.
+     * Returns the IDs of all files.
      *
-     * @param offset Offset
+     * @return List of files IDs
+     */
+    public List<String> findAllIds() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q = em.createQuery("select f.id from File f where f.deleteDate is null", String.class);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the list of all files after an ID, ordered by ID.
+     *
+     * @param lastId Last ID returned (null to start from the beginning)
      * @param limit Limit
      * @return List of files
      */
-    public List<File> findAll(int offset, int limit) {
+    public List<File> findAllAfter(String lastId, int limit) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        TypedQuery<File> q = em.createQuery("select f from File f where f.deleteDate is null", File.class);
-        q.setFirstResult(offset);
+        TypedQuery<File> q;
+        if (lastId == null) {
+            q = em.createQuery("select f from File f where f.deleteDate is null order by f.id", File.class);
+        } else {
+            q = em.createQuery("select f from File f where f.deleteDate is null and f.id > :lastId order by f.id", File.class);
+            q.setParameter("lastId", lastId);
+        }
         q.setMaxResults(limit);
         return q.getResultList();
     }
@@ -158,16 +175,71 @@ public class FileDao {
         // Update the file
         fileDb.setDocumentId(file.getDocumentId());
         fileDb.setName(file.getName());
-        fileDb.setContent(file.getContent());
         fileDb.setOrder(file.getOrder());
         fileDb.setMimeType(file.getMimeType());
         fileDb.setVersionId(file.getVersionId());
         fileDb.setLatestVersion(file.isLatestVersion());
         fileDb.setSize(file.getSize());
+        fileDb.setChecksum(file.getChecksum());
+        fileDb.setProcessingSignature(file.getProcessingSignature());
 
         return file;
     }
 
+    /**
+     * Returns the text content of a file.
+     *
+     * @param id File ID
+     * @return Text content or null if none
+     */
+    public String getContent(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileContent fileContent = em.find(FileContent.class, id);
+        return fileContent == null ? null : fileContent.getContent();
+    }
+
+    /**
+     * Load the text content of files in one query.
+     *
+     * @param fileList List of files
+     */
+    public void loadContents(List<File> fileList) {
+        if (fileList.isEmpty()) {
+            return;
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Map<String, File> fileMap = new HashMap<>();
+        for (File file : fileList) {
+            fileMap.put(file.getId(), file);
+        }
+        Query q = em.createQuery("select fc.fileId, fc.content from FileContent fc where fc.fileId in :fileIds");
+        q.setParameter("fileIds", fileMap.keySet());
+        for (Object o : q.getResultList()) {
+            Object[] resultLine = (Object[]) o;
+            fileMap.get((String) resultLine[0]).setContent((String) resultLine[1]);
+        }
+    }
+
+    /**
+     * Update the text content of a file.
+     *
+     * @param id File ID
+     * @param content Text content, null to remove it
+     */
+    public void updateContent(String id, String content) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileContent fileContent = em.find(FileContent.class, id);
+        if (content == null) {
+            if (fileContent != null) {
+                em.remove(fileContent);
+            }
+        } else if (fileContent == null) {
+            em.persist(new FileContent().setFileId(id).setContent(content));
+        } else {
+            fileContent.setContent(content);
+        }
+    }
+
     /**
      * Gets a file by its ID.
      * 
@@ -185,6 +257,26 @@ public class FileDao {
         }
     }
     
+    /**
+     * Returns the oldest active file of a user with the same content.
+     *
+     * @param userId User ID
+     * @param checksum Content checksum
+     * @param excludedId ID of the file to exclude
+     * @return File or null if none
+     */
+    public File getByChecksum(String userId, String checksum, String excludedId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<File> q = em.createQuery("select f from File f where f.userId = :userId and f.checksum = :checksum"
+                + " and f.id <> :excludedId and f.deleteDate is null order by f.createDate", File.class);
+        q.setParameter("userId", userId);
+        q.setParameter("checksum", checksum);
+        q.setParameter("excludedId", excludedId);
+        q.setMaxResults(1);
+        List<File> fileList = q.getResultList();
+        return fileList.isEmpty() ? null : fileList.get(0);
+    }
+
     /**
      * Get files by document ID or all orphan files of a user.
      * 
@@ -254,4 +346,15 @@ public class FileDao {
         q.setMaxResults(limit);
         return q.getResultList();
     }
+
+    /**
+     * Returns the number of files.
+     *
+     * @return Number of files
+     */
+    public long getFileCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query query = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_DELETEDATE_D is null");
+        return ((Number) query.getSingleResult()).longValue();
+    }
 }
@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.Group;
 import com.sismics.docs.core.model.jpa.UserGroup;
 import com.sismics.docs.core.util.AuditLogUtil;
+import com.sismics.docs.core.util.PrincipalCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -106,10 +107,12 @@ public class GroupDao {
         q.setParameter("groupId", groupDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new EffectiveAclDao().refreshTarget(groupDb.getId());
 
         q = em.createQuery("update Group g set g.parentId = null where g.parentId = :groupId and g.deleteDate is null");
         q.setParameter("groupId", groupDb.getId());
         q.executeUpdate();
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
 
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.DELETE, userId);
@@ -128,6 +131,7 @@ public class GroupDao {
         // Create the user group
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(userGroup);
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
         
         return userGroup.getId();
     }
@@ -150,6 +154,7 @@ public class GroupDao {
         // Delete the user group
         Date dateNow = new Date();
         userGroupDb.setDeleteDate(dateNow);
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
     }
     
     /**
@@ -261,6 +266,7 @@ public class GroupDao {
         // Update the group
         groupDb.setName(group.getName());
         groupDb.setParentId(group.getParentId());
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
         
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.UPDATE, userId);
@@ -0,0 +1,203 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.constant.JobStatus;
+import com.sismics.docs.core.model.jpa.Job;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.util.*;
+
+/**
+ * Asynchronous job DAO.
+ *
+ * @author bgamard
+ */
+public class JobDao {
+    /**
+     * Criteria of the jobs ready to run.
+     */
+    private static final String RUNNABLE_CRITERIA = "(j.status = :pending and j.runDate <= :now"
+            + " or j.status = :running and j.leaseDate < :now)";
+
+    /**
+     * Creates a new job.
+     *
+     * @param job Job
+     * @return New ID
+     */
+    public String create(Job job) {
+        job.setId(UUID.randomUUID().toString());
+        job.setCreateDate(new Date());
+        job.setStatus(JobStatus.PENDING);
+        job.setAttempt(0);
+        if (job.getRunDate() == null) {
+            job.setRunDate(job.getCreateDate());
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.persist(job);
+
+        return job.getId();
+    }
+
+    /**
+     * Returns a job by ID.
+     *
+     * @param id Job ID
+     * @return Job
+     */
+    public Job getById(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.find(Job.class, id);
+    }
+
+    /**
+     * Returns the types of the jobs ready to run.
+     * A job is ready if it is pending and due, or if its lease has expired.
+     *
+     * @return Job types
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> findRunnableTypes() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select distinct j.type from Job j where " + RUNNABLE_CRITERIA);
+        setRunnableParameters(q);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the jobs of a type ready to run, oldest first.
+     *
+     * @param type Job type
+     * @param limit Maximum number of jobs
+     * @return Jobs
+     */
+    @SuppressWarnings("unchecked")
+    public List<Job> findRunnable(String type, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select j from Job j where j.type = :type and " + RUNNABLE_CRITERIA + " order by j.runDate");
+        q.setParameter("type", type);
+        setRunnableParameters(q);
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Claims a job ready to run.
+     * Only one worker can claim a job, even when the job is found by several workers.
+     *
+     * @param id Job ID
+     * @param leaseOwner Worker claiming the job
+     * @param leaseDate Lease expiration date
+     * @return True if the job is claimed
+     */
+    public boolean claim(String id, String leaseOwner, Date leaseDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("update Job j set j.status = :running, j.leaseOwner = :leaseOwner, j.leaseDate = :leaseDate"
+                + " where j.id = :id and " + RUNNABLE_CRITERIA);
+        q.setParameter("leaseOwner", leaseOwner);
+        q.setParameter("leaseDate", leaseDate);
+        q.setParameter("id", id);
+        setRunnableParameters(q);
+        return q.executeUpdate() == 1;
+    }
+
+    /**
+     * Extends the leases of the jobs run by a worker.
+     *
+     * @param leaseOwner Worker
+     * @param leaseDate New lease expiration date
+     */
+    public void renewLeases(String leaseOwner, Date leaseDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("update Job j set j.leaseDate = :leaseDate where j.leaseOwner = :leaseOwner and j.status = :running");
+        q.setParameter("leaseDate", leaseDate);
+        q.setParameter("leaseOwner", leaseOwner);
+        q.setParameter("running", JobStatus.RUNNING);
+        q.executeUpdate();
+    }
+
+    /**
+     * Deletes a completed job.
+     *
+     * @param id Job ID
+     */
+    public void delete(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("delete from Job j where j.id = :id");
+        q.setParameter("id", id);
+        q.executeUpdate();
+    }
+
+    /**
+     * Records a failed attempt of a job.
+     *
+     * @param id Job ID
+     * @param error Error message
+     * @param runDate Date of the next attempt, or null to give up (the failure date is then kept as run date)
+     */
+    public void fail(String id, String error, Date runDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Job job = em.find(Job.class, id);
+        if (job == null) {
+            return;
+        }
+
+        job.setAttempt(job.getAttempt() + 1);
+        job.setError(error == null || error.length() <= 4000 ? error : error.substring(0, 4000));
+        job.setLeaseOwner(null);
+        job.setLeaseDate(null);
+        if (runDate == null) {
+            job.setStatus(JobStatus.FAILED);
+            job.setRunDate(new Date());
+        } else {
+            job.setStatus(JobStatus.PENDING);
+            job.setRunDate(runDate);
+        }
+    }
+
+    /**
+     * Deletes the jobs failed before a date.
+     *
+     * @param date Failure date
+     * @return Number of deleted jobs
+     */
+    public int deleteFailed(Date date) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("delete from Job j where j.status = :failed and j.runDate < :date");
+        q.setParameter("failed", JobStatus.FAILED);
+        q.setParameter("date", date);
+        return q.executeUpdate();
+    }
+
+    /**
+     * Returns the number of jobs by status.
+     *
+     * @return Number of jobs by status
+     */
+    @SuppressWarnings("unchecked")
+    public Map<JobStatus, Long> countByStatus() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select j.status, count(j) from Job j group by j.status");
+        Map<JobStatus, Long> countMap = new EnumMap<>(JobStatus.class);
+        for (JobStatus status : JobStatus.values()) {
+            countMap.put(status, 0L);
+        }
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            countMap.put((JobStatus) o[0], (Long) o[1]);
+        }
+        return countMap;
+    }
+
+    /**
+     * Set the parameters of the jobs ready to run criteria.
+     *
+     * @param q Query
+     */
+    private void setRunnableParameters(Query q) {
+        q.setParameter("pending", JobStatus.PENDING);
+        q.setParameter("running", JobStatus.RUNNING);
+        q.setParameter("now", new Date());
+    }
+}
@@ -54,5 +54,6 @@ public class ShareDao {
         q.setParameter("targetId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new EffectiveAclDao().refreshTarget(id);
     }
 }
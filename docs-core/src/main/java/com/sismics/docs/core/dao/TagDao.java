@@ -79,6 +79,9 @@ public class TagDao {
                 em.persist(documentTag);
             }
         }
+
+        // Update the ACLs inherited from the tags
+        new EffectiveAclDao().refreshSource(documentId);
     }
     
     /**
@@ -135,6 +138,7 @@ public class TagDao {
         q = em.createQuery("update Tag t set t.parentId = null where t.parentId = :tagId and t.deleteDate is null");
         q.setParameter("tagId", tagId);
         q.executeUpdate();
+        new EffectiveAclDao().refreshSource(tagId);
         
         // Create audit log
         AuditLogUtil.create(tagDb, AuditLogType.DELETE, userId);
@@ -222,5 +226,50 @@ public class TagDao {
 
         return tagDtoList;
     }
-}
 
+    /**
+     * Returns the tags accessible on a list of documents, in one query.
+     *
+     * @param documentIdList List of documents IDs
+     * @param targetIdList List of targets IDs, null to skip the ACL check
+     * @return Tags sorted by name, by document ID
+     */
+    public Map<String, List<TagDto>> findByDocumentIdList(Collection<String> documentIdList, List<String> targetIdList) {
+        Map<String, List<TagDto>> tagDtoMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return tagDtoMap;
+        }
+
+        Map<String, Object> parameterMap = new HashMap<>();
+        StringBuilder sb = new StringBuilder("select dt.DOT_IDDOCUMENT_C, t.TAG_ID_C, t.TAG_NAME_C, t.TAG_COLOR_C, t.TAG_IDPARENT_C, u.USE_USERNAME_C ");
+        sb.append(" from T_DOCUMENT_TAG dt ");
+        sb.append(" join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null ");
+        sb.append(" join T_USER u on t.TAG_IDUSER_C = u.USE_ID_C ");
+        sb.append(" where dt.DOT_IDDOCUMENT_C in (:documentIdList) and dt.DOT_DELETEDATE_D is null ");
+        parameterMap.put("documentIdList", documentIdList);
+        if (targetIdList != null && !SecurityUtil.skipAclCheck(targetIdList)) {
+            sb.append(" and exists (select a.ACL_ID_C from T_ACL a where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = t.TAG_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null) ");
+            parameterMap.put("targetIdList", targetIdList);
+        }
+        sb.append(" order by t.TAG_NAME_C asc ");
+
+        // Perform the search
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap)).getResultList();
+
+        // Assemble results
+        for (Object[] o : l) {
+            int i = 0;
+            String documentId = (String) o[i++];
+            TagDto tagDto = new TagDto()
+                    .setId((String) o[i++])
+                    .setName((String) o[i++])
+                    .setColor((String) o[i++])
+                    .setParentId((String) o[i++])
+                    .setCreator((String) o[i]);
+            tagDtoMap.computeIfAbsent(documentId, k -> new ArrayList<>()).add(tagDto);
+        }
+
+        return tagDtoMap;
+    }
+}
@@ -14,6 +14,7 @@ import com.sismics.docs.core.dao.dto.UserDto;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.PrincipalCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -114,6 +115,7 @@ public class UserDao {
         userDb.setStorageCurrent(user.getStorageCurrent());
         userDb.setTotpKey(user.getTotpKey());
         userDb.setDisableDate(user.getDisableDate());
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
 
         // Create audit log
         AuditLogUtil.create(userDb, AuditLogType.UPDATE, userId);
@@ -256,6 +258,7 @@ public class UserDao {
         q = em.createQuery("delete from AuthenticationToken at where at.userId = :userId");
         q.setParameter("userId", userDb.getId());
         q.executeUpdate();
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
         
         q = em.createQuery("update Document d set d.deleteDate = :dateNow where d.userId = :userId and d.deleteDate is null");
         q.setParameter("userId", userDb.getId());
@@ -276,6 +279,10 @@ public class UserDao {
         q.setParameter("userId", userDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+
+        EffectiveAclDao effectiveAclDao = new EffectiveAclDao();
+        effectiveAclDao.refreshTarget(userDb.getId());
+        effectiveAclDao.refreshUserDocuments(userDb.getId());
         
         // Create audit log
         AuditLogUtil.create(userDb, AuditLogType.DELETE, userId);
@@ -9,6 +9,11 @@ import com.sismics.docs.core.constant.PermType;
  * @author bgamard
  */
 public abstract class AclEvent extends UserEvent {
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * Source ID.
      */
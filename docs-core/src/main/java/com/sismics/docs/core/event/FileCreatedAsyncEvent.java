@@ -6,4 +6,8 @@ package com.sismics.docs.core.event;
  * @author bgamard
  */
 public class FileCreatedAsyncEvent extends FileEvent {
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
 }
\ No newline at end of file
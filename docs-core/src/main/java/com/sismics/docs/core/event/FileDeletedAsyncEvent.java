@@ -8,6 +8,11 @@ import com.google.common.base.MoreObjects;
  * @author bgamard
  */
 public class FileDeletedAsyncEvent extends UserEvent {
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * File ID.
      */
@@ -10,6 +10,11 @@ import java.nio.file.Path;
  * @author bgamard
  */
 public abstract class FileEvent extends UserEvent {
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * File ID.
      */
@@ -22,8 +27,14 @@ public abstract class FileEvent extends UserEvent {
     
     /**
      * Unencrypted original file.
+     * Not serialized, the temporary file may not exist anymore when the job runs.
+     */
+    private transient Path unencryptedFile;
+
+    /**
+     * ID of a file with the same content, whose processing can be reused.
      */
-    private Path unencryptedFile;
+    private String sourceFileId;
 
     public String getFileId() {
         return fileId;
@@ -50,11 +61,21 @@ public abstract class FileEvent extends UserEvent {
         return this;
     }
 
+    public String getSourceFileId() {
+        return sourceFileId;
+    }
+
+    public FileEvent setSourceFileId(String sourceFileId) {
+        this.sourceFileId = sourceFileId;
+        return this;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
             .add("fileId", fileId)
             .add("language", language)
+            .add("sourceFileId", sourceFileId)
             .toString();
     }
 }
\ No newline at end of file
@@ -2,12 +2,19 @@ package com.sismics.docs.core.event;
 
 import com.google.common.base.MoreObjects;
 
+import java.io.Serializable;
+
 /**
  * Rebuild index event.
  *
  * @author bgamard
  */
-public class RebuildIndexAsyncEvent {
+public class RebuildIndexAsyncEvent implements Serializable {
+    /**
+     * Serial version UID, events are serialized in the jobs queue.
+     */
+    private static final long serialVersionUID = 1L;
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
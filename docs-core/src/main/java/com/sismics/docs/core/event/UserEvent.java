@@ -1,11 +1,18 @@
 package com.sismics.docs.core.event;
 
+import java.io.Serializable;
+
 /**
  * Event fired by a user.
  * 
  * @author bgamard
  */
-public abstract class UserEvent {
+public abstract class UserEvent implements Serializable {
+    /**
+     * Serial version UID, events are serialized in the jobs queue.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * User ID who fired the event.
      */
@@ -8,6 +8,7 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.RenditionCache;
 import com.sismics.docs.core.util.TransactionUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +57,7 @@ public class FileDeletedAsyncListener {
 
         // Delete the file from storage
         FileUtil.delete(event.getFileId());
+        RenditionCache.invalidate(event.getFileId());
 
         TransactionUtil.handle(() -> {
             // Update index
@@ -10,12 +10,15 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.RenditionCache;
 import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import com.sismics.docs.core.util.format.ProcessingSession;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.util.ImageUtil;
 import com.sismics.util.Scalr;
 import org.slf4j.Logger;
@@ -24,10 +27,12 @@ import org.slf4j.LoggerFactory;
 import javax.crypto.Cipher;
 import javax.crypto.CipherOutputStream;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -69,6 +74,22 @@ public class FileProcessingAsyncListener {
         processFile(event, false);
     }
 
+    /**
+     * Process a file, marking it as processing until done, even if the processing fails.
+     *
+     * @param event File event
+     * @param isFileCreated True if the file was just created
+     */
+    private void processFile(FileEvent event, boolean isFileCreated) {
+        // The job may have been queued before a restart
+        FileUtil.startProcessingFile(event.getFileId());
+        try {
+            generateFileContent(event, isFileCreated);
+        } finally {
+            FileUtil.endProcessingFile(event.getFileId());
+        }
+    }
+
     /**
      * Process a file :
      * Generate thumbnails
@@ -77,9 +98,11 @@ public class FileProcessingAsyncListener {
      * @param event File event
      * @param isFileCreated True if the file was just created
      */
-    private void processFile(FileEvent event, boolean isFileCreated) {
+    private void generateFileContent(FileEvent event, boolean isFileCreated) {
         AtomicReference<File> file = new AtomicReference<>();
         AtomicReference<User> user = new AtomicReference<>();
+        AtomicReference<File> sourceFile = new AtomicReference<>();
+        AtomicReference<String> signature = new AtomicReference<>();
 
         // Open a first transaction to get what we need to start the processing
         TransactionUtil.handle(() -> {
@@ -93,17 +116,55 @@ public class FileProcessingAsyncListener {
             // Get the creating user from the database for its private key
             UserDao userDao = new UserDao();
             user.set(userDao.getById(file.get().getUserId()));
+
+            // Find a file with the same content already processed the same way
+            signature.set(FileUtil.getProcessingSignature(file.get().getMimeType(), event.getLanguage()));
+            sourceFile.set(findProcessedFile(event, file.get(), signature.get()));
         });
 
         // Process the file outside of a transaction
         if (user.get() == null || file.get() == null) {
             // The user or file has been deleted
-            FileUtil.endProcessingFile(event.getFileId());
             return;
         }
-        String content = extractContent(event, user.get(), file.get());
+
+        // Reuse the thumbnails and content of the same content already processed
+        File source = sourceFile.get();
+        String content = null;
+        boolean reused = false;
+        if (source != null && source.getUserId().equals(file.get().getUserId())) {
+            try {
+                FileUtil.copyRenditions(source.getId(), event.getFileId());
+                content = source.getContent();
+                reused = true;
+                log.info("Processing reused from: " + source);
+            } catch (IOException e) {
+                log.error("Unable to reuse the processing of: " + source, e);
+            }
+        }
+
+        AtomicBoolean extracted = new AtomicBoolean(reused);
+        if (!reused) {
+            // The temporary unencrypted file is not kept in the jobs queue, or not kept at all if there is nothing to process
+            if (event.getUnencryptedFile() == null && FormatHandlerUtil.find(file.get().getMimeType()) != null) {
+                try {
+                    event.setUnencryptedFile(StorageUtil.decryptFile(event.getFileId(), user.get().getPrivateKey()));
+                } catch (Exception e) {
+                    throw new RuntimeException("Unable to decrypt the file: " + event.getFileId(), e);
+                }
+            }
+
+            // The renditions of another user can't be decrypted, only its text content is reused
+            content = extractContent(event, user.get(), file.get(), source == null, extracted);
+            if (source != null) {
+                content = source.getContent();
+                extracted.set(true);
+                log.info("Content reused from: " + source);
+            }
+        }
 
         // Open a new transaction to save the file content
+        String fileContent = content;
         TransactionUtil.handle(() -> {
             // Save the file to database
             FileDao fileDao = new FileDao();
@@ -113,8 +174,12 @@ public class FileProcessingAsyncListener {
                 return;
             }
 
-            freshFile.setContent(content);
+            freshFile.setContent(fileContent);
+            if (extracted.get()) {
+                freshFile.setProcessingSignature(signature.get());
+            }
             fileDao.update(freshFile);
+            fileDao.updateContent(freshFile.getId(), fileContent);
 
             // Update index with the updated file
             if (isFileCreated) {
@@ -123,8 +188,6 @@ public class FileProcessingAsyncListener {
                 AppContext.getInstance().getIndexingHandler().updateFile(freshFile);
             }
         });
-
-        FileUtil.endProcessingFile(event.getFileId());
     }
 
     /**
@@ -134,9 +197,11 @@ public class FileProcessingAsyncListener {
      * @param event File event
      * @param user User whom created the file
      * @param file Fresh file
+     * @param extractText False to only generate the thumbnails
+     * @param extracted Set to true if the text content has been extracted without error
      * @return Text content
      */
-    private String extractContent(FileEvent event, User user, File file) {
+    private String extractContent(FileEvent event, User user, File file, boolean extractText, AtomicBoolean extracted) {
         // Find a format handler
         FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
         if (formatHandler == null) {
@@ -144,43 +209,102 @@ public class FileProcessingAsyncListener {
             return null;
         }
 
-        // Generate file variations
+        // Parse the file once for the thumbnails and the content
+        ProcessingSession session;
         try {
-            Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-            BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
-            if (image != null) {
-                // Generate thumbnails from image
-                BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
-                BufferedImage thumbnail = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
-                image.flush();
-
-                // Write "web" encrypted image
-                Path outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(web, outputStream);
+            session = formatHandler.openSession(event.getUnencryptedFile());
+        } catch (Throwable e) {
+            log.error("Unable to open file: " + file, e);
+            return null;
+        }
+
+        String content = null;
+        try (session) {
+            // Generate file variations
+            try {
+                Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
+                BufferedImage image = session.generateThumbnail();
+                if (image != null) {
+                    // Generate thumbnails from image
+                    BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
+                    BufferedImage thumbnail = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
+                    image.flush();
+
+                    // Write "web" encrypted image
+                    StorageBackend backend = StorageUtil.getBackend();
+                    try (OutputStream outputStream = new CipherOutputStream(backend.newOutputStream(file.getId() + "_web"), cipher)) {
+                        ImageUtil.writeJpeg(web, outputStream);
+                    }
+
+                    // Write "thumb" encrypted image
+                    try (OutputStream outputStream = new CipherOutputStream(backend.newOutputStream(file.getId() + "_thumb"), cipher)) {
+                        ImageUtil.writeJpeg(thumbnail, outputStream);
+                    }
+
+                    // Forget the previous decrypted renditions
+                    RenditionCache.invalidate(file.getId());
                 }
+            } catch (Throwable e) {
+                log.error("Unable to generate thumbnails for: " + file, e);
+            }
 
-                // Write "thumb" encrypted image
-                outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(thumbnail, outputStream);
+            // Extract text content from the file
+            if (extractText) {
+                long startTime = System.currentTimeMillis();
+                log.info("Start extracting content from: " + file);
+                FileUtil.setCurrentProcessingFile(file.getId());
+                try {
+                    content = session.extractContent(event.getLanguage());
+                    extracted.set(true);
+                } catch (Throwable e) {
+                    log.error("Error extracting content from: " + file, e);
+                } finally {
+                    FileUtil.setCurrentProcessingFile(null);
                 }
+                log.info(MessageFormat.format("File content extracted in {0}ms: " + file.getId(), System.currentTimeMillis() - startTime));
             }
-        } catch (Throwable e) {
-            log.error("Unable to generate thumbnails for: " + file, e);
+        } catch (IOException e) {
+            log.error("Unable to close file: " + file, e);
         }
 
-        // Extract text content from the file
-        long startTime = System.currentTimeMillis();
-        String content = null;
-        log.info("Start extracting content from: " + file);
-        try {
-            content = formatHandler.extractContent(event.getLanguage(), event.getUnencryptedFile());
-        } catch (Throwable e) {
-            log.error("Error extracting content from: " + file, e);
+        return content;
+    }
+
+    /**
+     * Find a file with the same content already processed with the same signature.
+     * The file created with the same content is tried first, then the earlier versions.
+     *
+     * @param event File event
+     * @param file File to process
+     * @param signature Processing signature of the file
+     * @return Processed file with its text content or null if none
+     */
+    private File findProcessedFile(FileEvent event, File file, String signature) {
+        if (signature == null || file.getChecksum() == null) {
+            return null;
         }
-        log.info(MessageFormat.format("File content extracted in {0}ms: " + file.getId(), System.currentTimeMillis() - startTime));
 
-        return content;
+        FileDao fileDao = new FileDao();
+        List<File> candidateList = new ArrayList<>();
+        if (event.getSourceFileId() != null) {
+            File sourceFile = fileDao.getActiveById(event.getSourceFileId());
+            if (sourceFile != null) {
+                candidateList.add(sourceFile);
+            }
+        }
+        if (file.getVersionId() != null) {
+            candidateList.addAll(fileDao.getByVersionId(file.getVersionId()));
+        }
+
+        for (File candidate : candidateList) {
+            if (!candidate.getId().equals(file.getId())
+                    && file.getChecksum().equals(candidate.getChecksum())
+                    && signature.equals(candidate.getProcessingSignature())
+                    && !FileUtil.isProcessingFile(candidate.getId())) {
+                candidate.setContent(fileDao.getContent(candidate.getId()));
+                return candidate;
+            }
+        }
+        return null;
     }
 }
@@ -9,10 +9,14 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.indexing.IndexRebuildCheckpoint;
+import com.sismics.docs.core.util.indexing.IndexingHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Listener on rebuild index.
@@ -25,8 +29,15 @@ public class RebuildIndexAsyncListener {
      */
     private static final Logger log = LoggerFactory.getLogger(RebuildIndexAsyncListener.class);
 
+    /**
+     * Number of documents or files read from the database at once.
+     */
+    private static final int BATCH_SIZE = 100;
+
     /**
      * Rebuild Lucene index.
+     * Documents and files are read by ID order in short transactions, so the rebuild can resume
+     * from its last checkpoint if it is interrupted.
      * 
      * @param event Index rebuild event
      */
@@ -37,35 +48,96 @@ public class RebuildIndexAsyncListener {
             log.info("Rebuild index event: " + event.toString());
         }
 
-        // Clear the index
-        AppContext.getInstance().getIndexingHandler().clearIndex();
+        // Start or resume the rebuild
+        IndexingHandler indexingHandler = AppContext.getInstance().getIndexingHandler();
+        IndexRebuildCheckpoint checkpoint;
+        try {
+            AtomicLong totalCount = new AtomicLong();
+            TransactionUtil.handle(() -> totalCount.set(new DocumentDao().getDocumentCount() + new FileDao().getFileCount()));
+            checkpoint = indexingHandler.startRebuild(totalCount.get());
+        } catch (Exception e) {
+            log.error("Error starting the index rebuild", e);
+            return;
+        }
+        if (checkpoint == null) {
+            log.info("An index rebuild is already running");
+            return;
+        }
 
-        // Index all documents
-        TransactionUtil.handle(() -> {
-            int offset = 0;
-            DocumentDao documentDao = new DocumentDao();
+        boolean complete = false;
+        try {
+            // Index all documents
+            String lastDocumentId = checkpoint.getLastDocumentId();
             List<Document> documentList;
             do {
-                documentList = documentDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createDocuments(documentList);
-                offset += 100;
-            } while (documentList.size() > 0);
-        });
+                documentList = findDocuments(lastDocumentId);
+                indexingHandler.rebuildDocuments(documentList);
+                if (!documentList.isEmpty()) {
+                    lastDocumentId = documentList.get(documentList.size() - 1).getId();
+                }
+            } while (documentList.size() == BATCH_SIZE);
 
-        // Index all files
-        TransactionUtil.handle(() -> {
-            int offset = 0;
-            FileDao fileDao = new FileDao();
+            // Index all files
+            String lastFileId = checkpoint.getLastFileId();
             List<File> fileList;
             do {
-                fileList = fileDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createFiles(fileList);
-                offset += 100;
-            } while (fileList.size() > 0);
-        });
+                fileList = findFiles(lastFileId);
+                indexingHandler.rebuildFiles(fileList);
+                if (!fileList.isEmpty()) {
+                    lastFileId = fileList.get(fileList.size() - 1).getId();
+                }
+            } while (fileList.size() == BATCH_SIZE);
+
+            complete = true;
+        } catch (Exception e) {
+            log.error("Error rebuilding the index", e);
+        } finally {
+            try {
+                indexingHandler.endRebuild(complete);
+            } catch (Exception e) {
+                log.error("Error ending the index rebuild", e);
+            }
+        }
 
         if (log.isInfoEnabled()) {
             log.info("Rebuilding index done");
         }
     }
+
+    /**
+     * Returns the next batch of documents.
+     *
+     * @param lastDocumentId Last indexed document ID
+     * @return List of documents
+     * @throws IllegalStateException If the documents cannot be read
+     */
+    private List<Document> findDocuments(String lastDocumentId) {
+        AtomicReference<List<Document>> documentList = new AtomicReference<>();
+        TransactionUtil.handle(() -> documentList.set(new DocumentDao().findAllAfter(lastDocumentId, BATCH_SIZE)));
+        if (documentList.get() == null) {
+            throw new IllegalStateException("Unable to read the documents after " + lastDocumentId);
+        }
+        return documentList.get();
+    }
+
+    /**
+     * Returns the next batch of files.
+     *
+     * @param lastFileId Last indexed file ID
+     * @return List of files
+     * @throws IllegalStateException If the files cannot be read
+     */
+    private List<File> findFiles(String lastFileId) {
+        AtomicReference<List<File>> fileList = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            FileDao fileDao = new FileDao();
+            List<File> batchList = fileDao.findAllAfter(lastFileId, BATCH_SIZE);
+            fileDao.loadContents(batchList);
+            fileList.set(batchList);
+        });
+        if (fileList.get() == null) {
+            throw new IllegalStateException("Unable to read the files after " + lastFileId);
+        }
+        return fileList.get();
+    }
 }
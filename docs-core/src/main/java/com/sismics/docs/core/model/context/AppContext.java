@@ -11,8 +11,12 @@ import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.service.FileService;
 import com.sismics.docs.core.service.FileSizeService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.JobService;
+import com.sismics.docs.core.service.StorageMigrationService;
 import com.sismics.docs.core.util.PdfUtil;
 import com.sismics.docs.core.util.indexing.IndexingHandler;
+import com.sismics.docs.core.util.storage.MigratingStorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.util.ClasspathScanner;
 import com.sismics.util.EnvironmentUtil;
 import org.slf4j.Logger;
@@ -46,6 +50,11 @@ public class AppContext {
      */
     private EventBus asyncEventBus;
 
+    /**
+     * Listeners of the asynchronous events.
+     */
+    private List<Object> asyncListenerList;
+
     /**
      * Asynchronous bus for email sending.
      */
@@ -71,6 +80,16 @@ public class AppContext {
      */
     private FileSizeService fileSizeService;
 
+    /**
+     * Asynchronous jobs service.
+     */
+    private JobService jobService;
+
+    /**
+     * Storage migration service.
+     */
+    private StorageMigrationService storageMigrationService;
+
     /**
      * Asynchronous executors.
      */
@@ -103,6 +122,13 @@ public class AppContext {
         fileService.startAsync();
         fileService.awaitRunning();
 
+        // Start the jobs service, the jobs are run synchronously in unit tests
+        jobService = new JobService(asyncListenerList);
+        if (!EnvironmentUtil.isUnitTest()) {
+            jobService.startAsync();
+            jobService.awaitRunning();
+        }
+
         // Start inbox service
         inboxService = new InboxService();
         inboxService.startAsync();
@@ -113,6 +139,13 @@ public class AppContext {
         fileSizeService.startAsync();
         fileSizeService.awaitRunning();
 
+        // Start the storage migration service, the files of the flat layout are moved in the background
+        if (StorageUtil.getBackend() instanceof MigratingStorageBackend && !EnvironmentUtil.isUnitTest()) {
+            storageMigrationService = new StorageMigrationService((MigratingStorageBackend) StorageUtil.getBackend());
+            storageMigrationService.startAsync();
+            storageMigrationService.awaitRunning();
+        }
+
         // Register fonts
         PdfUtil.registerFonts();
 
@@ -145,16 +178,20 @@ public class AppContext {
     private void resetEventBus() {
         asyncExecutorList = new ArrayList<>();
 
+        asyncListenerList = Lists.newArrayList(
+                new FileProcessingAsyncListener(),
+                new FileDeletedAsyncListener(),
+                new DocumentCreatedAsyncListener(),
+                new DocumentUpdatedAsyncListener(),
+                new DocumentDeletedAsyncListener(),
+                new RebuildIndexAsyncListener(),
+                new AclCreatedAsyncListener(),
+                new AclDeletedAsyncListener(),
+                new WebhookAsyncListener());
         asyncEventBus = newAsyncEventBus();
-        asyncEventBus.register(new FileProcessingAsyncListener());
-        asyncEventBus.register(new FileDeletedAsyncListener());
-        asyncEventBus.register(new DocumentCreatedAsyncListener());
-        asyncEventBus.register(new DocumentUpdatedAsyncListener());
-        asyncEventBus.register(new DocumentDeletedAsyncListener());
-        asyncEventBus.register(new RebuildIndexAsyncListener());
-        asyncEventBus.register(new AclCreatedAsyncListener());
-        asyncEventBus.register(new AclDeletedAsyncListener());
-        asyncEventBus.register(new WebhookAsyncListener());
+        for (Object listener : asyncListenerList) {
+            asyncEventBus.register(listener);
+        }
 
         mailEventBus = newAsyncEventBus();
         mailEventBus.register(new PasswordLostAsyncListener());
@@ -202,6 +239,9 @@ public class AppContext {
         for (ThreadPoolExecutor executor : asyncExecutorList) {
             queueSize += executor.getTaskCount() - executor.getCompletedTaskCount();
         }
+        if (jobService != null) {
+            queueSize += jobService.getPendingCount();
+        }
         return queueSize;
     }
 
@@ -225,7 +265,16 @@ public class AppContext {
         return fileService;
     }
 
+    public JobService getJobService() {
+        return jobService;
+    }
+
     public void shutDown() {
+        if (jobService != null && jobService.isRunning()) {
+            jobService.stopAsync();
+            jobService.awaitTerminated();
+        }
+
         for (ExecutorService executor : asyncExecutorList) {
             // Shutdown executor, don't accept any more tasks (can cause error with nested events)
             try {
@@ -253,6 +302,10 @@ public class AppContext {
             fileSizeService.stopAsync();
         }
 
+        if (storageMigrationService != null) {
+            storageMigrationService.stopAsync();
+        }
+
         instance = null;
     }
 }
@@ -48,8 +48,9 @@ public class File implements Loggable {
 
     /**
      * OCR-ized content.
+     * Stored apart in T_FILE_CONTENT, only loaded on demand with the FileDao.
      */
-    @Column(name = "FIL_CONTENT_C")
+    @Transient
     private String content;
     
     /**
@@ -96,6 +97,18 @@ public class File implements Loggable {
     @Column(name = "FIL_SIZE_N", nullable = false)
     private Long size;
 
+    /**
+     * SHA-256 checksum of the unencrypted content, null for files uploaded before it was computed.
+     */
+    @Column(name = "FIL_CHECKSUM_C", length = 64)
+    private String checksum;
+
+    /**
+     * Signature of the processing which generated the thumbnails and text content.
+     */
+    @Column(name = "FIL_PROCESSINGSIGNATURE_C", length = 100)
+    private String processingSignature;
+
     /**
      * Private key to decrypt the file.
      * Not saved to database, of course.
@@ -224,6 +237,24 @@ public class File implements Loggable {
         return this;
     }
 
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public File setChecksum(String checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    public String getProcessingSignature() {
+        return processingSignature;
+    }
+
+    public File setProcessingSignature(String processingSignature) {
+        this.processingSignature = processingSignature;
+        return this;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
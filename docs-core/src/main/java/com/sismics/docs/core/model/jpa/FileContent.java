@@ -0,0 +1,53 @@
+package com.sismics.docs.core.model.jpa;
+
+import com.google.common.base.MoreObjects;
+
+import jakarta.persistence.*;
+
+/**
+ * Text content extracted from a file.
+ * Kept out of the file table to leave the file rows small.
+ *
+ * @author bgamard
+ */
+@Entity
+@Table(name = "T_FILE_CONTENT")
+public class FileContent {
+    /**
+     * File ID.
+     */
+    @Id
+    @Column(name = "FCO_IDFILE_C", length = 36)
+    private String fileId;
+
+    /**
+     * OCR-ized content.
+     */
+    @Column(name = "FCO_CONTENT_C", nullable = false)
+    private String content;
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public FileContent setFileId(String fileId) {
+        this.fileId = fileId;
+        return this;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public FileContent setContent(String content) {
+        this.content = content;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("fileId", fileId)
+                .toString();
+    }
+}
@@ -0,0 +1,194 @@
+package com.sismics.docs.core.model.jpa;
+
+import com.google.common.base.MoreObjects;
+import com.sismics.docs.core.constant.JobStatus;
+
+import jakarta.persistence.*;
+import java.util.Date;
+
+/**
+ * Asynchronous job entity.
+ *
+ * @author bgamard
+ */
+@Entity
+@Table(name = "T_JOB")
+public class Job {
+    /**
+     * Job ID.
+     */
+    @Id
+    @Column(name = "JOB_ID_C", length = 36)
+    private String id;
+
+    /**
+     * Job type (event class name).
+     */
+    @Column(name = "JOB_TYPE_C", nullable = false, length = 100)
+    private String type;
+
+    /**
+     * Listener of the event (class name), or null for all the listeners.
+     */
+    @Column(name = "JOB_LISTENER_C", length = 100)
+    private String listener;
+
+    /**
+     * Serialized event.
+     */
+    @Column(name = "JOB_PAYLOAD_C", nullable = false)
+    private String payload;
+
+    /**
+     * Status.
+     */
+    @Column(name = "JOB_STATUS_C", nullable = false, length = 10)
+    @Enumerated(EnumType.STRING)
+    private JobStatus status;
+
+    /**
+     * Number of failed attempts.
+     */
+    @Column(name = "JOB_ATTEMPT_N", nullable = false)
+    private int attempt;
+
+    /**
+     * Last error.
+     */
+    @Column(name = "JOB_ERROR_C", length = 4000)
+    private String error;
+
+    /**
+     * Worker owning the lease.
+     */
+    @Column(name = "JOB_LEASEOWNER_C", length = 36)
+    private String leaseOwner;
+
+    /**
+     * Lease expiration date.
+     */
+    @Column(name = "JOB_LEASEDATE_D")
+    private Date leaseDate;
+
+    /**
+     * Date from which the job can run.
+     */
+    @Column(name = "JOB_RUNDATE_D", nullable = false)
+    private Date runDate;
+
+    /**
+     * Creation date.
+     */
+    @Column(name = "JOB_CREATEDATE_D", nullable = false)
+    private Date createDate;
+
+    public String getId() {
+        return id;
+    }
+
+    public Job setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Job setType(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public String getListener() {
+        return listener;
+    }
+
+    public Job setListener(String listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public Job setPayload(String payload) {
+        this.payload = payload;
+        return this;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public Job setStatus(JobStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public Job setAttempt(int attempt) {
+        this.attempt = attempt;
+        return this;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Job setError(String error) {
+        this.error = error;
+        return this;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public Job setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+        return this;
+    }
+
+    public Date getLeaseDate() {
+        return leaseDate;
+    }
+
+    public Job setLeaseDate(Date leaseDate) {
+        this.leaseDate = leaseDate;
+        return this;
+    }
+
+    public Date getRunDate() {
+        return runDate;
+    }
+
+    public Job setRunDate(Date runDate) {
+        this.runDate = runDate;
+        return this;
+    }
+
+    public Date getCreateDate() {
+        return createDate;
+    }
+
+    public Job setCreateDate(Date createDate) {
+        this.createDate = createDate;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("type", type)
+                .add("listener", listener)
+                .add("status", status)
+                .add("attempt", attempt)
+                .toString();
+    }
+}
@@ -10,8 +10,8 @@ import java.lang.ref.ReferenceQueue;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -29,7 +29,7 @@ public class FileService extends AbstractScheduledService {
      * Phantom references queue.
      */
     private final ReferenceQueue<Path> referenceQueue = new ReferenceQueue<>();
-    private final Set<TemporaryPathReference> referenceSet = new HashSet<>();
+    private final Set<TemporaryPathReference> referenceSet = ConcurrentHashMap.newKeySet();
 
     public FileService() {
     }
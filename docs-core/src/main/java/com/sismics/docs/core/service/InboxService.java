@@ -6,6 +6,7 @@ import com.sismics.docs.core.dao.TagDao;
 import com.sismics.docs.core.dao.criteria.TagCriteria;
 import com.sismics.docs.core.dao.dto.TagDto;
 import com.sismics.docs.core.event.DocumentCreatedAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.Tag;
 import com.sismics.docs.core.util.ConfigUtil;
@@ -76,6 +77,12 @@ public class InboxService extends AbstractScheduledService {
                 return;
             }
 
+            // Let the queued jobs drain before importing more documents
+            if (AppContext.getInstance().getJobService().isOverloaded()) {
+                log.info("Too many pending jobs, the inbox will be synchronized later");
+                return;
+            }
+
             log.info("Synchronizing IMAP inbox...");
             Folder inbox = null;
             lastSyncError = null;
@@ -0,0 +1,444 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.JobStatus;
+import com.sismics.docs.core.dao.JobDao;
+import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
+import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
+import com.sismics.docs.core.model.jpa.Job;
+import com.sismics.docs.core.util.JobUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Asynchronous jobs service.
+ * Events are queued in the database in the transaction firing them, one job for each listener,
+ * then claimed by this service with a lease and dispatched to their listener.
+ *
+ * @author bgamard
+ */
+public class JobService extends AbstractExecutionThreadService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(JobService.class);
+
+    /**
+     * Delay between two polls of the queue (in milliseconds).
+     */
+    private static final long POLL_INTERVAL = 2000L;
+
+    /**
+     * Duration of a lease (in milliseconds), renewed while the job is running.
+     */
+    private static final long LEASE_DURATION = 5L * 60L * 1000L;
+
+    /**
+     * Maximum delay between two retries (in milliseconds).
+     */
+    private static final long MAX_RETRY_DELAY = 60L * 60L * 1000L;
+
+    /**
+     * Unique identifier of this worker.
+     */
+    private final String leaseOwner = UUID.randomUUID().toString();
+
+    /**
+     * Listeners of the queued events.
+     */
+    private final List<Object> listenerList;
+
+    /**
+     * Synchronous event buses dispatching the jobs to each listener, by listener name.
+     */
+    private final Map<String, EventBus> eventBusMap = new LinkedHashMap<>();
+
+    /**
+     * Listener names by event class.
+     */
+    private final Map<Class<?>, List<String>> listenerNamesMap = new ConcurrentHashMap<>();
+
+    /**
+     * Error raised by a listener on the current thread.
+     */
+    private final ThreadLocal<Throwable> listenerError = new ThreadLocal<>();
+
+    /**
+     * Events queued by this instance, they hold temporary files which must live until the job is done.
+     */
+    private final Cache<String, Object> eventCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * Running jobs permits by job type.
+     */
+    private final Map<String, Semaphore> permitsMap = new ConcurrentHashMap<>();
+
+    /**
+     * Default number of concurrent jobs of a type.
+     */
+    private final int concurrency;
+
+    /**
+     * Number of concurrent file processing jobs.
+     */
+    private final int fileProcessingConcurrency;
+
+    /**
+     * Maximum number of attempts of a job.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Delay before the first retry (in milliseconds), doubled on each attempt.
+     */
+    private final long retryDelay;
+
+    /**
+     * Number of pending jobs above which the producers should slow down.
+     */
+    private final long queueLimit;
+
+    /**
+     * Number of pending jobs at the last poll.
+     */
+    private final AtomicLong pendingCount = new AtomicLong();
+
+    /**
+     * Wakes up the polling thread.
+     */
+    private final Semaphore wakeUp = new Semaphore(0);
+
+    /**
+     * Jobs executor.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param listenerList Listeners of the queued events
+     */
+    public JobService(List<Object> listenerList) {
+        this(listenerList, (int) EnvironmentUtil.getEnvLong(Constants.JOB_MAX_ATTEMPTS_ENV, 5), 30L * 1000L);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listenerList Listeners of the queued events
+     * @param maxAttempts Maximum number of attempts of a job
+     * @param retryDelay Delay before the first retry (in milliseconds)
+     */
+    JobService(List<Object> listenerList, int maxAttempts, long retryDelay) {
+        for (Object listener : listenerList) {
+            EventBus eventBus = new EventBus((exception, context) -> listenerError.set(exception));
+            eventBus.register(listener);
+            eventBusMap.put(listener.getClass().getSimpleName(), eventBus);
+        }
+        this.listenerList = listenerList;
+
+        int defaultConcurrency = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
+        concurrency = (int) EnvironmentUtil.getEnvLong(Constants.JOB_CONCURRENCY_ENV, defaultConcurrency);
+        fileProcessingConcurrency = (int) EnvironmentUtil.getEnvLong(Constants.JOB_FILE_PROCESSING_CONCURRENCY_ENV, defaultConcurrency);
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        queueLimit = EnvironmentUtil.getEnvLong(Constants.JOB_QUEUE_LIMIT_ENV, 1000);
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Job service starting up");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void run() {
+        while (isRunning()) {
+            try {
+                poll();
+            } catch (Throwable e) {
+                log.error("Exception during job polling", e);
+            }
+
+            try {
+                wakeUp.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void triggerShutdown() {
+        wakeUp.release();
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Job service shutting down");
+        executor.shutdown();
+        try {
+            // Unfinished jobs will be claimed again when their lease expires
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // NOP
+        }
+    }
+
+    /**
+     * Submit a job queued in a committed transaction.
+     * In unit tests, the job is run immediately on the current thread.
+     *
+     * @param jobId Job ID
+     * @param event Queued event
+     */
+    public void submit(String jobId, Object event) {
+        eventCache.put(jobId, event);
+        if (EnvironmentUtil.isUnitTest()) {
+            AtomicReference<Job> job = new AtomicReference<>();
+            TransactionUtil.handle(() -> {
+                JobDao jobDao = new JobDao();
+                if (jobDao.claim(jobId, leaseOwner, getLeaseDate())) {
+                    job.set(jobDao.getById(jobId));
+                }
+            });
+            if (job.get() != null) {
+                execute(job.get());
+            } else {
+                eventCache.invalidate(jobId);
+            }
+        } else {
+            wakeUp.release();
+        }
+    }
+
+    /**
+     * Returns the names of the listeners subscribed to an event.
+     *
+     * @param eventClass Event class
+     * @return Listener names
+     */
+    public List<String> getListenerNames(Class<?> eventClass) {
+        return listenerNamesMap.computeIfAbsent(eventClass, c -> {
+            List<String> listenerNameList = new ArrayList<>();
+            for (Object listener : listenerList) {
+                for (Method method : listener.getClass().getMethods()) {
+                    if (method.isAnnotationPresent(Subscribe.class) && method.getParameterCount() == 1
+                            && method.getParameterTypes()[0].isAssignableFrom(c)) {
+                        listenerNameList.add(listener.getClass().getSimpleName());
+                        break;
+                    }
+                }
+            }
+            return listenerNameList;
+        });
+    }
+
+    /**
+     * Returns true if too many jobs are pending and the producers should slow down.
+     *
+     * @return True if the queue is full
+     */
+    public boolean isOverloaded() {
+        return pendingCount.get() >= queueLimit;
+    }
+
+    /**
+     * Returns the number of pending jobs at the last poll.
+     *
+     * @return Number of pending jobs
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Claim and run the jobs ready to run.
+     */
+    private void poll() {
+        for (Job job : claim()) {
+            Semaphore permits = getPermits(job.getType());
+            try {
+                executor.execute(() -> {
+                    try {
+                        execute(job);
+                    } finally {
+                        permits.release();
+                        wakeUp.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the lease will expire
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Claim and run the jobs ready to run on the current thread.
+     * Used when the service is not started, in unit tests.
+     */
+    void runPending() {
+        for (Job job : claim()) {
+            try {
+                execute(job);
+            } finally {
+                getPermits(job.getType()).release();
+            }
+        }
+    }
+
+    /**
+     * Claim the jobs ready to run, within the running jobs permits.
+     *
+     * @return Claimed jobs, holding a permit each
+     */
+    private List<Job> claim() {
+        List<Job> claimedList = new ArrayList<>();
+        AtomicBoolean committed = new AtomicBoolean();
+        TransactionUtil.handle(() -> {
+            JobDao jobDao = new JobDao();
+            jobDao.renewLeases(leaseOwner, getLeaseDate());
+
+            for (String type : jobDao.findRunnableTypes()) {
+                Semaphore permits = getPermits(type);
+                int available = permits.availablePermits();
+                if (available == 0) {
+                    continue;
+                }
+
+                for (Job job : jobDao.findRunnable(type, available)) {
+                    if (!permits.tryAcquire()) {
+                        break;
+                    }
+                    if (jobDao.claim(job.getId(), leaseOwner, getLeaseDate())) {
+                        claimedList.add(job);
+                    } else {
+                        // Claimed by another worker
+                        permits.release();
+                    }
+                }
+            }
+
+            pendingCount.set(jobDao.countByStatus().get(JobStatus.PENDING));
+            committed.set(true);
+        });
+
+        if (!committed.get()) {
+            // The claims have been rolled back
+            for (Job job : claimedList) {
+                getPermits(job.getType()).release();
+            }
+            return Collections.emptyList();
+        }
+        return claimedList;
+    }
+
+    /**
+     * Dispatch a claimed job to its listener and record the result.
+     * The listener runs in a job context, so the errors of its transactions are retried.
+     *
+     * @param job Claimed job
+     */
+    private void execute(Job job) {
+        Throwable error;
+        try {
+            Object event = eventCache.getIfPresent(job.getId());
+            if (event == null) {
+                event = JobUtil.readEvent(job);
+            }
+
+            List<EventBus> eventBusList;
+            if (job.getListener() == null) {
+                // Job queued for all the listeners
+                eventBusList = new ArrayList<>(eventBusMap.values());
+            } else {
+                EventBus eventBus = eventBusMap.get(job.getListener());
+                if (eventBus == null) {
+                    throw new IllegalStateException("Unknown listener: " + job.getListener());
+                }
+                eventBusList = Collections.singletonList(eventBus);
+            }
+
+            Object jobEvent = event;
+            TransactionUtil.runJob(() -> eventBusList.forEach(eventBus -> eventBus.post(jobEvent)));
+            error = listenerError.get();
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            listenerError.remove();
+        }
+
+        Throwable jobError = error;
+        TransactionUtil.handle(() -> {
+            JobDao jobDao = new JobDao();
+            if (jobError == null) {
+                jobDao.delete(job.getId());
+                return;
+            }
+
+            int attempt = job.getAttempt() + 1;
+            Date runDate = null;
+            if (attempt < maxAttempts) {
+                long delay = Math.min(retryDelay << Math.min(attempt - 1, 20), MAX_RETRY_DELAY);
+                runDate = new Date(System.currentTimeMillis() + delay);
+                log.warn("Job " + job + " failed, retrying at " + runDate, jobError);
+            } else {
+                log.error("Job " + job + " failed " + attempt + " times, giving up", jobError);
+            }
+            jobDao.fail(job.getId(), Throwables.getStackTraceAsString(jobError), runDate);
+        });
+
+        if (jobError == null || job.getAttempt() + 1 >= maxAttempts) {
+            eventCache.invalidate(job.getId());
+        }
+    }
+
+    /**
+     * Returns the running jobs permits of a job type.
+     *
+     * @param type Job type
+     * @return Permits
+     */
+    private Semaphore getPermits(String type) {
+        return permitsMap.computeIfAbsent(type, t -> {
+            if (t.equals(FileCreatedAsyncEvent.class.getSimpleName()) || t.equals(FileUpdatedAsyncEvent.class.getSimpleName())) {
+                return new Semaphore(fileProcessingConcurrency);
+            }
+            if (t.equals(RebuildIndexAsyncEvent.class.getSimpleName())) {
+                // The listener can only rebuild once at a time
+                return new Semaphore(1);
+            }
+            return new Semaphore(concurrency);
+        });
+    }
+
+    /**
+     * Returns the expiration date of a new lease.
+     *
+     * @return Lease date
+     */
+    private Date getLeaseDate() {
+        return new Date(System.currentTimeMillis() + LEASE_DURATION);
+    }
+}
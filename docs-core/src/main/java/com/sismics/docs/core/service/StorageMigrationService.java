@@ -0,0 +1,74 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.storage.MigratingStorageBackend;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service moving the stored files from the flat layout to the sharded layout.
+ * Files are moved in small batches with a pause between them, they are read in place until moved.
+ *
+ * @author bgamard
+ */
+public class StorageMigrationService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(StorageMigrationService.class);
+
+    /**
+     * Storage backend to migrate.
+     */
+    private final MigratingStorageBackend backend;
+
+    /**
+     * Number of files moved by batch.
+     */
+    private final int batchSize = (int) EnvironmentUtil.getEnvLong(Constants.STORAGE_MIGRATION_BATCH_SIZE_ENV, 500);
+
+    /**
+     * Pause between two batches (in milliseconds).
+     */
+    private final long delay = EnvironmentUtil.getEnvLong(Constants.STORAGE_MIGRATION_DELAY_ENV, 1000);
+
+    /**
+     * Constructor.
+     *
+     * @param backend Storage backend to migrate
+     */
+    public StorageMigrationService(MigratingStorageBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Storage migration service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Storage migration service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            if (!backend.migrate(batchSize)) {
+                log.info("Storage migrated to the sharded layout: " + backend.getStatistics());
+                stopAsync();
+            }
+        } catch (Throwable e) {
+            log.error("Exception during storage migration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -68,6 +68,15 @@ public class DirectoryUtil {
         return getDataSubDirectory("lucene");
     }
     
+    /**
+     * Returns the Lucene rebuild directory.
+     *
+     * @return Lucene rebuild directory.
+     */
+    public static Path getLuceneRebuildDirectory() {
+        return getDataSubDirectory("lucene-rebuild");
+    }
+
     /**
      * Returns the storage directory.
      * 
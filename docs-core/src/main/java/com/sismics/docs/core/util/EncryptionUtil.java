@@ -1,22 +1,32 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
-import com.sismics.docs.core.model.context.AppContext;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.io.ByteStreams;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.jcajce.provider.symmetric.util.BCPBEKey;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.math.BigInteger;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encryption utilities.
@@ -28,6 +38,21 @@ public class EncryptionUtil {
      * Salt.
      */
     private static final String SALT = "LEpxZmm2SMu2PeKzPNrar2rhVAS6LrrgvXKeL9uyXC4vgKHg";
+
+    /**
+     * Derived secret keys by private key.
+     * Key derivation is costly, so keys are kept in memory for a while.
+     */
+    private static final LoadingCache<String, SecretKey> secretKeyCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build(new CacheLoader<>() {
+                @Override
+                public SecretKey load(String privateKey) throws Exception {
+                    return deriveSecretKey(privateKey);
+                }
+            });
     
     static {
         // Initialize Bouncy Castle provider
@@ -62,24 +87,41 @@ public class EncryptionUtil {
     }
 
     /**
-     * Decrypt a file to a temporary file using the specified private key.
+     * Decrypt an InputStream starting at an offset of the encrypted data.
+     * The data is encrypted in CTR mode, so the counter is moved to the block of the offset
+     * instead of decrypting everything before it.
      *
-     * @param file Encrypted file
+     * @param is InputStream to decrypt, positioned at the offset
      * @param privateKey Private key
-     * @return Decrypted temporary file
+     * @param offset Offset of the InputStream in the encrypted data
+     * @return Decrypted stream
      * @throws Exception e
      */
-    public static Path decryptFile(Path file, String privateKey) throws Exception {
-        if (privateKey == null) {
-            // For unit testing
-            return file;
+    public static InputStream decryptInputStream(InputStream is, String privateKey, long offset) throws Exception {
+        if (offset == 0) {
+            return decryptInputStream(is, privateKey);
         }
 
-        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        try (InputStream is = Files.newInputStream(file)) {
-            Files.copy(new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE)), tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        // The PBE key holds the AES key and the initial counter
+        ParametersWithIV parameters = (ParametersWithIV) ((BCPBEKey) getSecretKey(privateKey)).getParam();
+        byte[] counter = parameters.getIV().clone();
+        long block = offset / 16;
+        for (int i = counter.length - 1; i >= 0 && block != 0; i--) {
+            long sum = (counter[i] & 0xFF) + (block & 0xFF);
+            counter[i] = (byte) sum;
+            block = (block >>> 8) + (sum >>> 8);
         }
-        return tmpFile;
+
+        Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(((KeyParameter) parameters.getParameters()).getKey(), "AES"),
+                new IvParameterSpec(counter));
+
+        // Pad the input to the beginning of the block, and skip the padding once decrypted
+        int padding = (int) (offset % 16);
+        InputStream decryptedInputStream = new CipherInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(new byte[padding]), is), cipher);
+        ByteStreams.skipFully(decryptedInputStream, padding);
+        return decryptedInputStream;
     }
 
     /**
@@ -105,11 +147,46 @@ public class EncryptionUtil {
      * @throws Exception e
      */
     private static Cipher getCipher(String privateKey, int mode) throws Exception {
-        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
-        SecretKey desKey = skf.generateSecret(keySpec);
+        SecretKey desKey = getSecretKey(privateKey);
         Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
         cipher.init(mode, desKey);
         return cipher;
     }
+
+    /**
+     * Returns the secret key of a private key.
+     *
+     * @param privateKey Private key
+     * @return Secret key
+     * @throws Exception e
+     */
+    private static SecretKey getSecretKey(String privateKey) throws Exception {
+        try {
+            return secretKeyCache.get(privateKey);
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Derive a secret key from a private key.
+     *
+     * @param privateKey Private key
+     * @return Secret key
+     * @throws Exception e
+     */
+    private static SecretKey deriveSecretKey(String privateKey) throws Exception {
+        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
+        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
+        return skf.generateSecret(keySpec);
+    }
+
+    /**
+     * Returns the statistics of the secret key cache.
+     *
+     * @return Cache statistics
+     */
+    public static CacheStats getSecretKeyCacheStats() {
+        return secretKeyCache.stats();
+    }
 }
@@ -2,7 +2,11 @@ package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
@@ -11,6 +15,11 @@ import com.sismics.docs.core.event.FileCreatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import com.sismics.util.EnvironmentUtil;
 import com.sismics.util.ImageDeskew;
 import com.sismics.util.Scalr;
 import com.sismics.util.context.ThreadLocalContext;
@@ -19,21 +28,27 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * File entity utilities.
@@ -46,11 +61,64 @@ public class FileUtil {
      */
     private static final Logger log = LoggerFactory.getLogger(FileUtil.class);
 
+    /**
+     * Size of the buffer used to stream new files (in bytes).
+     */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of bytes read to guess the MIME type of a stream.
+     */
+    private static final int MIME_HEADER_SIZE = 512;
+
+    /**
+     * True if the files of a user with the same content share the same stored file.
+     */
+    private static boolean storageDedup = EnvironmentUtil.getEnvBoolean(Constants.STORAGE_DEDUP_ENV, false);
+
+    /**
+     * Version of the processing, to increase when the extraction changes the results of already processed files.
+     */
+    private static final int PROCESSING_VERSION = 1;
+
     /**
      * File ID of files currently being processed.
      */
     private static final Set<String> processingFileSet = Collections.synchronizedSet(new HashSet<>());
-    
+
+    /**
+     * Processing progress by file ID (in percent).
+     */
+    private static final Map<String, Integer> processingProgressMap = new ConcurrentHashMap<>();
+
+    /**
+     * File ID processed by the current thread.
+     */
+    private static final ThreadLocal<String> currentProcessingFileId = new ThreadLocal<>();
+
+    /**
+     * Number of OCR threads, pages of a document are OCR-ized in parallel.
+     */
+    private static final int ocrThreadCount = (int) EnvironmentUtil.getEnvLong(Constants.OCR_THREADS_ENV,
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * OCR executor.
+     */
+    private static final ExecutorService ocrExecutor = Executors.newFixedThreadPool(ocrThreadCount,
+            new ThreadFactoryBuilder().setNameFormat("ocr-%d").setDaemon(true).build());
+
+    /**
+     * Tesseract processes permits, to bound the CPU and memory used by OCR.
+     */
+    private static final Semaphore tesseractPermits = new Semaphore((int) EnvironmentUtil.getEnvLong(Constants.OCR_MAX_PROCESSES_ENV,
+            Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Rendered pages permits, no more pages than OCR threads are kept in memory across all the files.
+     */
+    private static final Semaphore renderedPages = new Semaphore(ocrThreadCount);
+
     /**
      * Optical character recognition on an image.
      *
@@ -69,39 +137,119 @@ public class FileUtil {
         Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
         ImageIO.write(deskewedImage, "tiff", tmpFile.toFile());
 
+        deskewedImage.flush();
+
         List<String> result = Lists.newLinkedList(Arrays.asList("tesseract", tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
         ProcessBuilder pb = new ProcessBuilder(result);
-        Process process = pb.start();
+        tesseractPermits.acquire();
+        try {
+            Process process = pb.start();
 
-        // Consume the process error stream
-        final String commandName = pb.command().get(0);
-        new InputStreamReaderThread(process.getErrorStream(), commandName).start();
+            // Consume the process error stream
+            final String commandName = pb.command().get(0);
+            new InputStreamReaderThread(process.getErrorStream(), commandName).start();
 
-        // Consume the data as text
-        try (InputStream is = process.getInputStream()) {
-            return CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
+            // Consume the data as text
+            try (InputStream is = process.getInputStream()) {
+                return CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
+            }
+        } finally {
+            tesseractPermits.release();
         }
     }
 
+    /**
+     * Optical character recognition on many pages in parallel.
+     * Pages are rendered one at a time on the current thread, no more pages than OCR threads are kept in memory,
+     * even when several files are OCR-ized at the same time.
+     *
+     * @param language Language to OCR
+     * @param pageCount Number of pages
+     * @param pageRenderer Renders a page by index
+     * @return Content extracted, in page order
+     * @throws Exception e
+     */
+    public static String ocrPages(String language, int pageCount, PageRenderer pageRenderer) throws Exception {
+        String fileId = currentProcessingFileId.get();
+        AtomicInteger ocrPageCount = new AtomicInteger();
+        List<Future<String>> futureList = new ArrayList<>();
+        List<AtomicBoolean> startedList = new ArrayList<>();
+        try {
+            for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+                renderedPages.acquire();
+                BufferedImage image;
+                try {
+                    image = pageRenderer.render(pageIndex);
+                } catch (Exception e) {
+                    renderedPages.release();
+                    throw e;
+                }
+
+                // The permit is released by the page OCR, or by the cancellation if it never started
+                AtomicBoolean started = new AtomicBoolean();
+                startedList.add(started);
+                futureList.add(ocrExecutor.submit(() -> {
+                    if (!started.compareAndSet(false, true)) {
+                        return null;
+                    }
+                    try {
+                        String content = ocrFile(language, image);
+                        int ocrPage = ocrPageCount.incrementAndGet();
+                        log.info("OCR page " + ocrPage + "/" + pageCount + " of file containing only images");
+                        if (fileId != null) {
+                            processingProgressMap.put(fileId, ocrPage * 100 / pageCount);
+                        }
+                        return content;
+                    } finally {
+                        renderedPages.release();
+                    }
+                }));
+            }
+
+            // Reassemble the pages in order
+            StringBuilder sb = new StringBuilder();
+            for (Future<String> future : futureList) {
+                sb.append(" ");
+                sb.append(future.get());
+            }
+            return sb.toString();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            for (int i = 0; i < futureList.size(); i++) {
+                futureList.get(i).cancel(false);
+                if (startedList.get(i).compareAndSet(false, true)) {
+                    renderedPages.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders a page of a document.
+     */
+    @FunctionalInterface
+    public interface PageRenderer {
+        /**
+         * Renders a page.
+         *
+         * @param pageIndex Page index
+         * @return Page image
+         * @throws Exception e
+         */
+        BufferedImage render(int pageIndex) throws Exception;
+    }
+
     /**
      * Remove a file from the storage filesystem.
      * 
      * @param fileId ID of file to delete
      */
     public static void delete(String fileId) throws IOException {
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
-        Path webFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_web");
-        Path thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_thumb");
-        
-        if (Files.exists(storedFile)) {
-            Files.delete(storedFile);
-        }
-        if (Files.exists(webFile)) {
-            Files.delete(webFile);
-        }
-        if (Files.exists(thumbnailFile)) {
-            Files.delete(thumbnailFile);
-        }
+        StorageBackend backend = StorageUtil.getBackend();
+        backend.delete(fileId);
+        backend.delete(fileId + "_web");
+        backend.delete(fileId + "_thumb");
     }
 
     /**
@@ -126,23 +274,69 @@ public class FileUtil {
             throw new IOException("ErrorGuessMime", e);
         }
 
-        // Validate user quota
-        UserDao userDao = new UserDao();
-        User user = userDao.getById(userId);
-        if (user.getStorageCurrent() + fileSize > user.getStorageQuota()) {
-            throw new IOException("QuotaReached");
+        // Validate quota before reading anything
+        checkQuota(new UserDao().getById(userId), fileSize);
+
+        // The file is already on disk, hash it first to skip the encryption of a known content
+        String checksum = null;
+        if (isStorageDedup()) {
+            checksum = com.google.common.io.Files.asByteSource(unencryptedFile.toFile()).hash(Hashing.sha256()).toString();
         }
 
-        // Validate global quota
-        String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
-        if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
-            long globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
-            long globalStorageCurrent = userDao.getGlobalStorageCurrent();
-            if (globalStorageCurrent + fileSize > globalStorageQuota) {
-                throw new IOException("QuotaReached");
-            }
+        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
+            return createFile(name, mimeType, previousFileId, inputStream, unencryptedFile, checksum, language, userId, documentId).getId();
+        }
+    }
+
+    /**
+     * Create a new file from a stream, read only once.
+     * The content is encrypted to the storage as it arrives, the quota is checked along the way,
+     * and an unencrypted copy is kept only if the file needs to be processed.
+     *
+     * @param name File name, can be null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param inputStream Unencrypted content
+     * @param language File language, can be null if associated to no document
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return New file
+     * @throws Exception e
+     */
+    public static File createFile(String name, String previousFileId, InputStream inputStream, String language, String userId, String documentId) throws Exception {
+        return createFile(name, null, previousFileId, inputStream, null, null, language, userId, documentId);
+    }
+
+    /**
+     * Create a new file.
+     *
+     * @param name File name, can be null
+     * @param mimeType MIME type, guessed from the stream if null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param inputStream Unencrypted content
+     * @param unencryptedFile Path to the unencrypted file if already on disk, or null
+     * @param checksum Checksum of the content if already known, or null
+     * @param language File language, can be null if associated to no document
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return New file
+     * @throws Exception e
+     */
+    private static File createFile(String name, String mimeType, String previousFileId, InputStream inputStream, Path unencryptedFile,
+                                   String checksum, String language, String userId, String documentId) throws Exception {
+        // Guess the mime type from the first bytes
+        inputStream = new BufferedInputStream(inputStream, STREAM_BUFFER_SIZE);
+        if (mimeType == null) {
+            inputStream.mark(MIME_HEADER_SIZE);
+            byte[] header = inputStream.readNBytes(MIME_HEADER_SIZE);
+            inputStream.reset();
+            mimeType = MimeTypeUtil.guessMimeType(header, name);
         }
 
+        // Quota available to this file
+        UserDao userDao = new UserDao();
+        User user = userDao.getById(userId);
+        long remainingQuota = checkQuota(user, 0);
+
         // Prepare the file
         File file = new File();
         file.setOrder(0);
@@ -152,7 +346,7 @@ public class FileUtil {
         file.setName(StringUtils.abbreviate(name, 200));
         file.setMimeType(mimeType);
         file.setUserId(userId);
-        file.setSize(fileSize);
+        file.setSize(0L);
 
         // Get files of this document
         FileDao fileDao = new FileDao();
@@ -185,13 +379,56 @@ public class FileUtil {
         // Create the file
         String fileId = fileDao.create(file, userId);
 
-        // Save the file
-        Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-        Path path = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
-            Files.copy(new CipherInputStream(inputStream, cipher), path);
+        // Keep an unencrypted copy for the processing only if there is something to process
+        Path processingFile = unencryptedFile;
+        if (processingFile == null && FormatHandlerUtil.find(mimeType) != null) {
+            processingFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
         }
 
+        // Share the stored content of an identical file if it is already known
+        StorageBackend backend = StorageUtil.getBackend();
+        File sourceFile = checksum == null ? null : fileDao.getByChecksum(userId, checksum, fileId);
+        long fileSize;
+        try {
+            if (sourceFile != null) {
+                fileSize = sourceFile.getSize();
+                if (fileSize > remainingQuota) {
+                    throw new IOException("QuotaReached");
+                }
+                backend.copy(sourceFile.getId(), fileId);
+            } else {
+                // Save the file, hashing and counting it in the same pass
+                Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
+                Hasher hasher = Hashing.sha256().newHasher();
+                try (OutputStream storageStream = new CipherOutputStream(backend.newOutputStream(fileId), cipher);
+                     OutputStream processingStream = processingFile == null || processingFile == unencryptedFile ?
+                             OutputStream.nullOutputStream() : Files.newOutputStream(processingFile)) {
+                    fileSize = copyStream(inputStream, new TeeOutputStream(storageStream, processingStream), hasher, remainingQuota);
+                } catch (Exception e) {
+                    backend.delete(fileId);
+                    throw e;
+                }
+                checksum = hasher.hash().toString();
+
+                // A streamed content is known only once stored, replace it by the stored content of an identical file
+                if (isStorageDedup()) {
+                    sourceFile = fileDao.getByChecksum(userId, checksum, fileId);
+                    if (sourceFile != null) {
+                        backend.copy(sourceFile.getId(), fileId);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // The file is not created, its unencrypted copy will not be processed
+            if (processingFile != null && processingFile != unencryptedFile) {
+                Files.deleteIfExists(processingFile);
+            }
+            throw e;
+        }
+        file.setSize(fileSize);
+        file.setChecksum(checksum);
+        fileDao.update(file);
+
         // Update the user quota
         user.setStorageCurrent(user.getStorageCurrent() + fileSize);
         userDao.updateQuota(user);
@@ -202,7 +439,10 @@ public class FileUtil {
         fileCreatedAsyncEvent.setUserId(userId);
         fileCreatedAsyncEvent.setLanguage(language);
         fileCreatedAsyncEvent.setFileId(file.getId());
-        fileCreatedAsyncEvent.setUnencryptedFile(unencryptedFile);
+        fileCreatedAsyncEvent.setUnencryptedFile(processingFile);
+        if (sourceFile != null) {
+            fileCreatedAsyncEvent.setSourceFileId(sourceFile.getId());
+        }
         ThreadLocalContext.get().addAsyncEvent(fileCreatedAsyncEvent);
 
         if (documentId != null) {
@@ -212,7 +452,120 @@ public class FileUtil {
             ThreadLocalContext.get().addAsyncEvent(documentUpdatedAsyncEvent);
         }
 
-        return fileId;
+        return file;
+    }
+
+    /**
+     * Copy a new file, hashing it and checking the quota along the way.
+     *
+     * @param inputStream Unencrypted content
+     * @param outputStream Output stream
+     * @param hasher Hasher of the content
+     * @param remainingQuota Quota available to this file (in bytes)
+     * @return File size
+     * @throws IOException If the quota is reached or the stream is broken
+     */
+    private static long copyStream(InputStream inputStream, OutputStream outputStream, Hasher hasher, long remainingQuota) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long fileSize = 0;
+        while (true) {
+            int length;
+            try {
+                length = inputStream.read(buffer);
+            } catch (IOException e) {
+                throw new IOException("StreamError", e);
+            }
+            if (length == -1) {
+                return fileSize;
+            }
+
+            fileSize += length;
+            if (fileSize > remainingQuota) {
+                throw new IOException("QuotaReached");
+            }
+            hasher.putBytes(buffer, 0, length);
+            outputStream.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Check that a user can store a new file.
+     *
+     * @param user User
+     * @param fileSize File size
+     * @return Remaining quota after this file (in bytes)
+     * @throws IOException If the quota is reached
+     */
+    private static long checkQuota(User user, long fileSize) throws IOException {
+        // Validate user quota
+        long remainingQuota = user.getStorageQuota() - user.getStorageCurrent() - fileSize;
+
+        // Validate global quota
+        String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
+        if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
+            long globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
+            long globalStorageCurrent = new UserDao().getGlobalStorageCurrent();
+            remainingQuota = Math.min(remainingQuota, globalStorageQuota - globalStorageCurrent - fileSize);
+        }
+
+        if (remainingQuota < 0) {
+            throw new IOException("QuotaReached");
+        }
+        return remainingQuota;
+    }
+
+    /**
+     * Share the renditions of a file with another file having the same content.
+     *
+     * @param sourceFileId Source file ID
+     * @param targetFileId Target file ID
+     * @throws IOException e
+     */
+    public static void copyRenditions(String sourceFileId, String targetFileId) throws IOException {
+        StorageBackend backend = StorageUtil.getBackend();
+        for (String suffix : new String[] { "_web", "_thumb" }) {
+            if (backend.exists(sourceFileId + suffix)) {
+                backend.copy(sourceFileId + suffix, targetFileId + suffix);
+            }
+        }
+        RenditionCache.invalidate(targetFileId);
+    }
+
+    /**
+     * Returns true if identical stored files are shared.
+     * Nothing is shared on a backend storing a full copy of the content, it would only cost more reads.
+     *
+     * @return True if the identical stored files are shared
+     */
+    private static boolean isStorageDedup() {
+        return storageDedup && StorageUtil.getBackend().isCopyShared();
+    }
+
+    /**
+     * Enable or disable the sharing of identical stored files.
+     *
+     * @param storageDedup True to share identical stored files
+     */
+    public static void setStorageDedup(boolean storageDedup) {
+        FileUtil.storageDedup = storageDedup;
+    }
+
+    /**
+     * Returns the signature of the processing of a file.
+     * Two files with the same content and signature have the same thumbnails and text content.
+     *
+     * @param mimeType MIME type
+     * @param language Language
+     * @return Processing signature or null if the file is not processed
+     */
+    public static String getProcessingSignature(String mimeType, String language) {
+        FormatHandler formatHandler = FormatHandlerUtil.find(mimeType);
+        if (formatHandler == null) {
+            return null;
+        }
+
+        boolean ocrEnabled = language != null && ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true);
+        return formatHandler.getClass().getSimpleName() + "/" + PROCESSING_VERSION + "/" + (ocrEnabled ? language : "none");
     }
 
     /**
@@ -232,6 +585,7 @@ public class FileUtil {
      */
     public static void endProcessingFile(String fileId) {
         processingFileSet.remove(fileId);
+        processingProgressMap.remove(fileId);
         log.info("Processing ended for file: " + fileId);
     }
 
@@ -245,6 +599,29 @@ public class FileUtil {
         return processingFileSet.contains(fileId);
     }
 
+    /**
+     * Returns the processing progress of a file.
+     *
+     * @param fileId File ID
+     * @return Progress in percent, or null if unknown
+     */
+    public static Integer getProcessingProgress(String fileId) {
+        return processingProgressMap.get(fileId);
+    }
+
+    /**
+     * Set the file processed by the current thread, to report its progress.
+     *
+     * @param fileId File ID, null when the processing is done
+     */
+    public static void setCurrentProcessingFile(String fileId) {
+        if (fileId == null) {
+            currentProcessingFileId.remove();
+        } else {
+            currentProcessingFileId.set(fileId);
+        }
+    }
+
     /**
      * Get the size of a file on disk.
      *
@@ -255,12 +632,17 @@ public class FileUtil {
     public static long getFileSize(String fileId, User user) {
         // To get the size we copy the decrypted content into a null output stream
         // and count the copied byte size.
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
-        if (! Files.exists(storedFile)) {
-            log.debug("File does not exist " + fileId);
+        StorageBackend backend = StorageUtil.getBackend();
+        try {
+            if (!backend.exists(fileId)) {
+                log.debug("File does not exist " + fileId);
+                return File.UNKNOWN_SIZE;
+            }
+        } catch (IOException e) {
+            log.debug("Can't find size of file " + fileId, e);
             return File.UNKNOWN_SIZE;
         }
-        try (InputStream fileInputStream = Files.newInputStream(storedFile);
+        try (InputStream fileInputStream = backend.newInputStream(fileId);
              InputStream inputStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey());
              CountingInputStream countingInputStream = new CountingInputStream(inputStream);
         ) {
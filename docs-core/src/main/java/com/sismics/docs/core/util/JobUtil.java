@@ -0,0 +1,84 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.core.dao.JobDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Job;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Asynchronous jobs utilities.
+ *
+ * @author bgamard
+ */
+public class JobUtil {
+    /**
+     * Classes allowed in a serialized event.
+     */
+    private static final ObjectInputFilter EVENT_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=5;com.sismics.docs.core.event.*;com.sismics.docs.core.constant.PermType;java.lang.Enum;java.lang.Long;java.lang.Number;!*");
+
+    /**
+     * Queue an event in the current transaction, one job for each listener of the event.
+     *
+     * @param event Serializable event
+     * @return Job IDs
+     */
+    public static List<String> createJobs(Object event) {
+        List<String> jobIdList = new ArrayList<>();
+        for (String listener : AppContext.getInstance().getJobService().getListenerNames(event.getClass())) {
+            jobIdList.add(createJob(event, listener));
+        }
+        return jobIdList;
+    }
+
+    /**
+     * Queue an event for a listener in the current transaction.
+     *
+     * @param event Serializable event
+     * @param listener Listener name
+     * @return Job ID
+     */
+    public static String createJob(Object event, String listener) {
+        Job job = new Job()
+                .setType(event.getClass().getSimpleName())
+                .setListener(listener)
+                .setPayload(serialize(event));
+        return new JobDao().create(job);
+    }
+
+    /**
+     * Read the event of a job.
+     * Only the event classes can be read from the database.
+     *
+     * @param job Job
+     * @return Event
+     * @throws Exception e
+     */
+    public static Object readEvent(Job job) throws Exception {
+        byte[] bytes = Base64.getDecoder().decode(job.getPayload());
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            inputStream.setObjectInputFilter(EVENT_FILTER);
+            return inputStream.readObject();
+        }
+    }
+
+    /**
+     * Serialize an event.
+     *
+     * @param event Serializable event
+     * @return Serialized event
+     */
+    private static String serialize(Object event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(event);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Event not serializable: " + event, e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,144 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.EnvironmentUtil;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the authenticated principals by authentication token.
+ * Each authenticated request otherwise loads the token, the user, its groups and its base functions.
+ * The entries expire quickly, changes made by other nodes or by concurrent transactions are seen after the lifetime at worst.
+ *
+ * @author bgamard
+ */
+public class PrincipalCache {
+    /**
+     * Default lifetime of the entries (in seconds).
+     */
+    private static final long DEFAULT_TTL = 30;
+
+    /**
+     * Maximum number of entries.
+     */
+    private static final long MAX_SIZE = 10000;
+
+    /**
+     * Lifetime of the entries (in seconds), 0 to disable the cache.
+     */
+    private static final long ttl = EnvironmentUtil.getEnvLong(Constants.PRINCIPAL_CACHE_TTL_ENV, DEFAULT_TTL);
+
+    /**
+     * Principals by authentication token ID.
+     */
+    private static final Cache<String, CachedPrincipal> cache = CacheBuilder.newBuilder()
+            .expireAfterWrite(ttl, TimeUnit.SECONDS)
+            .maximumSize(MAX_SIZE)
+            .recordStats()
+            .build();
+
+    /**
+     * Returns a cached principal.
+     *
+     * @param tokenId Authentication token ID
+     * @return Principal or null if not cached
+     */
+    public static CachedPrincipal get(String tokenId) {
+        if (ttl <= 0) {
+            return null;
+        }
+        return cache.getIfPresent(tokenId);
+    }
+
+    /**
+     * Caches a principal.
+     *
+     * @param tokenId Authentication token ID
+     * @param principal Principal
+     */
+    public static void put(String tokenId, CachedPrincipal principal) {
+        if (ttl > 0) {
+            cache.put(tokenId, principal);
+        }
+    }
+
+    /**
+     * Removes the principal of an authentication token.
+     * Must run after the commit of the change, a request authenticated before would otherwise cache the principal again.
+     *
+     * @param tokenId Authentication token ID
+     */
+    public static void invalidate(String tokenId) {
+        cache.invalidate(tokenId);
+    }
+
+    /**
+     * Removes all principals after a change of users, groups or roles.
+     * Must run after the commit of the change, see {@link #invalidate(String)}.
+     */
+    public static void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the statistics of the cache.
+     *
+     * @return Cache statistics
+     */
+    public static CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Authenticated user with its groups and base functions.
+     */
+    public static class CachedPrincipal {
+        /**
+         * User.
+         */
+        private final User user;
+
+        /**
+         * IDs of the groups of the user, including the parent groups.
+         */
+        private final Set<String> groupIdSet;
+
+        /**
+         * Base functions of the user and its groups.
+         */
+        private final Set<String> baseFunctionSet;
+
+        /**
+         * Expiry date of the authentication (in milliseconds).
+         */
+        private final long expiryDate;
+
+        public CachedPrincipal(User user, Set<String> groupIdSet, Set<String> baseFunctionSet, long expiryDate) {
+            this.user = user;
+            this.groupIdSet = Set.copyOf(groupIdSet);
+            this.baseFunctionSet = Set.copyOf(baseFunctionSet);
+            this.expiryDate = expiryDate;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public Set<String> getGroupIdSet() {
+            return groupIdSet;
+        }
+
+        public Set<String> getBaseFunctionSet() {
+            return baseFunctionSet;
+        }
+
+        public long getExpiryDate() {
+            return expiryDate;
+        }
+    }
+}
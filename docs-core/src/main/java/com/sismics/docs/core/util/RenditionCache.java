@@ -0,0 +1,154 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.io.ByteStreams;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import com.sismics.util.EnvironmentUtil;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decrypted file renditions (web and thumbnail images).
+ * Renditions are small and requested many times by the documents list,
+ * this avoids decrypting them on each request.
+ *
+ * @author bgamard
+ */
+public class RenditionCache {
+    /**
+     * Default maximum size of the cache (in bytes).
+     */
+    private static final long DEFAULT_MAX_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * Time after which a cached rendition is decrypted again (in minutes).
+     * Bounds the life of an entry whose version did not change with the rendition.
+     */
+    private static final long EXPIRE_AFTER_WRITE = 60;
+
+    /**
+     * Maximum size of the cache (in bytes), 0 to disable the cache.
+     */
+    private static final long maxSize = EnvironmentUtil.getEnvLong(Constants.RENDITION_CACHE_SIZE_ENV, DEFAULT_MAX_SIZE);
+
+    /**
+     * True to store the renditions outside of the Java heap.
+     */
+    private static final boolean offHeap = EnvironmentUtil.getEnvBoolean(Constants.RENDITION_CACHE_OFF_HEAP_ENV, false);
+
+    /**
+     * Memory used by the cached renditions (in bytes).
+     */
+    private static final AtomicLong memoryUsage = new AtomicLong();
+
+    /**
+     * Decrypted renditions by file ID, size and version.
+     */
+    private static final Cache<String, ByteBuffer> cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxSize)
+            .expireAfterWrite(EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
+            .<String, ByteBuffer>weigher((key, data) -> data.capacity())
+            .removalListener(notification -> memoryUsage.addAndGet(-notification.getValue().capacity()))
+            .recordStats()
+            .build();
+
+    /**
+     * Returns true if the cache is enabled.
+     *
+     * @return True if enabled
+     */
+    public static boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns a decrypted rendition, from the cache if possible.
+     * The version changes with the stored rendition, so a rendition regenerated on any node
+     * gets its own entry instead of the one decrypted before.
+     *
+     * @param fileId File ID
+     * @param size Rendition size (web or thumb)
+     * @param version Version of the stored rendition
+     * @param privateKey Private key of the file creator
+     * @return Read-only buffer of the decrypted rendition
+     * @throws Exception e
+     */
+    public static ByteBuffer get(String fileId, String size, String version, String privateKey) throws Exception {
+        String key = fileId + "_" + size;
+        try {
+            return cache.get(key + "_" + version, () -> load(key, privateKey)).asReadOnlyBuffer();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Remove all versions of the renditions of a file from the cache.
+     * The outdated versions are never requested again, this only frees their memory early.
+     *
+     * @param fileId File ID
+     */
+    public static void invalidate(String fileId) {
+        cache.asMap().keySet().removeIf(key -> key.startsWith(fileId + "_"));
+    }
+
+    /**
+     * Returns the statistics of the cache.
+     *
+     * @return Cache statistics
+     */
+    public static CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the memory used by the cached renditions.
+     *
+     * @return Memory usage (in bytes)
+     */
+    public static long getMemoryUsage() {
+        return memoryUsage.get();
+    }
+
+    /**
+     * Returns true if the renditions are stored outside of the Java heap.
+     *
+     * @return True if off-heap
+     */
+    public static boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Decrypt a stored rendition.
+     *
+     * @param key Key of the stored rendition
+     * @param privateKey Private key of the file creator
+     * @return Decrypted rendition
+     * @throws Exception e
+     */
+    private static ByteBuffer load(String key, String privateKey) throws Exception {
+        byte[] bytes;
+        try (InputStream inputStream = EncryptionUtil.decryptInputStream(StorageUtil.getBackend().newInputStream(key), privateKey)) {
+            bytes = ByteStreams.toByteArray(inputStream);
+        }
+
+        ByteBuffer data;
+        if (offHeap) {
+            data = ByteBuffer.allocateDirect(bytes.length);
+            data.put(bytes);
+            data.flip();
+        } else {
+            data = ByteBuffer.wrap(bytes);
+        }
+        memoryUsage.addAndGet(data.capacity());
+        return data;
+    }
+}
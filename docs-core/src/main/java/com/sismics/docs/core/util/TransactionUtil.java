@@ -1,5 +1,6 @@
 package com.sismics.docs.core.util;
 
+import com.google.common.base.Throwables;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.jpa.EMF;
 import org.slf4j.Logger;
@@ -19,8 +20,14 @@ public class TransactionUtil {
      */
     private static final Logger log = LoggerFactory.getLogger(TransactionUtil.class);
 
+    /**
+     * True if the current thread runs an asynchronous job.
+     */
+    private static final ThreadLocal<Boolean> jobContext = ThreadLocal.withInitial(() -> false);
+
     /**
      * Encapsulate a process into a transactionnal context.
+     * In a job context, the exception is rethrown after the rollback so the job can be retried.
      * 
      * @param runnable Runnable
      */
@@ -62,6 +69,11 @@ public class TransactionUtil {
                     log.error("Error closing entity manager", ce);
                 }
             }
+
+            if (jobContext.get()) {
+                Throwables.throwIfUnchecked(e);
+                throw new RuntimeException(e);
+            }
             return;
         }
         
@@ -69,6 +81,7 @@ public class TransactionUtil {
         if (em.isOpen()) {
             if (em.getTransaction() != null && em.getTransaction().isActive()) {
                 em.getTransaction().commit();
+                context.fireAfterCommit();
                 
                 try {
                     em.close();
@@ -85,12 +98,60 @@ public class TransactionUtil {
         ThreadLocalContext.cleanup();
     }
     
+    /**
+     * Run an asynchronous job, its transactions rethrow the exceptions after the rollback.
+     *
+     * @param runnable Runnable
+     */
+    public static void runJob(Runnable runnable) {
+        jobContext.set(true);
+        try {
+            runnable.run();
+        } finally {
+            jobContext.remove();
+        }
+    }
+
+    /**
+     * Returns true if the current thread runs an asynchronous job.
+     *
+     * @return True in a job context
+     */
+    public static boolean isJobContext() {
+        return jobContext.get();
+    }
+
     /**
      * Commits the current transaction, and flushes the changes to the database.
      */
     public static void commit() {
         EntityTransaction tx = ThreadLocalContext.get().getEntityManager().getTransaction();
         tx.commit();
+        ThreadLocalContext.get().fireAfterCommit();
         tx.begin();
     }
+
+    /**
+     * Commits the transaction of the current context and closes its entity manager, releasing its connection.
+     * The database cannot be used in this context afterwards.
+     */
+    public static void release() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        if (em == null || !em.isOpen()) {
+            return;
+        }
+
+        try {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().commit();
+                ThreadLocalContext.get().fireAfterCommit();
+            }
+        } finally {
+            try {
+                em.close();
+            } catch (Exception e) {
+                log.error("Error closing entity manager", e);
+            }
+        }
+    }
 }
@@ -43,6 +43,12 @@ public class DocxFormatHandler implements FormatHandler {
         return new PdfFormatHandler().extractContent(language, getGeneratedPdf(file));
     }
 
+    @Override
+    public ProcessingSession openSession(Path file) throws Exception {
+        // The generated PDF is parsed once for the thumbnail and the content
+        return new PdfFormatHandler().openSession(getGeneratedPdf(file));
+    }
+
     @Override
     public void appendToPdf(Path file, PDDocument doc, boolean fitImageToPage, int margin, MemoryUsageSetting memUsageSettings, Closer closer) throws Exception {
         // Use the PDF format handler
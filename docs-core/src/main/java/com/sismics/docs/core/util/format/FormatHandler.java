@@ -40,6 +40,28 @@ public interface FormatHandler {
      */
     String extractContent(String language, Path file) throws Exception;
 
+    /**
+     * Open a processing session on a file.
+     * The handlers able to parse the file only once should override this.
+     *
+     * @param file File
+     * @return Processing session, to be closed by the caller
+     * @throws Exception e
+     */
+    default ProcessingSession openSession(Path file) throws Exception {
+        return new ProcessingSession() {
+            @Override
+            public BufferedImage generateThumbnail() throws Exception {
+                return FormatHandler.this.generateThumbnail(file);
+            }
+
+            @Override
+            public String extractContent(String language) throws Exception {
+                return FormatHandler.this.extractContent(language, file);
+            }
+        };
+    }
+
     /**
      * Append to a PDF.
      *
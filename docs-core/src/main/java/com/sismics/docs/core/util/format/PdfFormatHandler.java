@@ -15,8 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.image.BufferedImage;
-import java.io.InputStream;
-import java.nio.file.Files;
+import java.io.IOException;
 import java.nio.file.Path;
 
 /**
@@ -30,6 +29,11 @@ public class PdfFormatHandler implements FormatHandler {
      */
     private static final Logger log = LoggerFactory.getLogger(PdfFormatHandler.class);
 
+    /**
+     * Maximum main memory used by a parsed PDF (in bytes), the rest goes to scratch files.
+     */
+    private static final long MAX_MAIN_MEMORY = 16L * 1024L * 1024L;
+
     @Override
     public boolean accept(String mimeType) {
         return mimeType.equals(MimeType.APPLICATION_PDF);
@@ -37,41 +41,26 @@ public class PdfFormatHandler implements FormatHandler {
 
     @Override
     public BufferedImage generateThumbnail(Path file) throws Exception {
-        try (InputStream inputStream = Files.newInputStream(file);
-             PDDocument pdfDocument = PDDocument.load(inputStream)) {
-            PDFRenderer renderer = new PDFRenderer(pdfDocument);
-            return renderer.renderImage(0);
+        try (ProcessingSession session = openSession(file)) {
+            return session.generateThumbnail();
         }
     }
 
     @Override
     public String extractContent(String language, Path file) {
-        String content = null;
-        try (InputStream inputStream = Files.newInputStream(file);
-             PDDocument pdfDocument = PDDocument.load(inputStream)) {
-            content = new PDFTextStripper().getText(pdfDocument);
+        try (ProcessingSession session = openSession(file)) {
+            return session.extractContent(language);
         } catch (Exception e) {
             log.error("Error while extracting text from the PDF", e);
+            return null;
         }
+    }
 
-        // No text content, try to OCR it
-        if (language != null && content != null && content.trim().isEmpty() && ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
-            StringBuilder sb = new StringBuilder();
-            try (InputStream inputStream = Files.newInputStream(file);
-                 PDDocument pdfDocument = PDDocument.load(inputStream)) {
-                PDFRenderer renderer = new PDFRenderer(pdfDocument);
-                for (int pageIndex = 0; pageIndex < pdfDocument.getNumberOfPages(); pageIndex++) {
-                    log.info("OCR page " + (pageIndex + 1) + "/" + pdfDocument.getNumberOfPages() + " of PDF file containing only images");
-                    sb.append(" ");
-                    sb.append(FileUtil.ocrFile(language, renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY)));
-                }
-                return sb.toString();
-            } catch (Exception e) {
-                log.error("Error while OCR-izing the PDF", e);
-            }
-        }
-
-        return content;
+    @Override
+    public ProcessingSession openSession(Path file) throws Exception {
+        // Large documents are buffered in scratch files instead of the heap
+        PDDocument pdfDocument = PDDocument.load(file.toFile(), MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY));
+        return new PdfProcessingSession(pdfDocument);
     }
 
     @Override
@@ -81,4 +70,57 @@ public class PdfFormatHandler implements FormatHandler {
         PDFMergerUtility pdfMergerUtility = new PDFMergerUtility();
         pdfMergerUtility.appendDocument(doc, mergeDoc);
     }
+
+    /**
+     * Processing session on a parsed PDF document.
+     */
+    private static class PdfProcessingSession implements ProcessingSession {
+        /**
+         * Parsed PDF document.
+         */
+        private final PDDocument pdfDocument;
+
+        /**
+         * Renderer, shared by the thumbnail and the OCR.
+         */
+        private final PDFRenderer renderer;
+
+        PdfProcessingSession(PDDocument pdfDocument) {
+            this.pdfDocument = pdfDocument;
+            this.renderer = new PDFRenderer(pdfDocument);
+        }
+
+        @Override
+        public BufferedImage generateThumbnail() throws Exception {
+            return renderer.renderImage(0);
+        }
+
+        @Override
+        public String extractContent(String language) {
+            String content = null;
+            try {
+                content = new PDFTextStripper().getText(pdfDocument);
+            } catch (Exception e) {
+                log.error("Error while extracting text from the PDF", e);
+            }
+
+            // No text content, try to OCR it
+            if (language != null && content != null && content.trim().isEmpty() && ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
+                try {
+                    // The renderer is not thread safe, pages are rendered in order and OCR-ized in parallel
+                    return FileUtil.ocrPages(language, pdfDocument.getNumberOfPages(),
+                            pageIndex -> renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY));
+                } catch (Exception e) {
+                    log.error("Error while OCR-izing the PDF", e);
+                }
+            }
+
+            return content;
+        }
+
+        @Override
+        public void close() throws IOException {
+            pdfDocument.close();
+        }
+    }
 }
@@ -0,0 +1,35 @@
+package com.sismics.docs.core.util.format;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A processing session on a file.
+ * The file is parsed once and shared by the thumbnail generation and the text extraction.
+ *
+ * @author bgamard
+ */
+public interface ProcessingSession extends Closeable {
+    /**
+     * Generate a thumbnail.
+     *
+     * @return Thumbnail
+     * @throws Exception e
+     */
+    BufferedImage generateThumbnail() throws Exception;
+
+    /**
+     * Extract text content.
+     *
+     * @param language Language
+     * @return Text content
+     * @throws Exception e
+     */
+    String extractContent(String language) throws Exception;
+
+    @Override
+    default void close() throws IOException {
+        // NOP
+    }
+}
@@ -0,0 +1,61 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Checkpoint of an index rebuild, used to resume it.
+ *
+ * @author bgamard
+ */
+public class IndexRebuildCheckpoint {
+    /**
+     * Last indexed document ID.
+     */
+    private String lastDocumentId;
+
+    /**
+     * Last indexed file ID.
+     */
+    private String lastFileId;
+
+    /**
+     * Number of indexed documents and files.
+     */
+    private long indexedCount;
+
+    public String getLastDocumentId() {
+        return lastDocumentId;
+    }
+
+    public IndexRebuildCheckpoint setLastDocumentId(String lastDocumentId) {
+        this.lastDocumentId = lastDocumentId;
+        return this;
+    }
+
+    public String getLastFileId() {
+        return lastFileId;
+    }
+
+    public IndexRebuildCheckpoint setLastFileId(String lastFileId) {
+        this.lastFileId = lastFileId;
+        return this;
+    }
+
+    public long getIndexedCount() {
+        return indexedCount;
+    }
+
+    public IndexRebuildCheckpoint setIndexedCount(long indexedCount) {
+        this.indexedCount = indexedCount;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("lastDocumentId", lastDocumentId)
+                .add("lastFileId", lastFileId)
+                .add("indexedCount", indexedCount)
+                .toString();
+    }
+}
@@ -9,6 +9,7 @@ import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Indexing handler.
@@ -54,6 +55,42 @@ public interface IndexingHandler {
      */
     void createFiles(List<File> fileList);
 
+    /**
+     * Start or resume a rebuild of the index.
+     * The current index is still searched until the rebuild is complete.
+     *
+     * @param totalCount Total number of documents and files to index
+     * @return Checkpoint to resume from, or null if a rebuild is already running
+     * @throws Exception e
+     */
+    IndexRebuildCheckpoint startRebuild(long totalCount) throws Exception;
+
+    /**
+     * Index a batch of documents in the rebuilt index.
+     * The documents must be ordered by ID.
+     *
+     * @param documentList Documents
+     * @throws Exception e
+     */
+    void rebuildDocuments(List<Document> documentList) throws Exception;
+
+    /**
+     * Index a batch of files in the rebuilt index.
+     * The files must be ordered by ID.
+     *
+     * @param fileList Files
+     * @throws Exception e
+     */
+    void rebuildFiles(List<File> fileList) throws Exception;
+
+    /**
+     * End the rebuild of the index.
+     *
+     * @param complete True to replace the current index with the rebuilt one, false to keep it for a later resume
+     * @throws Exception e
+     */
+    void endRebuild(boolean complete) throws Exception;
+
     /**
      * Index a new document.
      *
@@ -117,4 +154,11 @@ public interface IndexingHandler {
      * @throws Exception e
      */
     void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
+
+    /**
+     * Returns statistics about the indexing handler.
+     *
+     * @return Statistics values by name
+     */
+    Map<String, Long> getStatistics();
 }
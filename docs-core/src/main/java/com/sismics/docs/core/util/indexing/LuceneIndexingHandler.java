@@ -4,9 +4,14 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.EffectiveAclDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
@@ -16,39 +21,64 @@ import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.SecurityUtil;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
+import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.ClasspathScanner;
+import com.sismics.util.EnvironmentUtil;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.CheckIndex;
 import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.simple.SimpleQueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.join.JoinUtil;
 import org.apache.lucene.search.spell.LuceneDictionary;
 import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NativeFSLockFactory;
 import org.apache.lucene.store.NoLockFactory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LongBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,16 +87,36 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Lucene indexing handler.
  * Documents and files are indexed in Lucene, but only used for fulltext search.
  * Other search criteria are still using the database.
+ * A fulltext search is narrowed to the readable documents in the index,
+ * and is paged in the index when there is no other criteria.
+ * The read permission is always checked in the database.
  *
  * @author bgamard
  */
@@ -77,21 +127,173 @@ public class LuceneIndexingHandler implements IndexingHandler {
      */
     private static final Logger log = LoggerFactory.getLogger(LuceneIndexingHandler.class);
 
+    /**
+     * Version of the index schema, the index is rebuilt if it doesn't match.
+     */
+    private static final String INDEX_SCHEMA_VERSION = "4";
+
+    /**
+     * Commit user data key for the index schema version.
+     */
+    private static final String INDEX_SCHEMA_VERSION_KEY = "schema_version";
+
+    /**
+     * Commit user data keys for the index rebuild checkpoint.
+     */
+    private static final String REBUILD_LAST_DOCUMENT_ID_KEY = "rebuild_last_document_id";
+    private static final String REBUILD_LAST_FILE_ID_KEY = "rebuild_last_file_id";
+    private static final String REBUILD_INDEXED_COUNT_KEY = "rebuild_indexed_count";
+
+    /**
+     * Number of indexed documents and files between two commits of the rebuilt index.
+     */
+    private static final long REBUILD_COMMIT_COUNT = 5000;
+
+    /**
+     * Maximum number of files highlighted per document.
+     */
+    private static final int HIGHLIGHT_FILE_PER_DOCUMENT = 10;
+
+    /**
+     * Stored fields needed for highlighting.
+     */
+    private static final Set<String> HIGHLIGHT_FIELD_SET = Sets.newHashSet("document_id", "content");
+
+    /**
+     * Stored fields needed for paging.
+     */
+    private static final Set<String> ID_FIELD_SET = Sets.newHashSet("id");
+
+    /**
+     * Sort fields of the document entries, by SQL sort column.
+     * A full-text search sorted on one of these columns is paged in the index.
+     */
+    private static final Map<Integer, String> INDEX_SORT_FIELD_MAP = Map.of(3, "create_date", 8, "update_date");
+
+    /**
+     * Number of documents reindexed by batch after an ACL change.
+     */
+    private static final int ACL_BATCH_SIZE = 1000;
+
     /**
      * Lucene directory.
      */
     private Directory directory;
 
     /**
-     * Directory reader.
+     * True if the index must be rebuilt after startup.
      */
-    private DirectoryReader directoryReader;
+    private boolean rebuildNeeded;
 
     /**
      * Index writer.
      */
     private IndexWriter indexWriter;
 
+    /**
+     * Searcher manager, refreshed from the index writer.
+     */
+    private SearcherManager searcherManager;
+
+    /**
+     * True if the index is in near-real-time mode.
+     * Changes are committed in batches and become visible on the next refresh.
+     */
+    private boolean nrt;
+
+    /**
+     * Number of operations after which changes are committed in near-real-time mode.
+     */
+    private long commitOperationCount;
+
+    /**
+     * Number of operations since the last commit.
+     */
+    private final AtomicLong uncommittedOperationCount = new AtomicLong();
+
+    /**
+     * Executor refreshing the searcher and committing the index in near-real-time mode.
+     */
+    private ScheduledExecutorService refreshExecutor;
+
+    /**
+     * Lock between the index writes (shared) and the swap of the rebuilt index (exclusive).
+     */
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+    /**
+     * Directory of the rebuilt index.
+     */
+    private Directory rebuildDirectory;
+
+    /**
+     * Writer of the rebuilt index, not null while a rebuild is running.
+     * Changes to the current index are also applied to it.
+     */
+    private IndexWriter rebuildWriter;
+
+    /**
+     * Executor building the rebuilt index in parallel.
+     */
+    private ExecutorService rebuildExecutor;
+
+    /**
+     * True if an index rebuild is running.
+     */
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    /**
+     * Checkpoint of the running rebuild.
+     */
+    private volatile IndexRebuildCheckpoint rebuildCheckpoint;
+
+    /**
+     * IDs of the documents and files changed or deleted in the rebuilt index by the writes of the running rebuild,
+     * the rebuild batches read before these writes must not overwrite them.
+     */
+    private final Set<String> rebuildChangedIdSet = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Locks between the writes of an ID by the rebuild batches and by the index writes.
+     */
+    private final Striped<Lock> rebuildIdLocks = Striped.lock(64);
+
+    /**
+     * Number of indexed documents and files since the last commit of the rebuilt index.
+     */
+    private long rebuildUncommittedCount;
+
+    /**
+     * Total number of documents and files of the running rebuild.
+     */
+    private volatile long rebuildTotalCount;
+
+    /**
+     * Start time and initial indexed count of the running rebuild, to compute its rate.
+     */
+    private volatile long rebuildStartTime;
+    private volatile long rebuildStartCount;
+
+    /**
+     * Search suggester, swapped atomically after each rebuild.
+     */
+    private volatile CachedSuggester cachedSuggester;
+
+    /**
+     * True if a suggester rebuild is in progress.
+     */
+    private final AtomicBoolean suggesterRebuilding = new AtomicBoolean(false);
+
+    /**
+     * Executor rebuilding the suggester in the background.
+     */
+    private ExecutorService suggesterExecutor;
+
+    /**
+     * Duration of the last suggester rebuild (in milliseconds).
+     */
+    private volatile long suggesterRebuildTime;
+
     @Override
     public boolean accept() {
         // Embedded Lucene can always start
@@ -105,6 +307,9 @@ public class LuceneIndexingHandler implements IndexingHandler {
         } catch (Exception e) {
             // An error occurred initializing Lucene, the index is out of date or broken, delete everything
             log.info("Unable to initialize Lucene, cleaning up the index: " + e.getMessage());
+            if (directory != null) {
+                directory.close();
+            }
             Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
             Files.walk(luceneDirectory)
                     .sorted(Comparator.reverseOrder())
@@ -113,9 +318,57 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
             // Re-initialize and schedule a full reindex
             initLucene();
+            rebuildNeeded = true;
+        }
+
+        // Resume an interrupted rebuild
+        if (isRebuildInterrupted()) {
+            log.info("An index rebuild has been interrupted");
+            rebuildNeeded = true;
+        }
+
+        if (rebuildNeeded) {
+            log.info("Scheduling an index rebuild");
             RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
             AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
         }
+
+        // Refresh the searcher and commit the index in the background
+        nrt = isNrtEnabled();
+        if (nrt) {
+            long refreshInterval = EnvironmentUtil.getEnvLong(Constants.LUCENE_REFRESH_INTERVAL_ENV, 1000L);
+            long commitInterval = EnvironmentUtil.getEnvLong(Constants.LUCENE_COMMIT_INTERVAL_ENV, 60000L);
+            commitOperationCount = EnvironmentUtil.getEnvLong(Constants.LUCENE_COMMIT_OPERATIONS_ENV, 1000L);
+            log.info("Using near-real-time Lucene index, refreshed every {}ms and committed every {}ms or {} operations",
+                    refreshInterval, commitInterval, commitOperationCount);
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor();
+            refreshExecutor.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+            refreshExecutor.scheduleWithFixedDelay(() -> {
+                if (uncommittedOperationCount.get() > 0) {
+                    commit();
+                }
+            }, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        }
+
+        // Warm up the search suggester
+        if (isSuggestionEnabled()) {
+            suggesterExecutor = Executors.newSingleThreadExecutor();
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                scheduleSuggesterRebuild((DirectoryReader) searcher.getIndexReader());
+            } finally {
+                searcherManager.release(searcher);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the index is used in near-real-time mode.
+     *
+     * @return True in near-real-time mode
+     */
+    boolean isNrtEnabled() {
+        return !EnvironmentUtil.isUnitTest() && EnvironmentUtil.getEnvBoolean(Constants.LUCENE_NRT_ENV, true);
     }
 
     private void initLucene() throws Exception {
@@ -131,16 +384,25 @@ public class LuceneIndexingHandler implements IndexingHandler {
             Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
             log.info("Using file Lucene storage: {}", luceneDirectory);
             directory = new NIOFSDirectory(luceneDirectory, NoLockFactory.INSTANCE);
+        } else if (luceneStorage.equals("MMAP")) {
+            // Memory mapped files are kept off-heap and cached by the operating system
+            Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
+            log.info("Using memory mapped Lucene storage: {}", luceneDirectory);
+            directory = new MMapDirectory(luceneDirectory, NativeFSLockFactory.INSTANCE);
         }
 
-        // Create an index writer
-        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
-        config.setCommitOnClose(true);
-        config.setMergeScheduler(new ConcurrentMergeScheduler());
-        indexWriter = new IndexWriter(directory, config);
+        // A persistent storage without index has never been populated (new install or migrated from RAM)
+        if (!(directory instanceof RAMDirectory) && !DirectoryReader.indexExists(directory)) {
+            rebuildNeeded = true;
+        }
 
-        // Check index version and rebuild it if necessary
+        // Check the index schema version and health before opening the writer, which holds the index lock
         if (DirectoryReader.indexExists(directory)) {
+            String schemaVersion = SegmentInfos.readLatestCommit(directory).getUserData().get(INDEX_SCHEMA_VERSION_KEY);
+            if (!INDEX_SCHEMA_VERSION.equals(schemaVersion)) {
+                throw new Exception("Index schema version is outdated: " + schemaVersion);
+            }
+
             log.info("Checking index health and version");
             try (CheckIndex checkIndex = new CheckIndex(directory)) {
                 CheckIndex.Status status = checkIndex.checkIndex();
@@ -149,15 +411,57 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 }
             }
         }
+
+        // Create an index writer
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setCommitOnClose(true);
+        config.setMergeScheduler(new ConcurrentMergeScheduler());
+        indexWriter = new IndexWriter(directory, config);
+        try {
+            indexWriter.setLiveCommitData(Collections.singletonMap(INDEX_SCHEMA_VERSION_KEY, INDEX_SCHEMA_VERSION).entrySet());
+
+            // Searchers are opened from the index writer to see uncommitted changes
+            searcherManager = new SearcherManager(indexWriter, null);
+        } catch (Exception e) {
+            // Release the index lock
+            indexWriter.rollback();
+            throw e;
+        }
     }
 
     @Override
     public void shutDown() {
-        if (directoryReader != null) {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+            try {
+                refreshExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+        if (suggesterExecutor != null) {
+            suggesterExecutor.shutdownNow();
+            try {
+                suggesterExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+        if (rebuildWriter != null) {
+            try {
+                endRebuild(false);
+            } catch (Exception e) {
+                log.error("Error closing the rebuilt index", e);
+            }
+        }
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdownNow();
+        }
+        if (searcherManager != null) {
             try {
-                directoryReader.close();
+                searcherManager.close();
             } catch (IOException e) {
-                log.error("Error closing the index reader", e);
+                log.error("Error closing the searcher manager", e);
             }
         }
         if (indexWriter != null) {
@@ -178,14 +482,15 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void clearIndex() {
-        handle(IndexWriter::deleteAll);
+        handle(Collections.emptyList(), IndexWriter::deleteAll);
     }
 
     @Override
     public void createDocuments(List<Document> documentList) {
-        handle(indexWriter -> {
+        Map<String, List<String>> readTargetIdMap = findReadTargetIdMap(documentList);
+        handle(Lists.transform(documentList, Document::getId), indexWriter -> {
             for (Document document : documentList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
+                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, readTargetIdMap);
                 indexWriter.addDocument(luceneDocument);
             }
         });
@@ -193,7 +498,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void createFiles(List<File> fileList) {
-        handle(indexWriter -> {
+        handle(Lists.transform(fileList, File::getId), indexWriter -> {
             for (File file : fileList) {
                 org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
                 indexWriter.addDocument(luceneDocument);
@@ -203,23 +508,231 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void createDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.addDocument(luceneDocument);
+        // A running rebuild may have indexed it already
+        Map<String, List<String>> readTargetIdMap = findReadTargetIdMap(Collections.singletonList(document));
+        handle(Collections.singletonList(document.getId()), indexWriter -> {
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, readTargetIdMap);
+            indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
         });
     }
 
     @Override
     public void createFile(final File file) {
-        handle(indexWriter -> {
+        // A running rebuild may have indexed it already
+        handle(Collections.singletonList(file.getId()), indexWriter -> {
             org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-            indexWriter.addDocument(luceneDocument);
+            indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
         });
     }
 
+    @Override
+    public IndexRebuildCheckpoint startRebuild(long totalCount) throws Exception {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return null;
+        }
+
+        try {
+            // The rebuilt index is persisted only if the current one is
+            Directory rebuildDirectory;
+            if (directory instanceof RAMDirectory) {
+                rebuildDirectory = new ByteBuffersDirectory();
+            } else {
+                rebuildDirectory = FSDirectory.open(DirectoryUtil.getLuceneRebuildDirectory());
+            }
+
+            // Resume from the last checkpoint if the schema has not changed since
+            IndexRebuildCheckpoint checkpoint = new IndexRebuildCheckpoint();
+            boolean resume = false;
+            if (DirectoryReader.indexExists(rebuildDirectory)) {
+                Map<String, String> userData = SegmentInfos.readLatestCommit(rebuildDirectory).getUserData();
+                if (INDEX_SCHEMA_VERSION.equals(userData.get(INDEX_SCHEMA_VERSION_KEY))) {
+                    resume = true;
+                    checkpoint.setLastDocumentId(userData.get(REBUILD_LAST_DOCUMENT_ID_KEY))
+                            .setLastFileId(userData.get(REBUILD_LAST_FILE_ID_KEY))
+                            .setIndexedCount(Long.parseLong(userData.getOrDefault(REBUILD_INDEXED_COUNT_KEY, "0")));
+                }
+            }
+            log.info(resume ? "Resuming the index rebuild from {}" : "Starting an index rebuild", checkpoint);
+
+            IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+            config.setCommitOnClose(false);
+            config.setOpenMode(resume ? IndexWriterConfig.OpenMode.APPEND : IndexWriterConfig.OpenMode.CREATE);
+            config.setMergeScheduler(new ConcurrentMergeScheduler());
+            IndexWriter writer = new IndexWriter(rebuildDirectory, config);
+
+            // From now on, changes to the current index are also applied to the rebuilt one
+            rebuildLock.writeLock().lock();
+            try {
+                this.rebuildDirectory = rebuildDirectory;
+                rebuildWriter = writer;
+                rebuildCheckpoint = checkpoint;
+                rebuildChangedIdSet.clear();
+                rebuildUncommittedCount = 0;
+                rebuildTotalCount = totalCount;
+                rebuildStartTime = System.currentTimeMillis();
+                rebuildStartCount = checkpoint.getIndexedCount();
+                if (rebuildExecutor == null) {
+                    rebuildExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                }
+            } finally {
+                rebuildLock.writeLock().unlock();
+            }
+            return checkpoint;
+        } catch (Exception e) {
+            rebuilding.set(false);
+            throw e;
+        }
+    }
+
+    @Override
+    public void rebuildDocuments(List<Document> documentList) throws Exception {
+        Map<String, List<String>> readTargetIdMap = findReadTargetIdMap(documentList);
+        rebuild(documentList, Document::getId, document -> getDocumentFromDocument(document, readTargetIdMap),
+                lastId -> rebuildCheckpoint.setLastDocumentId(lastId));
+    }
+
+    @Override
+    public void rebuildFiles(List<File> fileList) throws Exception {
+        rebuild(fileList, File::getId, this::getDocumentFromFile,
+                lastId -> rebuildCheckpoint.setLastFileId(lastId));
+    }
+
+    @Override
+    public void endRebuild(boolean complete) throws Exception {
+        rebuildLock.writeLock().lock();
+        try {
+            if (rebuildWriter == null) {
+                return;
+            }
+
+            // Save the checkpoint, the rebuild can be resumed from it
+            commitRebuild();
+            rebuildWriter.close();
+            rebuildWriter = null;
+
+            if (complete) {
+                // Replace the content of the current index, searchers see the change on the next refresh
+                indexWriter.deleteAll();
+                indexWriter.addIndexes(rebuildDirectory);
+                commit();
+                for (String fileName : rebuildDirectory.listAll()) {
+                    rebuildDirectory.deleteFile(fileName);
+                }
+            }
+            rebuildDirectory.close();
+            rebuildDirectory = null;
+            log.info("Index rebuild {}: {}", complete ? "complete" : "interrupted", rebuildCheckpoint);
+        } finally {
+            rebuildChangedIdSet.clear();
+            rebuilding.set(false);
+            rebuildLock.writeLock().unlock();
+        }
+
+        if (complete) {
+            refresh();
+        }
+    }
+
+    /**
+     * Index a batch of entities in the rebuilt index, in parallel.
+     *
+     * @param entityList Entities
+     * @param idGetter Entity ID getter
+     * @param converter Converter from entity to Lucene document
+     * @param lastIdSetter Setter of the last entity ID in the checkpoint
+     * @param <E> Entity type
+     * @throws Exception e
+     */
+    private <E> void rebuild(List<E> entityList, Function<E, String> idGetter,
+                             Function<E, org.apache.lucene.document.Document> converter,
+                             Consumer<String> lastIdSetter) throws Exception {
+        rebuildLock.readLock().lock();
+        try {
+            IndexWriter writer = rebuildWriter;
+            if (writer == null) {
+                throw new IllegalStateException("No index rebuild is running");
+            }
+
+            // Split the batch between the workers
+            int partitionSize = Math.max(1, (entityList.size() + Runtime.getRuntime().availableProcessors() - 1)
+                    / Runtime.getRuntime().availableProcessors());
+            List<Future<?>> futureList = new ArrayList<>();
+            for (List<E> partition : Lists.partition(entityList, partitionSize)) {
+                futureList.add(rebuildExecutor.submit(() -> {
+                    for (E entity : partition) {
+                        // Entities changed since the rebuild started are already up to date
+                        String id = idGetter.apply(entity);
+                        Lock lock = rebuildIdLocks.get(id);
+                        lock.lock();
+                        try {
+                            if (!rebuildChangedIdSet.contains(id)) {
+                                writer.updateDocument(new Term("id", id), converter.apply(entity));
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+
+            // Checkpoint regularly, the checkpoint includes this batch
+            IndexRebuildCheckpoint checkpoint = rebuildCheckpoint;
+            if (!entityList.isEmpty()) {
+                lastIdSetter.accept(idGetter.apply(entityList.get(entityList.size() - 1)));
+            }
+            checkpoint.setIndexedCount(checkpoint.getIndexedCount() + entityList.size());
+            rebuildUncommittedCount += entityList.size();
+            if (rebuildUncommittedCount >= REBUILD_COMMIT_COUNT) {
+                commitRebuild();
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Commit the rebuilt index with the current checkpoint.
+     *
+     * @throws IOException e
+     */
+    private void commitRebuild() throws IOException {
+        IndexRebuildCheckpoint checkpoint = rebuildCheckpoint;
+        Map<String, String> userData = new HashMap<>();
+        userData.put(INDEX_SCHEMA_VERSION_KEY, INDEX_SCHEMA_VERSION);
+        if (checkpoint.getLastDocumentId() != null) {
+            userData.put(REBUILD_LAST_DOCUMENT_ID_KEY, checkpoint.getLastDocumentId());
+        }
+        if (checkpoint.getLastFileId() != null) {
+            userData.put(REBUILD_LAST_FILE_ID_KEY, checkpoint.getLastFileId());
+        }
+        userData.put(REBUILD_INDEXED_COUNT_KEY, Long.toString(checkpoint.getIndexedCount()));
+        rebuildWriter.setLiveCommitData(userData.entrySet());
+        rebuildWriter.commit();
+        rebuildUncommittedCount = 0;
+    }
+
+    /**
+     * Returns true if a persisted index rebuild has been interrupted.
+     *
+     * @return True if a rebuild must be resumed
+     * @throws IOException e
+     */
+    private boolean isRebuildInterrupted() throws IOException {
+        if (directory instanceof RAMDirectory) {
+            return false;
+        }
+        try (Directory rebuildDirectory = FSDirectory.open(DirectoryUtil.getLuceneRebuildDirectory())) {
+            return DirectoryReader.indexExists(rebuildDirectory);
+        }
+    }
+
     @Override
     public void updateFile(final File file) {
-        handle(indexWriter -> {
+        handle(Collections.singletonList(file.getId()), indexWriter -> {
             org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
             indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
         });
@@ -227,32 +740,84 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void updateDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+        updateDocuments(Collections.singletonList(document));
+    }
+
+    /**
+     * Update some documents in the index, with their current ACLs.
+     *
+     * @param documentList Documents
+     */
+    private void updateDocuments(List<Document> documentList) {
+        Map<String, List<String>> readTargetIdMap = findReadTargetIdMap(documentList);
+        handle(Lists.transform(documentList, Document::getId), indexWriter -> {
+            for (Document document : documentList) {
+                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, readTargetIdMap);
+                indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+            }
         });
     }
 
     @Override
     public void deleteDocument(final String id) {
-        handle(indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+        handle(Collections.singletonList(id), indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
     }
 
     @Override
     public void createAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateAcl(sourceId);
+        }
     }
 
     @Override
     public void deleteAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateAcl(sourceId);
+        }
+    }
+
+    /**
+     * Reindex the readers of the documents using the ACLs of a source, the document itself or one of its tags.
+     *
+     * @param sourceId ACL source ID
+     */
+    private void updateAcl(String sourceId) {
+        DocumentDao documentDao = new DocumentDao();
+        String lastDocumentId = null;
+        List<Document> documentList;
+        do {
+            documentList = documentDao.findByAclSourceAfter(sourceId, lastDocumentId, ACL_BATCH_SIZE);
+            updateDocuments(documentList);
+            if (!documentList.isEmpty()) {
+                lastDocumentId = documentList.get(documentList.size() - 1).getId();
+            }
+        } while (documentList.size() == ACL_BATCH_SIZE);
     }
 
     @Override
     public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            findByCriteria(searcher, paginatedList, suggestionList, criteria, sortCriteria);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Searches documents by criteria with a given searcher.
+     *
+     * @param searcher Index searcher
+     * @param paginatedList List of documents (updated by side effects)
+     * @param suggestionList Suggestion of search query (updated by side effects)
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @throws Exception e
+     */
+    private void findByCriteria(IndexSearcher searcher, PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
-        Map<String, String> documentSearchMap = Maps.newHashMap();
 
         StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
         sb.append(" s.count c5, ");
@@ -270,22 +835,34 @@ public class LuceneIndexingHandler implements IndexingHandler {
         // Add search criterias
         if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
             // Read permission is enough for searching
-            sb.append(" left join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
-            sb.append(" left join T_DOCUMENT_TAG dta on dta.DOT_IDDOCUMENT_C = d.DOC_ID_C and dta.DOT_DELETEDATE_D is null ");
-            sb.append(" left join T_ACL a2 on a2.ACL_TARGETID_C in (:targetIdList) and a2.ACL_SOURCEID_C = dta.DOT_IDTAG_C and a2.ACL_PERM_C = 'READ' and a2.ACL_DELETEDATE_D is null ");
-            criteriaList.add("(a.ACL_ID_C is not null or a2.ACL_ID_C is not null)");
+            criteriaList.add("exists (select ea.EFA_TARGETID_C from T_EFFECTIVE_ACL ea where ea.EFA_IDSOURCE_C = d.DOC_ID_C and ea.EFA_PERM_C = 'READ' and ea.EFA_TARGETID_C in (:targetIdList))");
         }
         parameterMap.put("targetIdList", criteria.getTargetIdList());
+        List<String> indexPageIdList = null;
         if (!Strings.isNullOrEmpty(criteria.getSimpleSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
-            documentSearchMap = search(criteria.getSimpleSearch(), criteria.getFullSearch());
-            if (documentSearchMap.isEmpty()) {
+            // The readers indexed with the documents narrow the matches,
+            // the permissions are still checked in the database as the index is updated asynchronously
+            Query query = buildSearchQuery(searcher, criteria.getSimpleSearch(), criteria.getFullSearch(), criteria.getTargetIdList());
+            Collection<String> documentIdList;
+            String sortField = INDEX_SORT_FIELD_MAP.get(sortCriteria == null ? null : sortCriteria.getColumn());
+            if (sortField != null && paginatedList.getCursor() == null && isSearchOnly(criteria)) {
+                // Nothing else to filter in the database, page in the index
+                indexPageIdList = searchPage(searcher, query, paginatedList, sortField, sortCriteria.isAsc());
+                paginatedList.setResultCountEstimated(false);
+                documentIdList = indexPageIdList;
+            } else {
+                DocumentIdCollector collector = new DocumentIdCollector();
+                searcher.search(query, collector);
+                documentIdList = collector.getDocumentIdSet();
+            }
+            if (documentIdList.isEmpty()) {
                 // If the search doesn't find any document, the request should return nothing
-                documentSearchMap.put(UUID.randomUUID().toString(), null);
+                documentIdList = Collections.singletonList(UUID.randomUUID().toString());
             }
             criteriaList.add("d.DOC_ID_C in :documentIdList");
-            parameterMap.put("documentIdList", documentSearchMap.keySet());
+            parameterMap.put("documentIdList", documentIdList);
 
-            suggestSearchTerms(criteria.getFullSearch(), suggestionList);
+            suggestSearchTerms(searcher, criteria.getFullSearch(), suggestionList);
         }
         if (criteria.getCreateDateMin() != null) {
             criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
@@ -360,7 +937,25 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
         // Perform the search
         QueryParam queryParam = new QueryParam(sb.toString(), parameterMap);
-        List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        List<Object[]> l;
+        if (indexPageIdList == null) {
+            l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        } else {
+            // Load the page found in the index, in the index order, without the documents no longer readable
+            List<Object[]> resultList = QueryUtil.getNativeQuery(queryParam).getResultList();
+            Map<String, Object[]> resultMap = new HashMap<>();
+            for (Object[] o : resultList) {
+                resultMap.put((String) o[0], o);
+            }
+            l = new ArrayList<>();
+            for (String documentId : indexPageIdList) {
+                if (resultMap.containsKey(documentId)) {
+                    l.add(resultMap.get(documentId));
+                }
+            }
+            paginatedList.setResultCount(paginatedList.getResultCount() - (indexPageIdList.size() - l.size()));
+            paginatedList.setNextCursor(null);
+        }
 
         // Assemble results
         List<DocumentDto> documentDtoList = new ArrayList<>();
@@ -378,54 +973,154 @@ public class LuceneIndexingHandler implements IndexingHandler {
             documentDto.setActiveRoute(o[i++] != null);
             documentDto.setCurrentStepName((String) o[i++]);
             documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
-            documentDto.setHighlight(documentSearchMap.get(documentDto.getId()));
             documentDtoList.add(documentDto);
         }
 
+        // Highlight only the documents of the current page
+        if (!Strings.isNullOrEmpty(criteria.getFullSearch()) && !documentDtoList.isEmpty()) {
+            Map<String, String> highlightMap = highlight(searcher, criteria.getFullSearch(), documentDtoList);
+            for (DocumentDto documentDto : documentDtoList) {
+                documentDto.setHighlight(highlightMap.get(documentDto.getId()));
+            }
+        }
+
         paginatedList.setResultList(documentDtoList);
     }
 
+    @Override
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new HashMap<>();
+        statistics.put("suggester_rebuild_time", suggesterRebuildTime);
+        statistics.put("uncommitted_operations", uncommittedOperationCount.get());
+        IndexRebuildCheckpoint checkpoint = rebuildCheckpoint;
+        statistics.put("rebuild_running", rebuilding.get() ? 1L : 0L);
+        if (checkpoint != null) {
+            long duration = Math.max(1, System.currentTimeMillis() - rebuildStartTime);
+            statistics.put("rebuild_indexed", checkpoint.getIndexedCount());
+            statistics.put("rebuild_total", rebuildTotalCount);
+            statistics.put("rebuild_rate", (checkpoint.getIndexedCount() - rebuildStartCount) * 1000 / duration);
+        }
+        return statistics;
+    }
+
     /**
      * Suggest search terms according to the user query.
+     * The suggester is built from the "title" field and cached until the index changes.
      *
+     * @param searcher Index searcher
      * @param search User search query
      * @param suggestionList Suggestion of search query (updated by side effects)
      * @throws Exception e
      */
-    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
-        DirectoryReader directoryReader = getDirectoryReader();
-        if (directoryReader == null) {
+    private void suggestSearchTerms(IndexSearcher searcher, String search, List<String> suggestionList) throws Exception {
+        if (!isSuggestionEnabled()) {
             return;
         }
+        DirectoryReader directoryReader = (DirectoryReader) searcher.getIndexReader();
+
+        // Rebuild the suggester if the index has changed, the previous one is used in the meantime
+        CachedSuggester suggester = cachedSuggester;
+        if (suggester == null || suggester.version != directoryReader.getVersion()) {
+            scheduleSuggesterRebuild(directoryReader);
+            suggester = cachedSuggester;
+            if (suggester == null) {
+                return;
+            }
+        }
 
-        FuzzySuggester suggester = new FuzzySuggester(directory, "", new StandardAnalyzer());
-        LuceneDictionary dictionary = new LuceneDictionary(directoryReader, "title");
-        suggester.build(dictionary);
         int lastIndex = search.lastIndexOf(' ');
         String suggestQuery = search.substring(Math.max(lastIndex, 0));
-        List<Lookup.LookupResult> lookupResultList = suggester.lookup(suggestQuery, false, 10);
+        List<Lookup.LookupResult> lookupResultList = suggester.lookup.lookup(suggestQuery, false, 10);
         for (Lookup.LookupResult lookupResult : lookupResultList) {
             suggestionList.add(lookupResult.key.toString());
         }
     }
 
     /**
-     * Fulltext search in files and documents.
+     * Rebuild the suggester from a directory reader.
+     * The rebuild is done in the background, except in unit tests.
+     *
+     * @param directoryReader Directory reader
+     */
+    private void scheduleSuggesterRebuild(DirectoryReader directoryReader) {
+        if (!suggesterRebuilding.compareAndSet(false, true)) {
+            // A rebuild is already in progress
+            return;
+        }
+        if (!directoryReader.tryIncRef()) {
+            // The reader has just been closed, the next search will try again
+            suggesterRebuilding.set(false);
+            return;
+        }
+
+        Runnable rebuild = () -> {
+            try {
+                long startTime = System.currentTimeMillis();
+                FuzzySuggester suggester;
+                try (Directory tempDirectory = new ByteBuffersDirectory()) {
+                    suggester = new FuzzySuggester(tempDirectory, "", new StandardAnalyzer());
+                    suggester.build(new LuceneDictionary(directoryReader, "title"));
+                }
+                cachedSuggester = new CachedSuggester(directoryReader.getVersion(), suggester);
+                suggesterRebuildTime = System.currentTimeMillis() - startTime;
+                log.info("Search suggester rebuilt in {}ms", suggesterRebuildTime);
+            } catch (Exception e) {
+                log.error("Error rebuilding the search suggester", e);
+            } finally {
+                try {
+                    directoryReader.decRef();
+                } catch (IOException e) {
+                    log.error("Error releasing the directory reader", e);
+                }
+                suggesterRebuilding.set(false);
+            }
+        };
+
+        if (EnvironmentUtil.isUnitTest()) {
+            rebuild.run();
+        } else {
+            suggesterExecutor.submit(rebuild);
+        }
+    }
+
+    /**
+     * Returns true if search suggestions are enabled.
+     *
+     * @return True if enabled
+     */
+    private boolean isSuggestionEnabled() {
+        return EnvironmentUtil.getEnvBoolean(Constants.SEARCH_SUGGESTION_ENV, true);
+    }
+
+    /**
+     * Build the fulltext query on the documents readable by some targets.
+     * Files are matched through their document with a join on the document ID,
+     * so the readable targets are only indexed on the document entries.
      *
+     * @param searcher Index searcher
      * @param simpleSearchQuery Search query on metadatas
      * @param fullSearchQuery Search query on all fields
-     * @return Map of document IDs as key and highlight as value
+     * @param targetIdList List of targets, only the documents readable by them are returned
+     * @return Query on the document entries
      * @throws Exception e
      */
-    private Map<String, String> search(String simpleSearchQuery, String fullSearchQuery) throws Exception {
+    private Query buildSearchQuery(IndexSearcher searcher, String simpleSearchQuery, String fullSearchQuery, List<String> targetIdList) throws Exception {
         // The fulltext query searches in all fields
         String searchQuery = simpleSearchQuery + " " + fullSearchQuery;
-
-        // Build search query
         Analyzer analyzer = new StandardAnalyzer();
 
-        // Search on documents and files
-        BooleanQuery query = new BooleanQuery.Builder()
+        // Files matching the query, joined to their document
+        Query fileQuery = new BooleanQuery.Builder()
+                .add(buildQueryParser(analyzer, "filename").parse(searchQuery), BooleanClause.Occur.SHOULD)
+                .add(buildQueryParser(analyzer, "content").parse(fullSearchQuery), BooleanClause.Occur.SHOULD)
+                .add(new TermQuery(new Term("doctype", "file")), BooleanClause.Occur.FILTER)
+                .setMinimumNumberShouldMatch(1)
+                .build();
+        Query fileJoinQuery = JoinUtil.createJoinQuery("document_id", false, "id", fileQuery, searcher,
+                org.apache.lucene.search.join.ScoreMode.None);
+
+        // Documents matching the query or owning a matching file
+        Query matchQuery = new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "title").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "description").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "subject").parse(searchQuery), BooleanClause.Occur.SHOULD)
@@ -436,47 +1131,107 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 .add(buildQueryParser(analyzer, "type").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "coverage").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "rights").parse(searchQuery), BooleanClause.Occur.SHOULD)
-                .add(buildQueryParser(analyzer, "filename").parse(searchQuery), BooleanClause.Occur.SHOULD)
-                .add(buildQueryParser(analyzer, "content").parse(fullSearchQuery), BooleanClause.Occur.SHOULD)
+                .add(fileJoinQuery, BooleanClause.Occur.SHOULD)
                 .build();
 
-        // Search
-        DirectoryReader directoryReader = getDirectoryReader();
-        Map<String, String> documentMap = Maps.newHashMap();
-        if (directoryReader == null) {
-            // The directory reader is not yet initialized (probably because there is nothing indexed)
-            return documentMap;
+        BooleanQuery.Builder query = new BooleanQuery.Builder()
+                .add(matchQuery, BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER);
+        if (!SecurityUtil.skipAclCheck(targetIdList)) {
+            List<BytesRef> targetIdBytesList = new ArrayList<>();
+            for (String targetId : targetIdList) {
+                targetIdBytesList.add(new BytesRef(targetId));
+            }
+            query.add(new TermInSetQuery("read_target_id", targetIdBytesList), BooleanClause.Occur.FILTER);
+        }
+        return query.build();
+    }
+
+    /**
+     * Search a page of documents sorted on a field of the document entries.
+     * The documents are sorted then on their ID, like in the database.
+     *
+     * @param searcher Index searcher
+     * @param query Query on the document entries
+     * @param paginatedList Paginated list, the total count is updated by side effects
+     * @param sortField Sort field
+     * @param asc Sort in increasing order
+     * @return IDs of the documents of the page, in order
+     * @throws Exception e
+     */
+    private List<String> searchPage(IndexSearcher searcher, Query query, PaginatedList<DocumentDto> paginatedList, String sortField, boolean asc) throws Exception {
+        Sort sort = new Sort(new SortField(sortField, SortField.Type.LONG, !asc), new SortField("document_id", SortField.Type.STRING, !asc));
+        TopFieldCollector collector = TopFieldCollector.create(sort, paginatedList.getOffset() + paginatedList.getLimit(), Integer.MAX_VALUE);
+        searcher.search(query, collector);
+        TopDocs topDocs = collector.topDocs(paginatedList.getOffset(), paginatedList.getLimit());
+        paginatedList.setResultCount((int) topDocs.totalHits.value);
+
+        List<String> documentIdList = new ArrayList<>();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            documentIdList.add(searcher.doc(scoreDoc.doc, ID_FIELD_SET).get("id"));
         }
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-        ScoreDoc[] docs = topDocs.scoreDocs;
+        return documentIdList;
+    }
+
+    /**
+     * Returns true if the only criteria of a search are fulltext queries.
+     *
+     * @param criteria Search criteria
+     * @return True if there is nothing to filter in the database
+     */
+    private boolean isSearchOnly(DocumentCriteria criteria) {
+        return criteria.getCreateDateMin() == null && criteria.getCreateDateMax() == null
+                && criteria.getUpdateDateMin() == null && criteria.getUpdateDateMax() == null
+                && criteria.getTitleList().isEmpty()
+                && criteria.getTagIdList().isEmpty() && criteria.getExcludedTagIdList().isEmpty()
+                && !Boolean.TRUE.equals(criteria.getShared())
+                && criteria.getMimeType() == null && criteria.getLanguage() == null && criteria.getCreatorId() == null
+                && !Boolean.TRUE.equals(criteria.getActiveRoute());
+    }
+
+    /**
+     * Highlight the file contents matching the fulltext search of some documents.
+     * Only the files of those documents are loaded from the index.
+     *
+     * @param searcher Index searcher
+     * @param fullSearchQuery Search query on all fields
+     * @param documentDtoList Documents to highlight
+     * @return Map of document IDs as key and highlight as value
+     * @throws Exception e
+     */
+    private Map<String, String> highlight(IndexSearcher searcher, String fullSearchQuery, List<DocumentDto> documentDtoList) throws Exception {
+        Map<String, String> highlightMap = Maps.newHashMap();
+
+        // Search the content of the files from those documents
+        Analyzer analyzer = new StandardAnalyzer();
+        Query contentQuery = buildQueryParser(analyzer, "content").parse(fullSearchQuery);
+        List<BytesRef> documentIdList = new ArrayList<>();
+        for (DocumentDto documentDto : documentDtoList) {
+            documentIdList.add(new BytesRef(documentDto.getId()));
+        }
+        Query query = new BooleanQuery.Builder()
+                .add(contentQuery, BooleanClause.Occur.MUST)
+                .add(new TermInSetQuery("document_id", documentIdList), BooleanClause.Occur.FILTER)
+                .build();
+
+        TopDocs topDocs = searcher.search(query, documentDtoList.size() * HIGHLIGHT_FILE_PER_DOCUMENT);
 
         SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
         SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
-        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(query));
-
-        // Extract document IDs and highlights
-        for (ScoreDoc doc : docs) {
-            org.apache.lucene.document.Document document = searcher.doc(doc.doc);
-            String type = document.get("doctype");
-            String documentId = null;
-            String highlight = null;
-            if (type.equals("document")) {
-                documentId = document.get("id");
-            } else if (type.equals("file")) {
-                documentId = document.get("document_id");
-                String content = document.get("content");
-                if (content != null) {
-                    highlight = highlighter.getBestFragment(analyzer, "content", content);
-                }
-            }
+        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(contentQuery));
 
-            if (documentId != null) {
-                documentMap.put(documentId, highlight);
+        // Keep the best scoring highlight of each document
+        for (ScoreDoc doc : topDocs.scoreDocs) {
+            org.apache.lucene.document.Document document = searcher.doc(doc.doc, HIGHLIGHT_FIELD_SET);
+            String documentId = document.get("document_id");
+            String content = document.get("content");
+            if (documentId == null || content == null || highlightMap.get(documentId) != null) {
+                continue;
             }
+            highlightMap.put(documentId, highlighter.getBestFragment(analyzer, "content", content));
         }
 
-        return documentMap;
+        return highlightMap;
     }
 
     /**
@@ -492,16 +1247,41 @@ public class LuceneIndexingHandler implements IndexingHandler {
         return simpleQueryParser;
     }
 
+    /**
+     * Returns the targets allowed to read some documents.
+     *
+     * @param documentList Documents
+     * @return Target IDs by document ID
+     */
+    private Map<String, List<String>> findReadTargetIdMap(List<Document> documentList) {
+        List<String> documentIdList = new ArrayList<>();
+        for (Document document : documentList) {
+            documentIdList.add(document.getId());
+        }
+        Map<String, List<String>> readTargetIdMap = new HashMap<>();
+        TransactionUtil.handle(() -> readTargetIdMap.putAll(new EffectiveAclDao().findTargetIdMap(documentIdList, PermType.READ)));
+        return readTargetIdMap;
+    }
+
     /**
      * Build Lucene document from database document.
      *
      * @param document Document
+     * @param readTargetIdMap Targets allowed to read the documents, by document ID
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromDocument(Document document) {
+    private org.apache.lucene.document.Document getDocumentFromDocument(Document document, Map<String, List<String>> readTargetIdMap) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", document.getId(), Field.Store.YES));
         luceneDocument.add(new StringField("doctype", "document", Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(document.getId())));
+        luceneDocument.add(new NumericDocValuesField("create_date", document.getCreateDate().getTime()));
+        if (document.getUpdateDate() != null) {
+            luceneDocument.add(new NumericDocValuesField("update_date", document.getUpdateDate().getTime()));
+        }
+        for (String targetId : readTargetIdMap.getOrDefault(document.getId(), Collections.emptyList())) {
+            luceneDocument.add(new StringField("read_target_id", targetId, Field.Store.NO));
+        }
         luceneDocument.add(new TextField("title", document.getTitle(), Field.Store.NO));
         if (document.getDescription() != null) {
             luceneDocument.add(new TextField("description", document.getDescription(), Field.Store.NO));
@@ -549,6 +1329,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
         if (file.getDocumentId() != null) {
             luceneDocument.add(new StringField("document_id", file.getDocumentId(), Field.Store.YES));
+            luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(file.getDocumentId())));
         }
         if (file.getContent() != null) {
             luceneDocument.add(new TextField("content", file.getContent(), Field.Store.YES));
@@ -558,52 +1339,158 @@ public class LuceneIndexingHandler implements IndexingHandler {
     }
 
     /**
-     * Returns a valid directory reader.
-     * Take care of reopening the reader if the index has changed
-     * and closing the previous one.
+     * Encapsulate a process into a Lucene context.
+     * In near-real-time mode, the changes are committed in batches and visible after the next refresh,
+     * otherwise they are committed and visible immediately.
+     * The changes are also applied to the rebuilt index if a rebuild is running.
      *
-     * @return the directoryReader
+     * @param idList IDs of the changed documents and files
+     * @param runnable Runnable
      */
-    private DirectoryReader getDirectoryReader() {
-        if (directoryReader == null) {
-            try {
-                if (!DirectoryReader.indexExists(directory)) {
-                    return null;
+    private void handle(List<String> idList, LuceneRunnable runnable) {
+        rebuildLock.readLock().lock();
+        try {
+            runnable.run(indexWriter);
+            if (rebuildWriter != null) {
+                // The rebuild batches must not overwrite these changes with the entities read before them
+                for (String id : idList) {
+                    Lock lock = rebuildIdLocks.get(id);
+                    lock.lock();
+                    try {
+                        rebuildChangedIdSet.add(id);
+                    } finally {
+                        lock.unlock();
+                    }
                 }
-                directoryReader = DirectoryReader.open(directory);
-            } catch (IOException e) {
-                log.error("Error creating the directory reader", e);
+                runnable.run(rebuildWriter);
             }
-        } else {
-            try {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader);
-                if (newReader != null) {
-                    directoryReader.close();
-                    directoryReader = newReader;
-                }
-            } catch (IOException e) {
-                log.error("Error while reopening the directory reader", e);
+        } catch (Exception e) {
+            log.error("Error in running index writing", e);
+            if (TransactionUtil.isJobContext()) {
+                // Retry the job
+                throw new RuntimeException("Error in running index writing", e);
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+
+        if (nrt) {
+            if (uncommittedOperationCount.incrementAndGet() >= commitOperationCount) {
+                commit();
             }
+        } else {
+            commit();
+            refresh();
         }
-        return directoryReader;
     }
 
     /**
-     * Encapsulate a process into a Lucene context.
-     *
-     * @param runnable Runnable
+     * Commit the pending changes to the index.
      */
-    private void handle(LuceneRunnable runnable) {
+    private void commit() {
+        uncommittedOperationCount.set(0);
         try {
-            runnable.run(indexWriter);
-        } catch (Exception e) {
-            log.error("Error in running index writing", e);
+            indexWriter.commit();
+        } catch (IOException e) {
+            log.error("Cannot commit index writer", e);
         }
+    }
 
+    /**
+     * Refresh the searcher to see the latest changes.
+     */
+    private void refresh() {
         try {
-            indexWriter.commit();
+            searcherManager.maybeRefreshBlocking();
         } catch (IOException e) {
-            log.error("Cannot commit index writer", e);
+            log.error("Error refreshing the index searcher", e);
+        }
+    }
+
+    /**
+     * Collector of the document IDs matching a query, read from doc values.
+     * Files are collapsed to their document and orphan files are ignored.
+     */
+    private static class DocumentIdCollector extends SimpleCollector {
+        /**
+         * Collected document IDs.
+         */
+        private final Set<String> documentIdSet = new HashSet<>();
+
+        /**
+         * Document IDs of the current segment.
+         */
+        private SortedDocValues documentIdValues;
+
+        /**
+         * Ordinals collected in the current segment.
+         */
+        private LongBitSet ordinalSet;
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            flushSegment();
+            documentIdValues = DocValues.getSorted(context.reader(), "document_id");
+            ordinalSet = new LongBitSet(Math.max(documentIdValues.getValueCount(), 1));
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (documentIdValues.advanceExact(doc)) {
+                ordinalSet.set(documentIdValues.ordValue());
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+
+        /**
+         * Returns the collected document IDs.
+         *
+         * @return Set of document IDs
+         * @throws IOException e
+         */
+        public Set<String> getDocumentIdSet() throws IOException {
+            flushSegment();
+            return documentIdSet;
+        }
+
+        /**
+         * Resolve the ordinals collected in the current segment.
+         *
+         * @throws IOException e
+         */
+        private void flushSegment() throws IOException {
+            if (ordinalSet == null) {
+                return;
+            }
+            long length = ordinalSet.length();
+            for (long ord = ordinalSet.nextSetBit(0); ord != -1; ord = ord + 1 < length ? ordinalSet.nextSetBit(ord + 1) : -1) {
+                documentIdSet.add(documentIdValues.lookupOrd((int) ord).utf8ToString());
+            }
+            ordinalSet = null;
+        }
+    }
+
+    /**
+     * Suggester built from a given index version.
+     */
+    private static class CachedSuggester {
+        /**
+         * Version of the index used to build the suggester.
+         */
+        private final long version;
+
+        /**
+         * Suggester.
+         */
+        private final Lookup lookup;
+
+        private CachedSuggester(long version, Lookup lookup) {
+            this.version = version;
+            this.lookup = lookup;
         }
     }
 
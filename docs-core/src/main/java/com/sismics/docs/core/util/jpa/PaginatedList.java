@@ -23,6 +23,26 @@ public class PaginatedList<T> {
      */
     private int resultCount;
     
+    /**
+     * True if the total number of records is an estimation.
+     */
+    private boolean resultCountEstimated;
+
+    /**
+     * True to estimate the total number of records instead of counting them all.
+     */
+    private boolean estimatedCount;
+
+    /**
+     * Sort value and ID of the last record of the previous page (keyset pagination), null to use the offset.
+     */
+    private Object[] cursor;
+
+    /**
+     * Cursor of the next page, null if this page is the last one.
+     */
+    private String nextCursor;
+
     /**
      * List of records of the current page.
      */
@@ -92,4 +112,81 @@ public class PaginatedList<T> {
     public int getOffset() {
         return offset;
     }
+
+    /**
+     * Getter of resultCountEstimated.
+     *
+     * @return resultCountEstimated
+     */
+    public boolean isResultCountEstimated() {
+        return resultCountEstimated;
+    }
+
+    /**
+     * Setter of resultCountEstimated.
+     *
+     * @param resultCountEstimated resultCountEstimated
+     */
+    public void setResultCountEstimated(boolean resultCountEstimated) {
+        this.resultCountEstimated = resultCountEstimated;
+    }
+
+    /**
+     * Getter of estimatedCount.
+     *
+     * @return estimatedCount
+     */
+    public boolean isEstimatedCount() {
+        return estimatedCount;
+    }
+
+    /**
+     * Setter of estimatedCount.
+     *
+     * @param estimatedCount estimatedCount
+     * @return Paginated list
+     */
+    public PaginatedList<T> setEstimatedCount(boolean estimatedCount) {
+        this.estimatedCount = estimatedCount;
+        return this;
+    }
+
+    /**
+     * Getter of cursor.
+     *
+     * @return Sort value and ID of the last record of the previous page
+     */
+    public Object[] getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Setter of cursor.
+     *
+     * @param cursor Cursor returned with the previous page, null to use the offset
+     * @return Paginated list
+     * @throws IllegalArgumentException If the cursor is malformed
+     */
+    public PaginatedList<T> setCursor(String cursor) {
+        this.cursor = cursor == null ? null : PaginatedLists.decodeCursor(cursor);
+        return this;
+    }
+
+    /**
+     * Getter of nextCursor.
+     *
+     * @return nextCursor
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Setter of nextCursor.
+     *
+     * @param nextCursor nextCursor
+     */
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
@@ -1,7 +1,13 @@
 package com.sismics.docs.core.util.jpa;
 
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.jpa.EMF;
+
 import jakarta.persistence.Query;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.*;
 
 /**
  * Utilities for paginated lists.
@@ -19,6 +25,11 @@ public class PaginatedLists {
      */
     private static final int MAX_PAGE_SIZE = 100;
 
+    /**
+     * Number of results counted before the count is estimated.
+     */
+    private static final int ESTIMATED_COUNT_THRESHOLD = 1000;
+
     /**
      * Constructs a paginated list.
      * 
@@ -83,17 +94,171 @@ public class PaginatedLists {
         return q.getResultList();
     }
 
+    /**
+     * Executes a native count request stopping at a threshold.
+     * Beyond the threshold, the threshold is returned as an estimation of the number of results.
+     *
+     * @param paginatedList Paginated list object containing parameters, and into which results are added by side effects
+     * @param queryParam Query parameters
+     */
+    private static <E> void executeEstimatedCountQuery(PaginatedList<E> paginatedList, QueryParam queryParam) {
+        StringBuilder sb = new StringBuilder("select count(*) as result_count from (select 1 as result_one from (");
+        sb.append(queryParam.getQueryString());
+        sb.append(") as t0 limit ");
+        sb.append(ESTIMATED_COUNT_THRESHOLD + 1);
+        sb.append(") as t1");
+
+        Query q = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), queryParam.getParameterMap()));
+
+        int resultCount = ((Number) q.getSingleResult()).intValue();
+        paginatedList.setResultCount(Math.min(resultCount, ESTIMATED_COUNT_THRESHOLD));
+        paginatedList.setResultCountEstimated(resultCount > ESTIMATED_COUNT_THRESHOLD);
+    }
+
     /**
      * Executes a paginated request with 2 native queries (one to count the number of results, and one to return the page).
      * 
      * @param paginatedList Paginated list object containing parameters, and into which results are added by side effects
      * @param queryParam Query parameters
+     * @return List of results
+     */
+    private static <E> List<Object[]> executeUnsortedQuery(PaginatedList<E> paginatedList, QueryParam queryParam) {
+        if (paginatedList.isEstimatedCount()) {
+            executeEstimatedCountQuery(paginatedList, queryParam);
+        } else {
+            executeCountQuery(paginatedList, queryParam);
+        }
+        return executeResultQuery(paginatedList, queryParam);
+    }
+
+    /**
+     * Executes a paginated request.
+     * The page is sorted on the sort column then on the first column (c0), which must identify the results.
+     * The page starts after the cursor if there is one, otherwise at the offset.
+     * The results are counted in the page query with a window function if the database supports it,
+     * or in a second query (which can stop at a threshold if the count is estimated).
+     * 
+     * @param paginatedList Paginated list object containing parameters, and into which results are added by side effects
+     * @param queryParam Query parameters
      * @param sortCriteria Sort criteria
      * @return List of results
      */
+    @SuppressWarnings("unchecked")
     public static <E> List<Object[]> executePaginatedQuery(PaginatedList<E> paginatedList, QueryParam queryParam, SortCriteria sortCriteria) {
-        QueryParam sortedQueryParam = QueryUtil.getSortedQueryParam(queryParam, sortCriteria);
-        executeCountQuery(paginatedList, sortedQueryParam);
-        return executeResultQuery(paginatedList, sortedQueryParam);
+        if (sortCriteria == null) {
+            return executeUnsortedQuery(paginatedList, queryParam);
+        }
+
+        Object[] cursor = paginatedList.getCursor();
+        boolean windowCount = cursor == null && !paginatedList.isEstimatedCount() && isWindowCountEnabled();
+        String sortColumn = "t1.c" + sortCriteria.getColumn();
+        String direction = sortCriteria.isAsc() ? " asc" : " desc";
+
+        // The sort value and ID of each result are added after its columns, followed by the total count
+        StringBuilder sb = new StringBuilder("select t1.*, ");
+        sb.append(sortColumn).append(" as sort_value, t1.c0 as sort_id");
+        if (windowCount) {
+            sb.append(", count(*) over() as result_count");
+        }
+        sb.append(" from (");
+        sb.append(queryParam.getQueryString());
+        sb.append(") as t1");
+        Map<String, Object> parameterMap = new HashMap<>(queryParam.getParameterMap());
+        if (cursor != null) {
+            String comparison = sortCriteria.isAsc() ? " > " : " < ";
+            sb.append(" where (").append(sortColumn).append(comparison).append(":cursorValue or (")
+                    .append(sortColumn).append(" = :cursorValue and t1.c0").append(comparison).append(":cursorId))");
+            parameterMap.put("cursorValue", cursor[0]);
+            parameterMap.put("cursorId", cursor[1]);
+        }
+        sb.append(" order by ").append(sortColumn).append(direction).append(", t1.c0").append(direction);
+
+        Query q = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap));
+        q.setFirstResult(cursor == null ? paginatedList.getOffset() : 0);
+        q.setMaxResults(paginatedList.getLimit());
+        List<Object[]> resultList = q.getResultList();
+
+        // Count the results
+        if (windowCount && !resultList.isEmpty()) {
+            Object[] result = resultList.get(0);
+            paginatedList.setResultCount(((Number) result[result.length - 1]).intValue());
+        } else if (windowCount && paginatedList.getOffset() == 0) {
+            paginatedList.setResultCount(0);
+        } else if (paginatedList.isEstimatedCount()) {
+            executeEstimatedCountQuery(paginatedList, queryParam);
+        } else {
+            executeCountQuery(paginatedList, queryParam);
+        }
+
+        // Keep the cursor of the last result and remove the added columns
+        int addedCount = windowCount ? 3 : 2;
+        List<Object[]> pageList = new ArrayList<>();
+        for (Object[] result : resultList) {
+            pageList.add(Arrays.copyOf(result, result.length - addedCount));
+        }
+        paginatedList.setNextCursor(null);
+        if (!resultList.isEmpty() && resultList.size() == paginatedList.getLimit()) {
+            Object[] result = resultList.get(resultList.size() - 1);
+            paginatedList.setNextCursor(encodeCursor(result[result.length - addedCount], result[result.length - addedCount + 1]));
+        }
+        return pageList;
+    }
+
+    /**
+     * Returns true if the results are counted in the page query.
+     *
+     * @return True if the results are counted with a window function
+     */
+    private static boolean isWindowCountEnabled() {
+        return (EMF.isDriverPostgresql() || EMF.isDriverH2())
+                && EnvironmentUtil.getEnvBoolean(Constants.PAGINATION_WINDOW_COUNT_ENV, true);
+    }
+
+    /**
+     * Encodes a cursor.
+     *
+     * @param sortValue Sort value of the last result
+     * @param id ID of the last result
+     * @return Cursor, or null if the sort value can't be used to continue
+     */
+    private static String encodeCursor(Object sortValue, Object id) {
+        String value;
+        if (sortValue instanceof Date) {
+            value = "t" + ((Date) sortValue).getTime();
+        } else if (sortValue instanceof Number) {
+            value = "n" + ((Number) sortValue).longValue();
+        } else if (sortValue instanceof String) {
+            value = "s" + sortValue;
+        } else {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((id + ":" + value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor.
+     *
+     * @param cursor Cursor
+     * @return Sort value and ID of the last result
+     * @throws IllegalArgumentException If the cursor is malformed
+     */
+    static Object[] decodeCursor(String cursor) {
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int index = decoded.indexOf(':');
+        if (index == -1 || index == decoded.length() - 1) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        String id = decoded.substring(0, index);
+        String value = decoded.substring(index + 2);
+        switch (decoded.charAt(index + 1)) {
+            case 't':
+                return new Object[] { new Timestamp(Long.parseLong(value)), id };
+            case 'n':
+                return new Object[] { Long.parseLong(value), id };
+            case 's':
+                return new Object[] { value, id };
+            default:
+                throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
     }
 }
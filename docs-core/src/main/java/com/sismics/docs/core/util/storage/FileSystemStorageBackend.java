@@ -0,0 +1,145 @@
+package com.sismics.docs.core.util.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Storage backend on the local file system.
+ *
+ * @author bgamard
+ */
+public abstract class FileSystemStorageBackend implements StorageBackend {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileSystemStorageBackend.class);
+
+    /**
+     * Suffix of the files being written.
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Returns the path of a stored object.
+     *
+     * @param key Key
+     * @return Path
+     */
+    public abstract Path resolve(String key);
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public long getLastModified(String key) throws IOException {
+        return Files.getLastModifiedTime(resolve(key)).toMillis();
+    }
+
+    @Override
+    public InputStream newInputStream(String key, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        channel.position(offset);
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * The object is written to a temporary file next to it, then renamed over it when the stream is closed.
+     * A replaced object is unlinked instead of truncated, the objects sharing its content are left untouched.
+     */
+    @Override
+    public OutputStream newOutputStream(String key) throws IOException {
+        Path path = resolve(key);
+        Files.createDirectories(path.getParent());
+        Path tmpPath = Files.createTempFile(path.getParent(), path.getFileName() + ".", TEMPORARY_SUFFIX);
+        return new FilterOutputStream(Files.newOutputStream(tmpPath)) {
+            private boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                    Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tmpPath);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    /**
+     * The stored files are hard linked, so the content is reference counted by the file system
+     * and deleting an object only deletes its link. The file is copied if hard links are not supported.
+     */
+    @Override
+    public void copy(String sourceKey, String targetKey) throws IOException {
+        link(resolve(sourceKey), resolve(targetKey));
+    }
+
+    /**
+     * The content is shared if the hard links are supported between the objects.
+     */
+    @Override
+    public boolean isCopyShared() {
+        return true;
+    }
+
+    /**
+     * Returns true if a file is an object being written.
+     *
+     * @param path Path
+     * @return True if the file is temporary
+     */
+    protected static boolean isTemporary(Path path) {
+        return path.getFileName().toString().endsWith(TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * Hard link a file, or copy it if hard links are not supported.
+     *
+     * @param source Existing file
+     * @param target New file, replaced if it exists
+     * @throws IOException e
+     */
+    protected static void link(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            log.warn("Unable to link " + source + ", copying it instead", e);
+            Files.copy(source, target);
+        }
+    }
+}
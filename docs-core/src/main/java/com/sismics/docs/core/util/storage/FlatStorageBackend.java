@@ -0,0 +1,39 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend keeping all objects in a single directory.
+ *
+ * @author bgamard
+ */
+public class FlatStorageBackend extends FileSystemStorageBackend {
+    /**
+     * Storage directory.
+     */
+    private final Path directory;
+
+    /**
+     * Constructor.
+     *
+     * @param directory Storage directory
+     */
+    public FlatStorageBackend(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Path resolve(String key) {
+        return directory.resolve(key);
+    }
+
+    @Override
+    public Stream<String> list() throws IOException {
+        return Files.list(directory)
+                .filter(path -> Files.isRegularFile(path) && !isTemporary(path))
+                .map(path -> path.getFileName().toString());
+    }
+}
@@ -0,0 +1,217 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend of the storage directory, moving from the flat layout to the sharded layout.
+ * New objects are written in hash-prefix subdirectories, objects of the flat layout are read
+ * in place until they are migrated.
+ *
+ * @author bgamard
+ */
+public class MigratingStorageBackend extends FileSystemStorageBackend {
+    /**
+     * Storage directory.
+     */
+    private final Path directory;
+
+    /**
+     * Sharded layout.
+     */
+    private final ShardedStorageBackend sharded;
+
+    /**
+     * Flat layout.
+     */
+    private final FlatStorageBackend flat;
+
+    /**
+     * Number of objects migrated.
+     */
+    private final AtomicLong migratedCount = new AtomicLong();
+
+    /**
+     * Number of objects to migrate, counted when the migration starts.
+     */
+    private final AtomicLong legacyCount = new AtomicLong(-1);
+
+    /**
+     * Total duration of the lookups in the flat layout before the migration (in nanoseconds).
+     */
+    private final AtomicLong legacyLookupTime = new AtomicLong();
+
+    /**
+     * Total duration of the lookups in the sharded layout after the migration (in nanoseconds).
+     */
+    private final AtomicLong shardedLookupTime = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param directory Storage directory
+     */
+    public MigratingStorageBackend(Path directory) {
+        this.directory = directory;
+        this.sharded = new ShardedStorageBackend(List.of(directory));
+        this.flat = new FlatStorageBackend(directory);
+    }
+
+    /**
+     * Returns the sharded path of an object, or its flat path if it is not migrated yet.
+     */
+    @Override
+    public Path resolve(String key) {
+        Path path = sharded.resolve(key);
+        if (Files.exists(path)) {
+            return path;
+        }
+        Path legacyPath = flat.resolve(key);
+        return Files.exists(legacyPath) ? legacyPath : path;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try {
+            return super.size(key);
+        } catch (NoSuchFileException e) {
+            // Migrated since resolved
+            return super.size(key);
+        }
+    }
+
+    @Override
+    public long getLastModified(String key) throws IOException {
+        try {
+            return super.getLastModified(key);
+        } catch (NoSuchFileException e) {
+            // Migrated since resolved
+            return super.getLastModified(key);
+        }
+    }
+
+    @Override
+    public InputStream newInputStream(String key, long offset) throws IOException {
+        try {
+            return super.newInputStream(key, offset);
+        } catch (NoSuchFileException e) {
+            // Migrated since resolved
+            return super.newInputStream(key, offset);
+        }
+    }
+
+    /**
+     * The flat copy is removed, the migration would otherwise replace the new content.
+     */
+    @Override
+    public OutputStream newOutputStream(String key) throws IOException {
+        flat.delete(key);
+        return sharded.newOutputStream(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        sharded.delete(key);
+        flat.delete(key);
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) throws IOException {
+        flat.delete(targetKey);
+        try {
+            link(resolve(sourceKey), sharded.resolve(targetKey));
+        } catch (NoSuchFileException e) {
+            // Migrated since resolved
+            link(resolve(sourceKey), sharded.resolve(targetKey));
+        }
+    }
+
+    @Override
+    public Stream<String> list() throws IOException {
+        return Stream.concat(sharded.list(), flat.list());
+    }
+
+    /**
+     * Move a batch of objects from the flat layout to the sharded layout.
+     *
+     * @param batchSize Maximum number of objects to move
+     * @return True if objects may remain in the flat layout
+     * @throws IOException e
+     */
+    public boolean migrate(int batchSize) throws IOException {
+        if (legacyCount.get() == -1) {
+            try (Stream<String> stream = flat.list()) {
+                legacyCount.set(stream.count());
+            }
+        }
+
+        List<String> keyList = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, path -> Files.isRegularFile(path) && !isTemporary(path))) {
+            for (Path path : directoryStream) {
+                keyList.add(path.getFileName().toString());
+                if (keyList.size() >= batchSize) {
+                    break;
+                }
+            }
+        }
+
+        for (String key : keyList) {
+            Path legacyPath = flat.resolve(key);
+            Path path = sharded.resolve(key);
+
+            // Lookup before the move
+            long startTime = System.nanoTime();
+            try {
+                Files.readAttributes(legacyPath, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                // Deleted or rewritten since listed
+                continue;
+            }
+            long legacyTime = System.nanoTime() - startTime;
+
+            // A rename in the same directory tree, which fails instead of replacing a rewritten object
+            Files.createDirectories(path.getParent());
+            try {
+                Files.move(legacyPath, path);
+            } catch (NoSuchFileException e) {
+                continue;
+            } catch (FileAlreadyExistsException e) {
+                // Rewritten in the sharded layout, the flat copy is outdated
+                Files.deleteIfExists(legacyPath);
+                continue;
+            }
+
+            // Lookup after the move
+            startTime = System.nanoTime();
+            Files.readAttributes(path, BasicFileAttributes.class);
+            shardedLookupTime.addAndGet(System.nanoTime() - startTime);
+            legacyLookupTime.addAndGet(legacyTime);
+            migratedCount.incrementAndGet();
+        }
+        return keyList.size() >= batchSize;
+    }
+
+    /**
+     * Returns the statistics of the migration.
+     *
+     * @return Statistics
+     */
+    public Map<String, Long> getStatistics() {
+        long migrated = migratedCount.get();
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("migrated", migrated);
+        statistics.put("total", Math.max(legacyCount.get(), migrated));
+        statistics.put("legacy_lookup_time", migrated == 0 ? 0 : legacyLookupTime.get() / migrated);
+        statistics.put("sharded_lookup_time", migrated == 0 ? 0 : shardedLookupTime.get() / migrated);
+        return statistics;
+    }
+}
@@ -0,0 +1,706 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Storage backend on an S3-compatible object store.
+ * Objects are read in chunks, the next chunk being fetched while the current one is consumed,
+ * and written with multipart uploads once they are larger than a part.
+ *
+ * @author bgamard
+ */
+public class S3StorageBackend implements StorageBackend {
+    /**
+     * Signature algorithm.
+     */
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+
+    /**
+     * Hash of an empty payload.
+     */
+    private static final String EMPTY_PAYLOAD_HASH = Hashing.sha256().hashBytes(new byte[0]).toString();
+
+    /**
+     * Number of parts uploaded concurrently by a writer.
+     */
+    private static final int MAX_CONCURRENT_PARTS = 2;
+
+    /**
+     * OkHttp client.
+     */
+    private final OkHttpClient client = new OkHttpClient();
+
+    /**
+     * Endpoint of the object store.
+     */
+    private final HttpUrl endpoint;
+
+    /**
+     * Region.
+     */
+    private final String region;
+
+    /**
+     * Bucket.
+     */
+    private final String bucket;
+
+    /**
+     * Access key.
+     */
+    private final String accessKey;
+
+    /**
+     * Secret key.
+     */
+    private final String secretKey;
+
+    /**
+     * Size of the uploaded parts and of the prefetched chunks (in bytes).
+     */
+    private final int partSize;
+
+    /**
+     * Executor of the prefetches and part uploads.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-storage-%d").build());
+
+    /**
+     * Constructor.
+     *
+     * @param endpoint Endpoint of the object store, objects are addressed by path
+     * @param region Region
+     * @param bucket Bucket
+     * @param accessKey Access key
+     * @param secretKey Secret key
+     * @param partSize Size of the uploaded parts and of the prefetched chunks (in bytes)
+     */
+    public S3StorageBackend(String endpoint, String region, String bucket, String accessKey, String secretKey, int partSize) {
+        this.endpoint = HttpUrl.get(endpoint);
+        this.region = region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.partSize = partSize;
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        try (Response response = execute("HEAD", key, Collections.emptyMap(), Collections.emptyMap(), null)) {
+            if (response.code() == 404) {
+                return false;
+            }
+            checkResponse(response, key);
+            return true;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try (Response response = head(key)) {
+            return Long.parseLong(Objects.requireNonNull(response.header("Content-Length")));
+        }
+    }
+
+    @Override
+    public long getLastModified(String key) throws IOException {
+        try (Response response = head(key)) {
+            Date lastModified = response.headers().getDate("Last-Modified");
+            return lastModified == null ? 0 : lastModified.getTime();
+        }
+    }
+
+    @Override
+    public InputStream newInputStream(String key, long offset) throws IOException {
+        return new PrefetchInputStream(key, offset, size(key));
+    }
+
+    @Override
+    public OutputStream newOutputStream(String key) {
+        return new MultipartOutputStream(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try (Response response = execute("DELETE", key, Collections.emptyMap(), Collections.emptyMap(), null)) {
+            if (response.code() != 404) {
+                checkResponse(response, key);
+            }
+        }
+    }
+
+    /**
+     * The object is copied by the object store, without going through this server.
+     */
+    @Override
+    public void copy(String sourceKey, String targetKey) throws IOException {
+        Map<String, String> headers = Collections.singletonMap("x-amz-copy-source", "/" + bucket + "/" + encode(sourceKey));
+        try (Response response = execute("PUT", targetKey, Collections.emptyMap(), headers, new byte[0])) {
+            checkResponse(response, sourceKey);
+
+            // The copy can fail after the response status has been sent
+            String body = Objects.requireNonNull(response.body()).string();
+            if (body.contains("<Error>")) {
+                throw new IOException("Error copying " + sourceKey + " to " + targetKey + ": " + body);
+            }
+        }
+    }
+
+    /**
+     * The object store keeps a full copy of the object.
+     */
+    @Override
+    public boolean isCopyShared() {
+        return false;
+    }
+
+    @Override
+    public Stream<String> list() {
+        Iterator<String> iterator = new Iterator<>() {
+            private Iterator<String> page = Collections.emptyIterator();
+            private String continuationToken;
+            private boolean truncated = true;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && truncated) {
+                    fetchPage();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+
+            private void fetchPage() {
+                Map<String, String> query = new HashMap<>();
+                query.put("list-type", "2");
+                if (continuationToken != null) {
+                    query.put("continuation-token", continuationToken);
+                }
+                try (Response response = execute("GET", null, query, Collections.emptyMap(), null)) {
+                    checkResponse(response, bucket);
+                    Document document = parseXml(Objects.requireNonNull(response.body()).bytes());
+                    page = getElementValues(document, "Key").iterator();
+                    truncated = "true".equals(getElementValue(document, "IsTruncated"));
+                    continuationToken = getElementValue(document, "NextContinuationToken");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the headers of a stored object.
+     *
+     * @param key Key
+     * @return Response, to be closed by the caller
+     * @throws IOException e
+     */
+    private Response head(String key) throws IOException {
+        Response response = execute("HEAD", key, Collections.emptyMap(), Collections.emptyMap(), null);
+        try {
+            checkResponse(response, key);
+        } catch (IOException e) {
+            response.close();
+            throw e;
+        }
+        return response;
+    }
+
+    /**
+     * Read a range of a stored object.
+     *
+     * @param key Key
+     * @param start First byte
+     * @param end Last byte (inclusive)
+     * @return Bytes
+     * @throws IOException e
+     */
+    private byte[] getRange(String key, long start, long end) throws IOException {
+        Map<String, String> headers = Collections.singletonMap("Range", "bytes=" + start + "-" + end);
+        try (Response response = execute("GET", key, Collections.emptyMap(), headers, null)) {
+            checkResponse(response, key);
+            byte[] bytes = Objects.requireNonNull(response.body()).bytes();
+            if (response.code() == 200 && start > 0) {
+                // The range has been ignored, the whole object is returned
+                return Arrays.copyOfRange(bytes, (int) start, (int) Math.min(end + 1, bytes.length));
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Execute a signed request.
+     *
+     * @param method HTTP method
+     * @param key Key, or null for a request on the bucket
+     * @param query Query parameters
+     * @param headers Additional headers
+     * @param body Body, or null if none
+     * @return Response, to be closed by the caller
+     * @throws IOException e
+     */
+    private Response execute(String method, String key, Map<String, String> query, Map<String, String> headers, byte[] body) throws IOException {
+        // Canonical path and query, encoded the same way in the URL and in the signature
+        String path = endpoint.encodedPath().replaceAll("/$", "") + "/" + encode(bucket) + (key == null ? "" : "/" + encode(key));
+        StringBuilder canonicalQuery = new StringBuilder();
+        for (Map.Entry<String, String> entry : new TreeMap<>(query).entrySet()) {
+            if (canonicalQuery.length() > 0) {
+                canonicalQuery.append('&');
+            }
+            canonicalQuery.append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+        }
+        HttpUrl url = endpoint.newBuilder()
+                .encodedPath(path)
+                .encodedQuery(canonicalQuery.length() == 0 ? null : canonicalQuery.toString())
+                .build();
+
+        // Headers to sign
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = now.format(DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'"));
+        String dateStamp = now.format(DateTimeFormatter.BASIC_ISO_DATE).substring(0, 8);
+        String payloadHash = body == null ? EMPTY_PAYLOAD_HASH : Hashing.sha256().hashBytes(body).toString();
+        SortedMap<String, String> signedHeaders = new TreeMap<>();
+        signedHeaders.put("host", url.port() == HttpUrl.defaultPort(url.scheme()) ? url.host() : url.host() + ":" + url.port());
+        signedHeaders.put("x-amz-content-sha256", payloadHash);
+        signedHeaders.put("x-amz-date", amzDate);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            signedHeaders.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue().trim());
+        }
+
+        // Signature version 4
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+        }
+        String signedHeaderNames = String.join(";", signedHeaders.keySet());
+        String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery + "\n"
+                + canonicalHeaders + "\n" + signedHeaderNames + "\n" + payloadHash;
+        String scope = dateStamp + "/" + region + "/s3/aws4_request";
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n"
+                + Hashing.sha256().hashString(canonicalRequest, StandardCharsets.UTF_8);
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), dateStamp);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = BaseEncoding.base16().lowerCase().encode(hmac(signingKey, stringToSign));
+
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .method(method, body == null ? null : RequestBody.create(body))
+                .header("Authorization", ALGORITHM + " Credential=" + accessKey + "/" + scope
+                        + ", SignedHeaders=" + signedHeaderNames + ", Signature=" + signature);
+        for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+            if (!header.getKey().equals("host")) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        return client.newCall(builder.build()).execute();
+    }
+
+    /**
+     * Check that a response is successful.
+     *
+     * @param response Response
+     * @param key Key of the requested object
+     * @throws IOException If the response is an error
+     */
+    private void checkResponse(Response response, String key) throws IOException {
+        if (response.code() == 404) {
+            throw new NoSuchFileException(key);
+        }
+        if (!response.isSuccessful()) {
+            ResponseBody body = response.body();
+            throw new IOException("Error " + response.code() + " on " + key + ": " + (body == null ? "" : body.string()));
+        }
+    }
+
+    /**
+     * URI encode a value as expected by the signature, slashes included.
+     *
+     * @param value Value
+     * @return Encoded value
+     */
+    private static String encode(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_' || c == '.' || c == '~') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compute a HMAC-SHA256.
+     *
+     * @param key Key
+     * @param data Data
+     * @return HMAC
+     */
+    private static byte[] hmac(byte[] key, String data) {
+        return Hashing.hmacSha256(key).hashString(data, StandardCharsets.UTF_8).asBytes();
+    }
+
+    /**
+     * Parse an XML response.
+     *
+     * @param bytes XML
+     * @return Document
+     * @throws IOException e
+     */
+    private static Document parseXml(byte[] bytes) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+        } catch (Exception e) {
+            throw new IOException("Invalid XML response", e);
+        }
+    }
+
+    /**
+     * Returns the values of all elements with a name.
+     *
+     * @param document Document
+     * @param name Element name
+     * @return Values
+     */
+    private static List<String> getElementValues(Document document, String name) {
+        NodeList nodeList = document.getElementsByTagName(name);
+        List<String> valueList = new ArrayList<>();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            valueList.add(nodeList.item(i).getTextContent());
+        }
+        return valueList;
+    }
+
+    /**
+     * Returns the value of the first element with a name.
+     *
+     * @param document Document
+     * @param name Element name
+     * @return Value or null if none
+     */
+    private static String getElementValue(Document document, String name) {
+        List<String> valueList = getElementValues(document, name);
+        return valueList.isEmpty() ? null : valueList.get(0);
+    }
+
+    /**
+     * Stream reading an object in chunks, the next chunk being fetched in the background.
+     */
+    private class PrefetchInputStream extends InputStream {
+        /**
+         * Key.
+         */
+        private final String key;
+
+        /**
+         * Size of the object.
+         */
+        private final long size;
+
+        /**
+         * Position of the next chunk to fetch.
+         */
+        private long nextPosition;
+
+        /**
+         * Current chunk.
+         */
+        private byte[] chunk = new byte[0];
+
+        /**
+         * Position in the current chunk.
+         */
+        private int chunkPosition;
+
+        /**
+         * Next chunk, being fetched.
+         */
+        private Future<byte[]> nextChunk;
+
+        PrefetchInputStream(String key, long offset, long size) {
+            this.key = key;
+            this.size = size;
+            this.nextPosition = Math.min(offset, size);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fillChunk()) {
+                return -1;
+            }
+            return chunk[chunkPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fillChunk()) {
+                return -1;
+            }
+            int length = Math.min(len, chunk.length - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, b, off, length);
+            chunkPosition += length;
+            return length;
+        }
+
+        @Override
+        public void close() {
+            if (nextChunk != null) {
+                nextChunk.cancel(true);
+                nextChunk = null;
+            }
+        }
+
+        /**
+         * Make sure that the current chunk has bytes to read.
+         *
+         * @return False at the end of the object
+         * @throws IOException e
+         */
+        private boolean fillChunk() throws IOException {
+            while (chunkPosition >= chunk.length) {
+                if (nextChunk == null) {
+                    if (nextPosition >= size) {
+                        return false;
+                    }
+                    // First chunk
+                    nextChunk = CompletableFuture.completedFuture(fetch());
+                }
+
+                try {
+                    chunk = nextChunk.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } catch (ExecutionException e) {
+                    throw new IOException("Error reading " + key, e.getCause());
+                }
+                chunkPosition = 0;
+
+                // Prefetch the next chunk while this one is consumed
+                nextChunk = nextPosition < size ? executor.submit(this::fetch) : null;
+                if (chunk.length == 0 && nextChunk == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Fetch the next chunk.
+         *
+         * @return Chunk
+         * @throws IOException e
+         */
+        private byte[] fetch() throws IOException {
+            long start = nextPosition;
+            long end = Math.min(start + partSize, size) - 1;
+            nextPosition = end + 1;
+            return getRange(key, start, end);
+        }
+    }
+
+    /**
+     * Stream writing an object, with a multipart upload once it is larger than a part.
+     */
+    private class MultipartOutputStream extends OutputStream {
+        /**
+         * Key.
+         */
+        private final String key;
+
+        /**
+         * Current part.
+         */
+        private ByteArrayOutputStream part = new ByteArrayOutputStream();
+
+        /**
+         * Multipart upload ID, null until the data is larger than a part.
+         */
+        private String uploadId;
+
+        /**
+         * ETags of the uploaded parts.
+         */
+        private final List<Future<String>> etagList = new ArrayList<>();
+
+        /**
+         * Limits the number of parts in memory.
+         */
+        private final Semaphore partPermits = new Semaphore(MAX_CONCURRENT_PARTS);
+
+        /**
+         * True if the stream is closed.
+         */
+        private boolean closed;
+
+        MultipartOutputStream(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                // A full part is uploaded only when more data follows, a small object is sent in a single request
+                if (part.size() >= partSize) {
+                    uploadPart();
+                }
+                int length = Math.min(len, partSize - part.size());
+                part.write(b, off, length);
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                if (uploadId == null) {
+                    // Small object, a single request
+                    try (Response response = execute("PUT", key, Collections.emptyMap(), Collections.emptyMap(), part.toByteArray())) {
+                        checkResponse(response, key);
+                    }
+                    return;
+                }
+
+                if (part.size() > 0) {
+                    uploadPart();
+                }
+                StringBuilder sb = new StringBuilder("<CompleteMultipartUpload>");
+                for (int i = 0; i < etagList.size(); i++) {
+                    sb.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                            .append(etagList.get(i).get()).append("</ETag></Part>");
+                }
+                sb.append("</CompleteMultipartUpload>");
+                try (Response response = execute("POST", key, Collections.singletonMap("uploadId", uploadId),
+                        Collections.emptyMap(), sb.toString().getBytes(StandardCharsets.UTF_8))) {
+                    checkResponse(response, key);
+                    String body = Objects.requireNonNull(response.body()).string();
+                    if (body.contains("<Error>")) {
+                        throw new IOException("Error completing the upload of " + key + ": " + body);
+                    }
+                }
+            } catch (Exception e) {
+                abort();
+                if (e instanceof IOException) {
+                    throw (IOException) e;
+                }
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Error uploading " + key, e);
+            }
+        }
+
+        /**
+         * Upload the current part in the background.
+         *
+         * @throws IOException e
+         */
+        private void uploadPart() throws IOException {
+            if (uploadId == null) {
+                try (Response response = execute("POST", key, Collections.singletonMap("uploads", ""), Collections.emptyMap(), new byte[0])) {
+                    checkResponse(response, key);
+                    uploadId = getElementValue(parseXml(Objects.requireNonNull(response.body()).bytes()), "UploadId");
+                }
+                if (Strings.isNullOrEmpty(uploadId)) {
+                    throw new IOException("No upload ID for " + key);
+                }
+            }
+
+            try {
+                partPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                throw new InterruptedIOException();
+            }
+            byte[] bytes = part.toByteArray();
+            part = new ByteArrayOutputStream();
+            Map<String, String> query = new HashMap<>();
+            query.put("partNumber", Integer.toString(etagList.size() + 1));
+            query.put("uploadId", uploadId);
+            etagList.add(executor.submit(() -> {
+                try (Response response = execute("PUT", key, query, Collections.emptyMap(), bytes)) {
+                    checkResponse(response, key);
+                    return response.header("ETag");
+                } finally {
+                    partPermits.release();
+                }
+            }));
+        }
+
+        /**
+         * Abort the multipart upload.
+         */
+        private void abort() {
+            if (uploadId == null) {
+                return;
+            }
+            for (Future<String> etag : etagList) {
+                etag.cancel(true);
+            }
+            try (Response response = execute("DELETE", key, Collections.singletonMap("uploadId", uploadId), Collections.emptyMap(), null)) {
+                checkResponse(response, key);
+            } catch (IOException e) {
+                // The object store will expire the upload
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend spreading the objects in hash-prefix subdirectories across several mount points.
+ * An object is stored in root/ab/cd/key, where abcd is the beginning of the hash of its file ID,
+ * so the renditions of a file are stored next to it.
+ *
+ * @author bgamard
+ */
+public class ShardedStorageBackend extends FileSystemStorageBackend {
+    /**
+     * Storage root directories.
+     */
+    private final List<Path> rootList;
+
+    /**
+     * Constructor.
+     *
+     * @param rootList Storage root directories, adding a root moves the minimum of objects
+     */
+    public ShardedStorageBackend(List<Path> rootList) {
+        if (rootList.isEmpty()) {
+            throw new IllegalArgumentException("At least one storage root is required");
+        }
+        this.rootList = List.copyOf(rootList);
+    }
+
+    @Override
+    public Path resolve(String key) {
+        int separator = key.indexOf('_');
+        String fileId = separator == -1 ? key : key.substring(0, separator);
+        HashCode hash = Hashing.murmur3_128().hashString(fileId, StandardCharsets.UTF_8);
+        String prefix = hash.toString();
+        Path root = rootList.get(Hashing.consistentHash(hash, rootList.size()));
+        return root.resolve(prefix.substring(0, 2)).resolve(prefix.substring(2, 4)).resolve(key);
+    }
+
+    /**
+     * The objects can be hard linked only if all the roots are on the same file system.
+     */
+    @Override
+    public boolean isCopyShared() {
+        try {
+            for (Path root : rootList) {
+                if (!Files.getFileStore(root).equals(Files.getFileStore(rootList.get(0)))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Stream<String> list() {
+        return rootList.stream()
+                .filter(Files::isDirectory)
+                .flatMap(root -> {
+                    try {
+                        // Only the objects at the sharded depth, the root can hold other files
+                        return Files.find(root, 3, (path, attributes) -> attributes.isRegularFile() && !isTemporary(path)
+                                && root.relativize(path).getNameCount() == 3);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .map(path -> path.getFileName().toString());
+    }
+}
@@ -0,0 +1,113 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.stream.Stream;
+
+/**
+ * A storage backend for the encrypted files and their renditions.
+ * Stored objects are identified by a key: the file ID, followed by "_web" or "_thumb" for the renditions.
+ *
+ * @author bgamard
+ */
+public interface StorageBackend extends Closeable {
+    /**
+     * Returns true if an object is stored.
+     *
+     * @param key Key
+     * @return True if the object exists
+     * @throws IOException e
+     */
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Returns the size of a stored object.
+     *
+     * @param key Key
+     * @return Size (in bytes)
+     * @throws java.nio.file.NoSuchFileException If the object doesn't exist
+     * @throws IOException e
+     */
+    long size(String key) throws IOException;
+
+    /**
+     * Returns the last modification date of a stored object.
+     *
+     * @param key Key
+     * @return Last modification date (in milliseconds)
+     * @throws java.nio.file.NoSuchFileException If the object doesn't exist
+     * @throws IOException e
+     */
+    long getLastModified(String key) throws IOException;
+
+    /**
+     * Read a stored object from an offset.
+     *
+     * @param key Key
+     * @param offset Offset
+     * @return Input stream
+     * @throws java.nio.file.NoSuchFileException If the object doesn't exist
+     * @throws IOException e
+     */
+    InputStream newInputStream(String key, long offset) throws IOException;
+
+    /**
+     * Read a stored object.
+     *
+     * @param key Key
+     * @return Input stream
+     * @throws java.nio.file.NoSuchFileException If the object doesn't exist
+     * @throws IOException e
+     */
+    default InputStream newInputStream(String key) throws IOException {
+        return newInputStream(key, 0);
+    }
+
+    /**
+     * Write a stored object, replacing the existing one.
+     *
+     * @param key Key
+     * @return Output stream, the object is stored when it is closed
+     * @throws IOException e
+     */
+    OutputStream newOutputStream(String key) throws IOException;
+
+    /**
+     * Delete a stored object, if it exists.
+     *
+     * @param key Key
+     * @throws IOException e
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * Copy a stored object, sharing its content if the backend supports it.
+     *
+     * @param sourceKey Key of the existing object
+     * @param targetKey Key of the new object, replaced if it exists
+     * @throws IOException e
+     */
+    void copy(String sourceKey, String targetKey) throws IOException;
+
+    /**
+     * Returns true if a copy shares the content of the stored object instead of storing it again.
+     *
+     * @return True if the copies don't use more space
+     */
+    boolean isCopyShared();
+
+    /**
+     * List the keys of all stored objects.
+     *
+     * @return Keys, the stream must be closed
+     * @throws IOException e
+     */
+    Stream<String> list() throws IOException;
+
+    @Override
+    default void close() throws IOException {
+        // NOP
+    }
+}
@@ -0,0 +1,133 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Storage utilities.
+ * The backend is chosen with the DOCS_STORAGE_BACKEND environment variable:
+ * "local" (default) for the sharded layout of the storage directory, "flat" for its former layout,
+ * "sharded" for the directories listed in DOCS_STORAGE_PATHS, "s3" for an S3-compatible object store.
+ *
+ * @author bgamard
+ */
+public class StorageUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(StorageUtil.class);
+
+    /**
+     * Default size of the S3 parts (in bytes).
+     */
+    private static final long DEFAULT_S3_PART_SIZE = 8L * 1024L * 1024L;
+
+    /**
+     * Storage backend.
+     */
+    private static StorageBackend backend;
+
+    /**
+     * Returns the storage backend.
+     *
+     * @return Storage backend
+     */
+    public static synchronized StorageBackend getBackend() {
+        if (backend == null) {
+            backend = createBackend();
+            if (EnvironmentUtil.getEnvBoolean(Constants.STORAGE_DEDUP_ENV, false) && !backend.isCopyShared()) {
+                log.warn(Constants.STORAGE_DEDUP_ENV + " is ignored, this storage backend can't share the content of identical files");
+            }
+        }
+        return backend;
+    }
+
+    /**
+     * Replace the storage backend.
+     *
+     * @param backend Storage backend, or null to use the configured one
+     */
+    public static synchronized void setBackend(StorageBackend backend) {
+        StorageUtil.backend = backend;
+    }
+
+    /**
+     * Decrypt a stored object to a temporary file.
+     *
+     * @param key Key
+     * @param privateKey Private key, or null if the object is not encrypted
+     * @return Temporary decrypted file
+     * @throws Exception e
+     */
+    public static Path decryptFile(String key, String privateKey) throws Exception {
+        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
+        try (InputStream inputStream = getBackend().newInputStream(key)) {
+            InputStream decryptedStream = privateKey == null ? inputStream : EncryptionUtil.decryptInputStream(inputStream, privateKey);
+            Files.copy(decryptedStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return tmpFile;
+    }
+
+    /**
+     * Create the configured storage backend.
+     *
+     * @return Storage backend
+     */
+    private static StorageBackend createBackend() {
+        String type = Strings.nullToEmpty(System.getenv(Constants.STORAGE_BACKEND_ENV));
+        switch (type) {
+            case "sharded":
+                List<Path> rootList = Splitter.on(',').trimResults().omitEmptyStrings()
+                        .splitToList(Strings.nullToEmpty(System.getenv(Constants.STORAGE_PATHS_ENV)))
+                        .stream()
+                        .map(Paths::get)
+                        .collect(Collectors.toList());
+                if (rootList.isEmpty()) {
+                    throw new IllegalStateException(Constants.STORAGE_PATHS_ENV + " must list the storage directories");
+                }
+                log.info("Using the sharded storage on " + rootList);
+                return new ShardedStorageBackend(rootList);
+
+            case "s3":
+                String endpoint = System.getenv(Constants.STORAGE_S3_ENDPOINT_ENV);
+                String bucket = System.getenv(Constants.STORAGE_S3_BUCKET_ENV);
+                if (Strings.isNullOrEmpty(endpoint) || Strings.isNullOrEmpty(bucket)) {
+                    throw new IllegalStateException(Constants.STORAGE_S3_ENDPOINT_ENV + " and " + Constants.STORAGE_S3_BUCKET_ENV + " are required");
+                }
+                String region = System.getenv(Constants.STORAGE_S3_REGION_ENV);
+                log.info("Using the S3 storage on " + endpoint + ", bucket " + bucket);
+                return new S3StorageBackend(endpoint,
+                        Strings.isNullOrEmpty(region) ? "us-east-1" : region,
+                        bucket,
+                        System.getenv(Constants.STORAGE_S3_ACCESS_KEY_ENV),
+                        System.getenv(Constants.STORAGE_S3_SECRET_KEY_ENV),
+                        (int) EnvironmentUtil.getEnvLong(Constants.STORAGE_S3_PART_SIZE_ENV, DEFAULT_S3_PART_SIZE));
+
+            case "flat":
+                return new FlatStorageBackend(DirectoryUtil.getStorageDirectory());
+
+            case "":
+            case "local":
+                return new MigratingStorageBackend(DirectoryUtil.getStorageDirectory());
+
+            default:
+                throw new IllegalStateException("Unknown storage backend: " + type);
+        }
+    }
+}
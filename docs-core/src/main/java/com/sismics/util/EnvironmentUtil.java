@@ -94,6 +94,36 @@ public class EnvironmentUtil {
         return TEEDY_HOME;
     }
 
+    /**
+     * Returns the long value of an environment variable with a default value.
+     *
+     * @param name Name of the environment variable
+     * @param defaultValue Default value to return if the environment variable is undefined
+     * @return Long value of the environment variable
+     */
+    public static long getEnvLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * Returns the boolean value of an environment variable with a default value.
+     *
+     * @param name Name of the environment variable
+     * @param defaultValue Default value to return if the environment variable is undefined
+     * @return Boolean value of the environment variable
+     */
+    public static boolean getEnvBoolean(String name, boolean defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
     /**
      * Getter of webappContext.
      *
@@ -1,7 +1,11 @@
 package com.sismics.util;
 
+import com.google.common.collect.Range;
+
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -15,6 +19,11 @@ public class HttpUtil {
      */
     private static final SimpleDateFormat EXPIRES_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ENGLISH);
 
+    /**
+     * Maximum number of ranges in a Range header.
+     */
+    private static final int MAX_RANGE_COUNT = 16;
+
     /**
      * Build an Expires HTTP header.
      *
@@ -24,4 +33,61 @@ public class HttpUtil {
     public static String buildExpiresHeader(long futureTime) {
         return EXPIRES_FORMAT.format(new Date().getTime() + futureTime);
     }
+
+    /**
+     * Parse a Range HTTP header.
+     *
+     * @param header Range header value
+     * @param length Length of the content
+     * @return Satisfiable byte ranges (inclusive), empty if none is satisfiable, null if the header must be ignored
+     */
+    public static List<Range<Long>> parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGE_COUNT) {
+            return null;
+        }
+
+        List<Range<Long>> rangeList = new ArrayList<>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            try {
+                if (first.isEmpty()) {
+                    // Suffix range: the last bytes
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffixLength);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                    if (!last.isEmpty() && Long.parseLong(last) < start) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < 0) {
+                return null;
+            }
+            if (start < length) {
+                rangeList.add(Range.closed(start, end));
+            }
+        }
+        return rangeList;
+    }
 }
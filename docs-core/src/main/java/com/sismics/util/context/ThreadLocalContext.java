@@ -2,6 +2,8 @@ package com.sismics.util.context;
 
 import com.google.common.collect.Lists;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.JobUtil;
+import org.apache.commons.lang3.tuple.Pair;
 
 import jakarta.persistence.EntityManager;
 import java.util.Iterator;
@@ -24,9 +26,14 @@ public class ThreadLocalContext {
     private EntityManager entityManager;
 
     /**
-     * List of async events posted during this request.
+     * List of async events posted during this request, by job ID.
      */
-    private List<Object> asyncEventList = Lists.newArrayList();
+    private List<Pair<String, Object>> asyncEventList = Lists.newArrayList();
+
+    /**
+     * List of actions to run once the transaction of this request is committed.
+     */
+    private List<Runnable> afterCommitList = Lists.newArrayList();
 
     /**
      * Private constructor.
@@ -81,22 +88,68 @@ public class ThreadLocalContext {
 
     /**
      * Add an async event to the queue to be fired after the current request.
+     * The event is queued in the current transaction, so it is not lost if the server stops.
      *
      * @param asyncEvent Async event
      */
     public void addAsyncEvent(Object asyncEvent) {
-        asyncEventList.add(asyncEvent);
+        if (entityManager != null && entityManager.isOpen() && entityManager.getTransaction().isActive()) {
+            for (String jobId : JobUtil.createJobs(asyncEvent)) {
+                asyncEventList.add(Pair.of(jobId, asyncEvent));
+            }
+        } else {
+            asyncEventList.add(Pair.of(null, asyncEvent));
+        }
+    }
+
+    /**
+     * Run an action once the current transaction is committed, or now if there is no transaction.
+     * The action is dropped if the transaction is rolled back.
+     *
+     * @param action Action
+     */
+    public void addAfterCommit(Runnable action) {
+        if (entityManager != null && entityManager.isOpen() && entityManager.getTransaction().isActive()) {
+            afterCommitList.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Run the actions waiting for the commit of the transaction.
+     */
+    public void fireAfterCommit() {
+        Iterator<Runnable> iterator = afterCommitList.iterator();
+        while (iterator.hasNext()) {
+            Runnable action = iterator.next();
+            iterator.remove();
+            action.run();
+        }
+    }
+
+    /**
+     * Drop the async events queued in the transaction of this request, once it is rolled back.
+     * Their jobs don't exist, and their temporary files must not be kept.
+     */
+    public void dropQueuedAsyncEvents() {
+        asyncEventList.removeIf(asyncEvent -> asyncEvent.getKey() != null);
     }
 
     /**
      * Fire all pending async events.
      */
     public void fireAllAsyncEvents() {
-        Iterator<Object> iterator = asyncEventList.iterator();
+        Iterator<Pair<String, Object>> iterator = asyncEventList.iterator();
         while (iterator.hasNext()) {
-            Object asyncEvent = iterator.next();
+            Pair<String, Object> asyncEvent = iterator.next();
             iterator.remove();
-            AppContext.getInstance().getAsyncEventBus().post(asyncEvent);
+            if (asyncEvent.getKey() == null) {
+                // Not queued in a transaction
+                AppContext.getInstance().getAsyncEventBus().post(asyncEvent.getValue());
+            } else {
+                AppContext.getInstance().getJobService().submit(asyncEvent.getKey(), asyncEvent.getValue());
+            }
         }
     }
 }
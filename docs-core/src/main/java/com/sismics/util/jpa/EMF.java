@@ -3,6 +3,8 @@ package com.sismics.util.jpa;
 import com.google.common.base.Strings;
 import com.sismics.docs.core.util.DirectoryUtil;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.internal.util.config.ConfigurationHelper;
 import org.hibernate.service.ServiceRegistry;
 import org.slf4j.Logger;
@@ -53,6 +55,9 @@ public final class EMF {
             openHelper.open();
             
             emfInstance = Persistence.createEntityManagerFactory("transactions-optional", getEntityManagerProperties());
+
+            // Close the connections used by the database update
+            StandardServiceRegistryBuilder.destroy(reg);
             
         } catch (Throwable t) {
             log.error("Error creating EMF", t);
@@ -83,6 +88,7 @@ public final class EMF {
         if(databasePoolSize == null) {
             databasePoolSize = "10";
         }
+        String databasePool = System.getenv("DATABASE_POOL");
 
         log.info("Configuring EntityManager from environment parameters");
         Properties props = new Properties();
@@ -109,8 +115,30 @@ public final class EMF {
         props.put("hibernate.connection.initial_pool_size", "1");
         props.put("hibernate.connection.pool_size", databasePoolSize);
         props.put("hibernate.connection.pool_validation_interval", "5");
+        if ("hikari".equals(databasePool)) {
+            // HikariCP pool, the connections are recycled and the leaks are logged
+            props.put("hibernate.connection.provider_class", HikariConnectionProvider.class.getName());
+            props.put("hibernate.hikari.maxLifetime", getEnv("DATABASE_POOL_MAX_LIFETIME", "1800000"));
+            props.put("hibernate.hikari.leakDetectionThreshold", getEnv("DATABASE_POOL_LEAK_DETECTION", "60000"));
+            if (!Strings.isNullOrEmpty(databaseUrl)) {
+                // Prepared statements cached by the PostgreSQL driver on each connection
+                props.put("hibernate.hikari.dataSource.preparedStatementCacheQueries", getEnv("DATABASE_POOL_STATEMENT_CACHE_SIZE", "256"));
+            }
+        }
         return props;
     }
+
+    /**
+     * Returns the value of an environment variable.
+     *
+     * @param name Name
+     * @param defaultValue Value if the variable is not set
+     * @return Value
+     */
+    private static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return Strings.isNullOrEmpty(value) ? defaultValue : value;
+    }
     
     /**
      * Private constructor.
@@ -127,6 +155,20 @@ public final class EMF {
         return emfInstance;
     }
 
+    /**
+     * Returns the statistics of the connection pool.
+     *
+     * @return Statistics, null if the pool doesn't record them
+     */
+    public static Map<String, Long> getPoolStatistics() {
+        ConnectionProvider connectionProvider = emfInstance.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(ConnectionProvider.class);
+        if (connectionProvider instanceof HikariConnectionProvider) {
+            return ((HikariConnectionProvider) connectionProvider).getStatistics();
+        }
+        return null;
+    }
+
     public static boolean isDriverH2() {
         String driver = getDriver();
         return driver.contains("h2");
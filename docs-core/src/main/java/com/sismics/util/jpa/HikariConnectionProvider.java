@@ -0,0 +1,154 @@
+package com.sismics.util.jpa;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.util.PropertyElf;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection provider backed by a HikariCP pool.
+ * The pool is configured from the hibernate.connection.* properties,
+ * then from the hibernate.hikari.* properties which are given to HikariCP as is (e.g. hibernate.hikari.maxLifetime).
+ *
+ * @author bgamard
+ */
+public class HikariConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+    /**
+     * Prefix of the HikariCP properties.
+     */
+    private static final String HIKARI_PREFIX = "hibernate.hikari.";
+
+    /**
+     * Data source.
+     */
+    private HikariDataSource dataSource;
+
+    /**
+     * Number of connection requests, including the ones which timed out.
+     */
+    private final AtomicLong acquireCount = new AtomicLong();
+
+    /**
+     * Total time spent waiting for the connections (in nanoseconds).
+     */
+    private final AtomicLong acquireTime = new AtomicLong();
+
+    /**
+     * Longest time spent waiting for a connection (in nanoseconds).
+     */
+    private final AtomicLong acquireTimeMax = new AtomicLong();
+
+    /**
+     * Number of connections not acquired before the timeout.
+     */
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    @Override
+    public void configure(Map<String, Object> configurationValues) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("docs");
+        config.setDriverClassName((String) configurationValues.get(AvailableSettings.DRIVER));
+        config.setJdbcUrl((String) configurationValues.get(AvailableSettings.URL));
+        config.setUsername((String) configurationValues.get(AvailableSettings.USER));
+        config.setPassword((String) configurationValues.get(AvailableSettings.PASS));
+        config.setAutoCommit(ConfigurationHelper.getBoolean(AvailableSettings.AUTOCOMMIT, configurationValues, false));
+        config.setMaximumPoolSize(ConfigurationHelper.getInt(AvailableSettings.POOL_SIZE, configurationValues, 10));
+
+        Properties hikariProperties = new Properties();
+        for (Map.Entry<String, Object> entry : configurationValues.entrySet()) {
+            if (entry.getKey().startsWith(HIKARI_PREFIX) && entry.getValue() != null) {
+                hikariProperties.put(entry.getKey().substring(HIKARI_PREFIX.length()), entry.getValue().toString());
+            }
+        }
+        PropertyElf.setTargetFromProperties(config, hikariProperties);
+
+        config.setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireCount.incrementAndGet();
+                acquireTime.addAndGet(elapsedAcquiredNanos);
+                acquireTimeMax.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeoutCount.incrementAndGet();
+            }
+        });
+        dataSource = new HikariDataSource(config);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class<?> unwrapType) {
+        return unwrapType.isAssignableFrom(getClass()) || unwrapType.isAssignableFrom(HikariDataSource.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isAssignableFrom(getClass())) {
+            return (T) this;
+        }
+        if (unwrapType.isAssignableFrom(HikariDataSource.class)) {
+            return (T) dataSource;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Returns the statistics of the pool.
+     *
+     * @return Statistics
+     */
+    public Map<String, Long> getStatistics() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        long count = acquireCount.get();
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("active", (long) pool.getActiveConnections());
+        statistics.put("idle", (long) pool.getIdleConnections());
+        statistics.put("total", (long) pool.getTotalConnections());
+        statistics.put("max", (long) dataSource.getMaximumPoolSize());
+        statistics.put("waiting", (long) pool.getThreadsAwaitingConnection());
+        statistics.put("acquire_count", count);
+        statistics.put("acquire_time", count == 0 ? 0 : acquireTime.get() / count);
+        statistics.put("acquire_time_max", acquireTimeMax.get());
+        statistics.put("timeout_count", timeoutCount.get());
+        return statistics;
+    }
+}
@@ -2,8 +2,11 @@ package com.sismics.util.mime;
 
 import java.io.IOException;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Utility to check MIME types.
@@ -33,6 +36,82 @@ public class MimeTypeUtil {
         return mimeType;
     }
     
+    /**
+     * Try to guess the MIME type of a file being read, from its name then its first bytes.
+     *
+     * @param header First bytes of the file
+     * @param name File name
+     * @return MIME type
+     * @throws IOException e
+     */
+    public static String guessMimeType(byte[] header, String name) throws IOException {
+        String mimeType = null;
+        if (name != null) {
+            try {
+                mimeType = Files.probeContentType(Paths.get(name));
+            } catch (InvalidPathException e) {
+                // Not a valid file name, try the next detector
+            }
+            if (mimeType == null) {
+                mimeType = URLConnection.getFileNameMap().getContentTypeFor(name);
+            }
+        }
+
+        if (mimeType == null) {
+            mimeType = guessMimeTypeFromHeader(header);
+        }
+
+        if (mimeType == null) {
+            return MimeType.DEFAULT;
+        }
+
+        return mimeType;
+    }
+
+    /**
+     * Guess a MIME type from the magic number of a file.
+     *
+     * @param header First bytes of the file
+     * @return MIME type or null if unknown
+     */
+    private static String guessMimeTypeFromHeader(byte[] header) {
+        if (startsWith(header, "%PDF".getBytes(StandardCharsets.US_ASCII))) {
+            return MimeType.APPLICATION_PDF;
+        }
+        if (startsWith(header, new byte[] { (byte) 0x89, 'P', 'N', 'G' })) {
+            return MimeType.IMAGE_PNG;
+        }
+        if (startsWith(header, new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF })) {
+            return MimeType.IMAGE_JPEG;
+        }
+        if (startsWith(header, "GIF8".getBytes(StandardCharsets.US_ASCII))) {
+            return MimeType.IMAGE_GIF;
+        }
+        if (startsWith(header, new byte[] { 'P', 'K', 3, 4 })) {
+            return MimeType.APPLICATION_ZIP;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the header starts with a prefix.
+     *
+     * @param header Header
+     * @param prefix Prefix
+     * @return True if the header starts with the prefix
+     */
+    private static boolean startsWith(byte[] header, byte[] prefix) {
+        if (header.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (header[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Get a file extension linked to a MIME type.
      * 
@@ -0,0 +1,8 @@
+-- DBUPDATE-033-0.SQL
+
+-- Durable queue of asynchronous jobs
+create cached table T_JOB ( JOB_ID_C varchar(36) not null, JOB_TYPE_C varchar(100) not null, JOB_PAYLOAD_C longvarchar not null, JOB_STATUS_C varchar(10) not null, JOB_ATTEMPT_N int not null, JOB_ERROR_C varchar(4000), JOB_LEASEOWNER_C varchar(36), JOB_LEASEDATE_D datetime, JOB_RUNDATE_D datetime not null, JOB_CREATEDATE_D datetime not null, primary key (JOB_ID_C) );
+create index IDX_JOB_STATUS_C on T_JOB (JOB_STATUS_C, JOB_RUNDATE_D);
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '33' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,2 @@
+alter table T_FILE add column FIL_CHECKSUM_C varchar(64);
+update T_CONFIG set CFG_VALUE_C = '34' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,2 @@
+create index IDX_FIL_CHECKSUM_C on T_FILE (FIL_IDUSER_C, FIL_CHECKSUM_C);
+update T_CONFIG set CFG_VALUE_C = '35' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,2 @@
+alter table T_FILE add column FIL_PROCESSINGSIGNATURE_C varchar(100);
+update T_CONFIG set CFG_VALUE_C = '36' where CFG_ID_C = 'DB_VERSION';
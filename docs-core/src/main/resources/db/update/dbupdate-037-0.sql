@@ -0,0 +1,5 @@
+create cached table T_FILE_CONTENT ( FCO_IDFILE_C varchar(36) not null, FCO_CONTENT_C longvarchar not null, primary key (FCO_IDFILE_C) );
+alter table T_FILE_CONTENT add constraint FK_FCO_IDFILE_C foreign key (FCO_IDFILE_C) references T_FILE (FIL_ID_C) on delete restrict on update restrict;
+insert into T_FILE_CONTENT (FCO_IDFILE_C, FCO_CONTENT_C) select FIL_ID_C, FIL_CONTENT_C from T_FILE where FIL_CONTENT_C is not null;
+alter table T_FILE drop column FIL_CONTENT_C;
+update T_CONFIG set CFG_VALUE_C = '37' where CFG_ID_C = 'DB_VERSION';
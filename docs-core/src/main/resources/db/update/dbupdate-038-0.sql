@@ -0,0 +1,4 @@
+create cached table T_EFFECTIVE_ACL ( EFA_IDSOURCE_C varchar(36) not null, EFA_PERM_C varchar(30) not null, EFA_TARGETID_C varchar(36) not null, primary key (EFA_IDSOURCE_C, EFA_PERM_C, EFA_TARGETID_C) );
+create index IDX_EFA_TARGETID_C on T_EFFECTIVE_ACL (EFA_TARGETID_C);
+insert into T_EFFECTIVE_ACL (EFA_IDSOURCE_C, EFA_PERM_C, EFA_TARGETID_C) select a.ACL_SOURCEID_C, a.ACL_PERM_C, a.ACL_TARGETID_C from T_ACL a where a.ACL_DELETEDATE_D is null union select d.DOC_ID_C, a.ACL_PERM_C, a.ACL_TARGETID_C from T_DOCUMENT d join T_DOCUMENT_TAG dt on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null join T_ACL a on a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and a.ACL_DELETEDATE_D is null where d.DOC_DELETEDATE_D is null;
+update T_CONFIG set CFG_VALUE_C = '38' where CFG_ID_C = 'DB_VERSION';
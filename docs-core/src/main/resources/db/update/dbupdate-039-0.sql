@@ -0,0 +1,2 @@
+alter table T_JOB add column JOB_LISTENER_C varchar(100);
+update T_CONFIG set CFG_VALUE_C = '39' where CFG_ID_C = 'DB_VERSION';
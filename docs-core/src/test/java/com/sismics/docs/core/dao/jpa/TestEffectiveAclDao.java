@@ -0,0 +1,173 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.EffectiveAclDao;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.DocumentUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import com.sismics.util.jpa.EMF;
+import jakarta.persistence.EntityManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the effective ACLs.
+ *
+ * @author bgamard
+ */
+public class TestEffectiveAclDao extends BaseTransactionalTest {
+    @Test
+    public void testEffectiveAcl() throws Exception {
+        User owner = createUser("effective_owner");
+        User reader = createUser("effective_reader");
+        List<String> readerTargetIdList = Lists.newArrayList(reader.getId());
+        AclDao aclDao = new AclDao();
+        TagDao tagDao = new TagDao();
+        EffectiveAclDao effectiveAclDao = new EffectiveAclDao();
+
+        // The owner of a document has access
+        Document document = new Document();
+        document.setUserId(owner.getId());
+        document.setTitle("Effective ACL");
+        document.setLanguage("eng");
+        document.setCreateDate(new Date());
+        DocumentUtil.createDocument(document, owner.getId());
+        Assert.assertTrue(aclDao.checkPermission(document.getId(), PermType.WRITE, Lists.newArrayList(owner.getId())));
+        Assert.assertFalse(aclDao.checkPermission(document.getId(), PermType.READ, readerTargetIdList));
+
+        // The document inherits the ACLs of its tags
+        Tag tag = new Tag();
+        tag.setName("EffectiveTag");
+        tag.setColor("#ff0000");
+        tag.setUserId(owner.getId());
+        tagDao.create(tag, owner.getId());
+        tagDao.updateTagList(document.getId(), Sets.newHashSet(tag.getId()));
+        Acl acl = new Acl();
+        acl.setPerm(PermType.READ);
+        acl.setType(AclType.USER);
+        acl.setSourceId(tag.getId());
+        acl.setTargetId(reader.getId());
+        aclDao.create(acl, owner.getId());
+        Assert.assertTrue(aclDao.checkPermission(tag.getId(), PermType.READ, readerTargetIdList));
+        Assert.assertTrue(aclDao.checkPermission(document.getId(), PermType.READ, readerTargetIdList));
+        Assert.assertFalse(aclDao.checkPermission(document.getId(), PermType.WRITE, readerTargetIdList));
+
+        // Removing the tag link removes the inherited ACLs
+        tagDao.updateTagList(document.getId(), Collections.emptySet());
+        Assert.assertFalse(aclDao.checkPermission(document.getId(), PermType.READ, readerTargetIdList));
+        tagDao.updateTagList(document.getId(), Sets.newHashSet(tag.getId()));
+        Assert.assertTrue(aclDao.checkPermission(document.getId(), PermType.READ, readerTargetIdList));
+
+        // Deleting the tag ACL removes the inherited ACLs
+        aclDao.delete(tag.getId(), PermType.READ, reader.getId(), owner.getId(), AclType.USER);
+        Assert.assertFalse(aclDao.checkPermission(document.getId(), PermType.READ, readerTargetIdList));
+        Assert.assertEquals(0L, (long) effectiveAclDao.check().get("missing"));
+        Assert.assertEquals(0L, (long) effectiveAclDao.check().get("stale"));
+
+        // The checker finds the inconsistencies, the rebuild repairs them
+        ThreadLocalContext.get().getEntityManager()
+                .createNativeQuery("delete from T_EFFECTIVE_ACL where EFA_IDSOURCE_C = :id")
+                .setParameter("id", document.getId())
+                .executeUpdate();
+        ThreadLocalContext.get().getEntityManager()
+                .createNativeQuery("insert into T_EFFECTIVE_ACL (EFA_IDSOURCE_C, EFA_PERM_C, EFA_TARGETID_C) values (:id, 'READ', :targetId)")
+                .setParameter("id", tag.getId())
+                .setParameter("targetId", reader.getId())
+                .executeUpdate();
+        Assert.assertEquals(2L, (long) effectiveAclDao.check().get("missing"));
+        Assert.assertEquals(1L, (long) effectiveAclDao.check().get("stale"));
+        String lastSourceId = null;
+        do {
+            lastSourceId = effectiveAclDao.rebuild(lastSourceId, 2);
+        } while (lastSourceId != null);
+        Assert.assertEquals(0L, (long) effectiveAclDao.check().get("missing"));
+        Assert.assertEquals(0L, (long) effectiveAclDao.check().get("stale"));
+        Assert.assertTrue(aclDao.checkPermission(document.getId(), PermType.WRITE, Lists.newArrayList(owner.getId())));
+
+        // Deleting the document removes its ACLs
+        new DocumentDao().delete(document.getId(), owner.getId());
+        Assert.assertFalse(aclDao.checkPermission(document.getId(), PermType.READ, Lists.newArrayList(owner.getId())));
+    }
+
+    @Test
+    public void testConcurrentRefresh() throws Exception {
+        // The document is committed, the refreshes run in their own transactions
+        User owner = createUser("effective_concurrent");
+        Document document = new Document();
+        document.setUserId(owner.getId());
+        document.setTitle("Concurrent ACL");
+        document.setLanguage("eng");
+        document.setCreateDate(new Date());
+        DocumentUtil.createDocument(document, owner.getId());
+        TransactionUtil.commit();
+
+        // Refresh the same source concurrently
+        int threadCount = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<?>> futureList = new ArrayList<>();
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                futureList.add(executorService.submit(() -> {
+                    startLatch.await();
+                    for (int j = 0; j < 50; j++) {
+                        refreshSource(document.getId());
+                    }
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        EffectiveAclDao effectiveAclDao = new EffectiveAclDao();
+        Assert.assertEquals(0L, (long) effectiveAclDao.check().get("missing"));
+        Assert.assertEquals(0L, (long) effectiveAclDao.check().get("stale"));
+        Assert.assertTrue(new AclDao().checkPermission(document.getId(), PermType.WRITE, Lists.newArrayList(owner.getId())));
+    }
+
+    /**
+     * Refresh the effective ACLs of a source in a new transaction.
+     *
+     * @param sourceId Source ID
+     */
+    private void refreshSource(String sourceId) {
+        EntityManager em = EMF.get().createEntityManager();
+        ThreadLocalContext.get().setEntityManager(em);
+        try {
+            em.getTransaction().begin();
+            new EffectiveAclDao().refreshSource(sourceId);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+            ThreadLocalContext.cleanup();
+        }
+    }
+}
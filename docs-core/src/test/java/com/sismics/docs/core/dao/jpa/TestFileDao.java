@@ -0,0 +1,49 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests the storage of the files content.
+ *
+ * @author bgamard
+ */
+public class TestFileDao extends BaseTransactionalTest {
+    @Test
+    public void testFileContent() throws Exception {
+        User user = createUser("testFileContent");
+        File file = createFile(user, 10);
+        FileDao fileDao = new FileDao();
+        Assert.assertNull(fileDao.getContent(file.getId()));
+        Assert.assertTrue(fileDao.findAllIds().contains(file.getId()));
+
+        // Store the content apart from the file
+        fileDao.updateContent(file.getId(), "first content");
+        fileDao.updateContent(file.getId(), "OCR content");
+        Assert.assertEquals("OCR content", fileDao.getContent(file.getId()));
+
+        // The content is not loaded with the file
+        ThreadLocalContext.get().getEntityManager().flush();
+        ThreadLocalContext.get().getEntityManager().clear();
+        File fileDb = fileDao.getActiveById(file.getId());
+        Assert.assertNull(fileDb.getContent());
+
+        // Load the content of a list of files
+        List<File> fileList = fileDao.findAllAfter(null, 100);
+        fileDao.loadContents(fileList);
+        for (File fileItem : fileList) {
+            Assert.assertEquals(fileItem.getId().equals(file.getId()) ? "OCR content" : null, fileItem.getContent());
+        }
+
+        // Remove the content
+        fileDao.updateContent(file.getId(), null);
+        Assert.assertNull(fileDao.getContent(file.getId()));
+    }
+}
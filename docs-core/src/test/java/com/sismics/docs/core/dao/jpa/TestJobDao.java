@@ -0,0 +1,101 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.JobStatus;
+import com.sismics.docs.core.dao.JobDao;
+import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
+import com.sismics.docs.core.model.jpa.Job;
+import com.sismics.docs.core.util.JobUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests the asynchronous jobs queue.
+ *
+ * @author bgamard
+ */
+public class TestJobDao extends BaseTransactionalTest {
+    @Test
+    public void testJobDao() throws Exception {
+        JobDao jobDao = new JobDao();
+        long pendingCount = jobDao.countByStatus().get(JobStatus.PENDING);
+        long failedCount = jobDao.countByStatus().get(JobStatus.FAILED);
+
+        // Queue an event
+        DocumentUpdatedAsyncEvent event = new DocumentUpdatedAsyncEvent();
+        event.setUserId("admin");
+        event.setDocumentId("document1");
+        String jobId = JobUtil.createJob(event, "DocumentUpdatedAsyncListener");
+        Assert.assertEquals(pendingCount + 1, (long) jobDao.countByStatus().get(JobStatus.PENDING));
+        Assert.assertTrue(jobDao.findRunnableTypes().contains("DocumentUpdatedAsyncEvent"));
+
+        // Read it back
+        Job job = jobDao.getById(jobId);
+        DocumentUpdatedAsyncEvent readEvent = (DocumentUpdatedAsyncEvent) JobUtil.readEvent(job);
+        Assert.assertEquals("admin", readEvent.getUserId());
+        Assert.assertEquals("document1", readEvent.getDocumentId());
+        Assert.assertEquals("DocumentUpdatedAsyncListener", job.getListener());
+
+        // Only the events can be read back
+        Job otherJob = new Job().setPayload(Base64.getEncoder().encodeToString(serialize(new ArrayList<>(List.of("document1")))));
+        try {
+            JobUtil.readEvent(otherJob);
+            Assert.fail();
+        } catch (InvalidClassException e) {
+            // Rejected by the filter
+        }
+
+        // Only one worker can claim the job
+        Date leaseDate = new Date(System.currentTimeMillis() + 60000);
+        Assert.assertTrue(jobDao.claim(jobId, "worker1", leaseDate));
+        Assert.assertFalse(jobDao.claim(jobId, "worker2", leaseDate));
+        Assert.assertEquals(JobStatus.RUNNING, jobDao.getById(jobId).getStatus());
+
+        // An expired lease can be claimed by another worker
+        jobDao.renewLeases("worker1", new Date(System.currentTimeMillis() - 1000));
+        Assert.assertTrue(jobDao.claim(jobId, "worker2", leaseDate));
+        Assert.assertEquals("worker2", jobDao.getById(jobId).getLeaseOwner());
+
+        // A failed job is retried later
+        jobDao.fail(jobId, "error", new Date(System.currentTimeMillis() + 60000));
+        job = jobDao.getById(jobId);
+        Assert.assertEquals(JobStatus.PENDING, job.getStatus());
+        Assert.assertEquals(1, job.getAttempt());
+        Assert.assertEquals("error", job.getError());
+        Assert.assertFalse(jobDao.claim(jobId, "worker1", leaseDate));
+
+        // Give up
+        jobDao.fail(jobId, "error", null);
+        Assert.assertEquals(failedCount + 1, (long) jobDao.countByStatus().get(JobStatus.FAILED));
+        Assert.assertFalse(jobDao.claim(jobId, "worker1", leaseDate));
+
+        // Purge the failed jobs
+        Assert.assertEquals(0, jobDao.deleteFailed(new Date(System.currentTimeMillis() - 60000)));
+        Assert.assertTrue(jobDao.deleteFailed(new Date(System.currentTimeMillis() + 60000)) >= 1);
+        Assert.assertNull(jobDao.getById(jobId));
+    }
+
+    /**
+     * Serialize an object.
+     *
+     * @param object Object
+     * @return Serialized object
+     * @throws IOException e
+     */
+    private byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.collect.Lists;
+import com.sismics.BaseTest;
+import com.sismics.docs.core.constant.JobStatus;
+import com.sismics.docs.core.dao.JobDao;
+import com.sismics.docs.core.event.FileDeletedAsyncEvent;
+import com.sismics.docs.core.listener.async.FileDeletedAsyncListener;
+import com.sismics.docs.core.listener.async.WebhookAsyncListener;
+import com.sismics.docs.core.model.jpa.Job;
+import com.sismics.docs.core.util.JobUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the asynchronous jobs service.
+ *
+ * @author bgamard
+ */
+public class TestJobService extends BaseTest {
+    @Test
+    public void testRetry() {
+        JobService jobService = new JobService(Lists.newArrayList(new FileDeletedAsyncListener(), new WebhookAsyncListener()), 3, 0L);
+
+        // A file deleted event without file size makes the listener fail inside its transaction
+        FileDeletedAsyncEvent event = new FileDeletedAsyncEvent();
+        event.setUserId("admin");
+        event.setFileId(UUID.randomUUID().toString());
+        List<String> listenerNameList = jobService.getListenerNames(FileDeletedAsyncEvent.class);
+        Assert.assertEquals(Lists.newArrayList("FileDeletedAsyncListener", "WebhookAsyncListener"), listenerNameList);
+
+        // One job for each listener
+        List<String> jobIdList = new ArrayList<>();
+        TransactionUtil.handle(() -> {
+            for (String listenerName : listenerNameList) {
+                jobIdList.add(JobUtil.createJob(event, listenerName));
+            }
+        });
+
+        // The webhook job is done, the file deleted job is retried alone
+        jobService.runPending();
+        Assert.assertEquals(JobStatus.PENDING, getJob(jobIdList.get(0)).getStatus());
+        Assert.assertEquals(1, getJob(jobIdList.get(0)).getAttempt());
+        Assert.assertTrue(getJob(jobIdList.get(0)).getError().contains("NullPointerException"));
+        Assert.assertNull(getJob(jobIdList.get(1)));
+
+        jobService.runPending();
+        Assert.assertEquals(JobStatus.PENDING, getJob(jobIdList.get(0)).getStatus());
+        Assert.assertEquals(2, getJob(jobIdList.get(0)).getAttempt());
+
+        // Give up after the last attempt
+        jobService.runPending();
+        Job job = getJob(jobIdList.get(0));
+        Assert.assertEquals(JobStatus.FAILED, job.getStatus());
+        Assert.assertEquals(3, job.getAttempt());
+
+        // A failed job is not run again
+        jobService.runPending();
+        Assert.assertEquals(3, getJob(jobIdList.get(0)).getAttempt());
+
+        TransactionUtil.handle(() -> new JobDao().delete(jobIdList.get(0)));
+    }
+
+    /**
+     * Returns a job in a new transaction.
+     *
+     * @param jobId Job ID
+     * @return Job
+     */
+    private Job getJob(String jobId) {
+        AtomicReference<Job> job = new AtomicReference<>();
+        TransactionUtil.handle(() -> job.set(new JobDao().getById(jobId)));
+        return job.get();
+    }
+}
@@ -8,7 +8,9 @@ import org.junit.Test;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Test of the encryption utilities.
@@ -48,4 +50,33 @@ public class TestEncryptUtil extends BaseTest {
         
         Assert.assertEquals(encryptedData.length, assertData.length);
     }
+
+    @Test
+    public void secretKeyCacheTest() throws Exception {
+        // The key is derived once, then read from the cache
+        EncryptionUtil.getEncryptionCipher("OnceUponATimeInTheCache");
+        long hitCount = EncryptionUtil.getSecretKeyCacheStats().hitCount();
+        Cipher cipher = EncryptionUtil.getEncryptionCipher("OnceUponATimeInTheCache");
+        Assert.assertEquals(hitCount + 1, EncryptionUtil.getSecretKeyCacheStats().hitCount());
+
+        // A cached key still encrypts the same way
+        InputStream inputStream = new CipherInputStream(getSystemResourceAsStream(FILE_PDF), cipher);
+        byte[] encryptedData = ByteStreams.toByteArray(inputStream);
+        inputStream = EncryptionUtil.decryptInputStream(new ByteArrayInputStream(encryptedData), "OnceUponATimeInTheCache");
+        Assert.assertArrayEquals(ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF)), ByteStreams.toByteArray(inputStream));
+    }
+
+    @Test
+    public void decryptStreamOffsetTest() throws Exception {
+        byte[] encryptedData = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF_ENCRYPTED));
+        byte[] assertData = ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(
+                new ByteArrayInputStream(encryptedData), "OnceUponATime"));
+
+        // Decrypt from the middle of blocks and from block boundaries
+        for (int offset : new int[] { 0, 1, 15, 16, 17, 4095, 4096, encryptedData.length - 1 }) {
+            InputStream inputStream = EncryptionUtil.decryptInputStream(new ByteArrayInputStream(encryptedData,
+                    offset, encryptedData.length - offset), "OnceUponATime", offset);
+            Assert.assertArrayEquals(Arrays.copyOfRange(assertData, offset, assertData.length), ByteStreams.toByteArray(inputStream));
+        }
+    }
 }
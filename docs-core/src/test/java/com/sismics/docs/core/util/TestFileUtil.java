@@ -2,9 +2,10 @@ package com.sismics.docs.core.util;
 
 import com.google.common.collect.Lists;
 import com.google.common.io.Resources;
-import com.sismics.BaseTest;
+import com.sismics.docs.BaseTransactionalTest;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.format.*;
 import com.sismics.util.mime.MimeType;
 import com.sismics.util.mime.MimeTypeUtil;
@@ -12,19 +13,22 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.Date;
+import java.util.stream.Stream;
 
 /**
  * Test of the file utilities.
  * 
  * @author bgamard
  */
-public class TestFileUtil extends BaseTest {
+public class TestFileUtil extends BaseTransactionalTest {
     @Test
     public void extractContentOpenDocumentTextTest() throws Exception {
         Path path = Paths.get(getResource(FILE_ODT).toURI());
@@ -140,4 +144,50 @@ public class TestFileUtil extends BaseTest {
             Assert.assertTrue(outputStream.toByteArray().length > 0);
         }
     }
+
+    @Test
+    public void createFileErrorTest() throws Exception {
+        User user = createUser("create_file_error");
+        long pdfFileCount = countTemporaryFiles(FILE_PDF);
+        long pngFileCount = countTemporaryFiles(FILE_PNG);
+
+        // The quota is reached while streaming the file, its unencrypted copy is deleted
+        try (InputStream inputStream = getSystemResourceAsStream(FILE_PDF)) {
+            FileUtil.createFile(FILE_PDF, null, inputStream, null, user.getId(), null);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("QuotaReached", e.getMessage());
+        }
+        Assert.assertEquals(pdfFileCount, countTemporaryFiles(FILE_PDF));
+
+        // The stream is broken
+        InputStream brokenStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        try (InputStream inputStream = new SequenceInputStream(getSystemResourceAsStream(FILE_PNG), brokenStream)) {
+            FileUtil.createFile(FILE_PNG, null, inputStream, null, user.getId(), null);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("StreamError", e.getMessage());
+        }
+        Assert.assertEquals(pngFileCount, countTemporaryFiles(FILE_PNG));
+    }
+
+    /**
+     * Count the temporary copies of a file.
+     *
+     * @param name File name
+     * @return Number of temporary files
+     * @throws IOException e
+     */
+    private long countTemporaryFiles(String name) throws IOException {
+        try (Stream<Path> stream = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return stream.map(path -> path.getFileName().toString())
+                    .filter(fileName -> fileName.startsWith("sismics_docs") && fileName.endsWith(name))
+                    .count();
+        }
+    }
 }
@@ -0,0 +1,35 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+
+/**
+ * Test of the cache of authenticated principals.
+ *
+ * @author bgamard
+ */
+public class TestPrincipalCache extends BaseTransactionalTest {
+    @Test
+    public void testInvalidateAfterCommit() throws Exception {
+        User user = createUser("principal_cache");
+        PrincipalCache.put("token1", new PrincipalCache.CachedPrincipal(user, Set.of(), Set.of(), Long.MAX_VALUE));
+        PrincipalCache.put("token2", new PrincipalCache.CachedPrincipal(user, Set.of(), Set.of(), Long.MAX_VALUE));
+
+        // The principals are kept until the transaction is committed
+        ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidate("token1"));
+        Assert.assertNotNull(PrincipalCache.get("token1"));
+        TransactionUtil.commit();
+        Assert.assertNull(PrincipalCache.get("token1"));
+        Assert.assertNotNull(PrincipalCache.get("token2"));
+
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
+        Assert.assertNotNull(PrincipalCache.get("token2"));
+        TransactionUtil.commit();
+        Assert.assertNull(PrincipalCache.get("token2"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.io.ByteStreams;
+import com.sismics.BaseTest;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Test of the decrypted renditions cache.
+ *
+ * @author bgamard
+ */
+public class TestRenditionCache extends BaseTest {
+    @Test
+    public void cacheTest() throws Exception {
+        StorageBackend backend = StorageUtil.getBackend();
+        try (OutputStream outputStream = backend.newOutputStream("rendition_thumb")) {
+            ByteStreams.copy(getSystemResourceAsStream(FILE_PDF_ENCRYPTED), outputStream);
+        }
+        byte[] assertData = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF));
+
+        try {
+            // The first request decrypts the rendition
+            long missCount = RenditionCache.getStats().missCount();
+            ByteBuffer data = RenditionCache.get("rendition", "thumb", "1", "OnceUponATime");
+            Assert.assertEquals(missCount + 1, RenditionCache.getStats().missCount());
+            Assert.assertEquals(assertData.length, data.remaining());
+            Assert.assertTrue(RenditionCache.getMemoryUsage() >= assertData.length);
+
+            // The second request is served from memory
+            long hitCount = RenditionCache.getStats().hitCount();
+            data = RenditionCache.get("rendition", "thumb", "1", "OnceUponATime");
+            Assert.assertEquals(hitCount + 1, RenditionCache.getStats().hitCount());
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            Assert.assertArrayEquals(assertData, bytes);
+
+            // A new version of the rendition is decrypted again
+            missCount = RenditionCache.getStats().missCount();
+            RenditionCache.get("rendition", "thumb", "2", "OnceUponATime");
+            Assert.assertEquals(missCount + 1, RenditionCache.getStats().missCount());
+
+            // An invalidated rendition is decrypted again, all its versions are removed
+            long memoryUsage = RenditionCache.getMemoryUsage();
+            RenditionCache.invalidate("rendition");
+            Assert.assertEquals(memoryUsage - 2 * assertData.length, RenditionCache.getMemoryUsage());
+            missCount = RenditionCache.getStats().missCount();
+            RenditionCache.get("rendition", "thumb", "1", "OnceUponATime");
+            Assert.assertEquals(missCount + 1, RenditionCache.getStats().missCount());
+        } finally {
+            RenditionCache.invalidate("rendition");
+            backend.delete("rendition_thumb");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.storage.FileSystemStorageBackend;
+import com.sismics.docs.core.util.storage.MigratingStorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test of the sharing of identical stored files.
+ *
+ * @author bgamard
+ */
+public class TestStorageDedup extends BaseTransactionalTest {
+    @Test
+    public void testStorageDedup() throws Exception {
+        User user = createUser("storage_dedup");
+        Path path = Paths.get(getResource(FILE_ZIP).toURI());
+        long fileSize = Files.size(path);
+        FileDao fileDao = new FileDao();
+
+        // Count the writes to the storage
+        AtomicInteger writeCount = new AtomicInteger();
+        StorageUtil.setBackend(new MigratingStorageBackend(DirectoryUtil.getStorageDirectory()) {
+            @Override
+            public OutputStream newOutputStream(String key) throws IOException {
+                writeCount.incrementAndGet();
+                return super.newOutputStream(key);
+            }
+        });
+        FileUtil.setStorageDedup(true);
+        try {
+            // The first file is stored
+            String file1Id = FileUtil.createFile(FILE_ZIP, null, path, fileSize, null, user.getId(), null);
+            File file1 = fileDao.getActiveById(file1Id);
+            Assert.assertEquals(64, file1.getChecksum().length());
+            Assert.assertEquals(fileSize, (long) file1.getSize());
+
+            // The same file on disk shares the stored file
+            String file2Id = FileUtil.createFile(FILE_ZIP, null, path, fileSize, null, user.getId(), null);
+            File file2 = fileDao.getActiveById(file2Id);
+            Assert.assertEquals(file1.getChecksum(), file2.getChecksum());
+            Assert.assertEquals(fileSize, (long) file2.getSize());
+            Assert.assertTrue(Files.isSameFile(getStoredFile(file1Id), getStoredFile(file2Id)));
+
+            // The same file streamed is stored in one pass, then replaced by the stored file
+            File file3;
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                file3 = FileUtil.createFile(FILE_ZIP, null, inputStream, null, user.getId(), null);
+            }
+            Assert.assertEquals(file1.getChecksum(), file3.getChecksum());
+            Assert.assertTrue(Files.isSameFile(getStoredFile(file1Id), getStoredFile(file3.getId())));
+            Assert.assertEquals(2, writeCount.get());
+
+            // Replacing the content of a file keeps the shared content
+            try (OutputStream outputStream = StorageUtil.getBackend().newOutputStream(file3.getId())) {
+                outputStream.write(new byte[] { 1, 2, 3 });
+            }
+            Assert.assertEquals(fileSize, FileUtil.getFileSize(file1Id, user));
+            Assert.assertFalse(Files.isSameFile(getStoredFile(file1Id), getStoredFile(file3.getId())));
+
+            // Deleting a file keeps the shared content
+            FileUtil.delete(file1Id);
+            Assert.assertEquals(fileSize, FileUtil.getFileSize(file2Id, user));
+
+            FileUtil.delete(file2Id);
+            FileUtil.delete(file3.getId());
+        } finally {
+            FileUtil.setStorageDedup(false);
+            StorageUtil.setBackend(null);
+        }
+
+        // Without sharing, each file is stored
+        String file4Id = FileUtil.createFile(FILE_ZIP, null, path, fileSize, null, user.getId(), null);
+        String file5Id = FileUtil.createFile(FILE_ZIP, null, path, fileSize, null, user.getId(), null);
+        Assert.assertFalse(Files.isSameFile(getStoredFile(file4Id), getStoredFile(file5Id)));
+        FileUtil.delete(file4Id);
+        FileUtil.delete(file5Id);
+
+        // Nothing is shared on a backend storing full copies
+        StorageUtil.setBackend(new MigratingStorageBackend(DirectoryUtil.getStorageDirectory()) {
+            @Override
+            public boolean isCopyShared() {
+                return false;
+            }
+        });
+        FileUtil.setStorageDedup(true);
+        try {
+            String file6Id = FileUtil.createFile(FILE_ZIP, null, path, fileSize, null, user.getId(), null);
+            String file7Id = FileUtil.createFile(FILE_ZIP, null, path, fileSize, null, user.getId(), null);
+            Assert.assertFalse(Files.isSameFile(getStoredFile(file6Id), getStoredFile(file7Id)));
+            FileUtil.delete(file6Id);
+            FileUtil.delete(file7Id);
+        } finally {
+            FileUtil.setStorageDedup(false);
+            StorageUtil.setBackend(null);
+        }
+    }
+
+    private Path getStoredFile(String fileId) {
+        return ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(fileId);
+    }
+}
@@ -0,0 +1,247 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.collect.Lists;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.criteria.DocumentCriteria;
+import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.DocumentUtil;
+import com.sismics.docs.core.util.jpa.PaginatedList;
+import com.sismics.docs.core.util.jpa.PaginatedLists;
+import com.sismics.docs.core.util.jpa.SortCriteria;
+import com.sismics.util.mime.MimeType;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Test of the Lucene indexing handler.
+ *
+ * @author bgamard
+ */
+public class TestLuceneIndexingHandler extends BaseTransactionalTest {
+    @Test
+    public void testMmapRestart() throws Exception {
+        // The application indexing handler keeps its RAM index
+        AppContext.getInstance();
+        FileUtils.deleteDirectory(DirectoryUtil.getLuceneDirectory().toFile());
+        FileUtils.deleteDirectory(DirectoryUtil.getLuceneRebuildDirectory().toFile());
+        new ConfigDao().update(ConfigType.LUCENE_DIRECTORY_STORAGE, "MMAP");
+        User user = createUser("lucene_mmap");
+        Document document = createDocument(user, "Persistent index");
+
+        try {
+            // Create the index
+            LuceneIndexingHandler handler = new LuceneIndexingHandler();
+            handler.startUp();
+            handler.createDocument(document);
+            handler.shutDown();
+
+            // Open the existing index twice, it is kept as is
+            for (int i = 0; i < 2; i++) {
+                handler = new LuceneIndexingHandler();
+                handler.startUp();
+                try {
+                    Assert.assertEquals(1, search(handler, "persistent").getResultCount());
+                } finally {
+                    handler.shutDown();
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(DirectoryUtil.getLuceneDirectory().toFile());
+            FileUtils.deleteDirectory(DirectoryUtil.getLuceneRebuildDirectory().toFile());
+        }
+    }
+
+    @Test
+    public void testNrt() throws Exception {
+        User user = createUser("lucene_nrt");
+        Document document = createDocument(user, "Near real time");
+
+        // The changes are visible after a refresh of the searcher, and committed in batches
+        LuceneIndexingHandler handler = new LuceneIndexingHandler() {
+            @Override
+            boolean isNrtEnabled() {
+                return true;
+            }
+        };
+        handler.startUp();
+        try {
+            handler.createDocument(document);
+            Assert.assertEquals(1L, (long) handler.getStatistics().get("uncommitted_operations"));
+            long timeout = System.currentTimeMillis() + 10000;
+            while (search(handler, "near").getResultCount() == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(1, search(handler, "near").getResultCount());
+
+            handler.deleteDocument(document.getId());
+            timeout = System.currentTimeMillis() + 10000;
+            while (search(handler, "near").getResultCount() == 1 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(0, search(handler, "near").getResultCount());
+            Assert.assertEquals(2L, (long) handler.getStatistics().get("uncommitted_operations"));
+        } finally {
+            handler.shutDown();
+        }
+    }
+
+    @Test
+    public void testRebuildConcurrentChanges() throws Exception {
+        User user = createUser("lucene_rebuild");
+        Document updatedDocument = createDocument(user, "Stale title");
+        Document deletedDocument = createDocument(user, "Stale deleted");
+        Document otherDocument = createDocument(user, "Stale other");
+        List<Document> documentList = Lists.newArrayList(
+                new DocumentDao().getById(updatedDocument.getId()),
+                new DocumentDao().getById(deletedDocument.getId()),
+                new DocumentDao().getById(otherDocument.getId()));
+
+        LuceneIndexingHandler handler = new LuceneIndexingHandler();
+        handler.startUp();
+        try {
+            // The documents are changed after the rebuild batch has been read
+            handler.startRebuild(documentList.size());
+            updatedDocument.setTitle("Fresh title");
+            new DocumentDao().update(updatedDocument, user.getId());
+            handler.updateDocument(updatedDocument);
+            handler.deleteDocument(deletedDocument.getId());
+
+            // The stale batch does not overwrite the changes
+            handler.rebuildDocuments(documentList);
+            handler.endRebuild(true);
+            Assert.assertEquals(1, search(handler, "fresh").getResultCount());
+            Assert.assertEquals(1, search(handler, "stale").getResultCount());
+        } finally {
+            handler.shutDown();
+        }
+    }
+
+    @Test
+    public void testSearchPermissionAndPaging() throws Exception {
+        User owner = createUser("lucene_owner");
+        Document olderDocument = createDocument(owner, "Paging older", new Date(System.currentTimeMillis() - 60000));
+        Document newerDocument = createDocument(owner, "Paging newer", new Date());
+        File file = new File();
+        file.setDocumentId(olderDocument.getId());
+        file.setUserId(owner.getId());
+        file.setName("scan.pdf");
+        file.setContent("Confidential content");
+        file.setMimeType(MimeType.APPLICATION_PDF);
+        file.setVersion(0);
+        file.setSize(0L);
+        new FileDao().create(file, owner.getId());
+
+        LuceneIndexingHandler handler = new LuceneIndexingHandler();
+        handler.startUp();
+        try {
+            handler.createDocument(olderDocument);
+            handler.createDocument(newerDocument);
+            handler.createFile(file);
+
+            // A file matches through its document, only for the targets allowed to read it
+            PaginatedList<DocumentDto> paginatedList = search(handler, "confidential", owner.getId(), 0);
+            Assert.assertEquals(1, paginatedList.getResultCount());
+            Assert.assertEquals(olderDocument.getId(), paginatedList.getResultList().get(0).getId());
+            Assert.assertEquals(0, search(handler, "confidential", "lucene_other", 0).getResultCount());
+            Assert.assertEquals(0, search(handler, "secret", owner.getId(), 0).getResultCount());
+
+            // The pages are sorted and counted in the index
+            paginatedList = search(handler, "paging", owner.getId(), 1);
+            Assert.assertEquals(2, paginatedList.getResultCount());
+            Assert.assertEquals(1, paginatedList.getResultList().size());
+            Assert.assertEquals(olderDocument.getId(), paginatedList.getResultList().get(0).getId());
+
+            // A revoked permission is checked before the index is updated
+            new AclDao().delete(olderDocument.getId(), PermType.READ, owner.getId(), owner.getId(), AclType.USER);
+            Assert.assertEquals(0, search(handler, "confidential", owner.getId(), 0).getResultCount());
+            paginatedList = search(handler, "paging", owner.getId(), 0);
+            Assert.assertEquals(1, paginatedList.getResultCount());
+            Assert.assertEquals(newerDocument.getId(), paginatedList.getResultList().get(0).getId());
+        } finally {
+            handler.shutDown();
+        }
+    }
+
+    /**
+     * Create a document with its ACL, without indexing it.
+     *
+     * @param user Owner
+     * @param title Title
+     * @param createDate Creation date
+     * @return Document
+     */
+    private Document createDocument(User user, String title, Date createDate) {
+        Document document = new Document();
+        document.setUserId(user.getId());
+        document.setTitle(title);
+        document.setLanguage("eng");
+        document.setCreateDate(createDate);
+        return DocumentUtil.createDocument(document, user.getId());
+    }
+
+    /**
+     * Create a document without indexing it.
+     *
+     * @param user Owner
+     * @param title Title
+     * @return Document
+     */
+    private Document createDocument(User user, String title) {
+        Document document = new Document();
+        document.setUserId(user.getId());
+        document.setTitle(title);
+        document.setLanguage("eng");
+        document.setCreateDate(new Date());
+        new DocumentDao().create(document, user.getId());
+        return document;
+    }
+
+    /**
+     * Search the documents with a full text query.
+     *
+     * @param handler Indexing handler
+     * @param query Query
+     * @return Matching documents
+     * @throws Exception e
+     */
+    private PaginatedList<DocumentDto> search(LuceneIndexingHandler handler, String query) throws Exception {
+        return search(handler, query, "admin", 0);
+    }
+
+    /**
+     * Search a page of documents with a full text query, sorted by creation date.
+     *
+     * @param handler Indexing handler
+     * @param query Query
+     * @param targetId Target searching
+     * @param offset Offset of the page of 1 document
+     * @return Matching documents
+     * @throws Exception e
+     */
+    private PaginatedList<DocumentDto> search(LuceneIndexingHandler handler, String query, String targetId, int offset) throws Exception {
+        DocumentCriteria criteria = new DocumentCriteria();
+        criteria.setTargetIdList(Lists.newArrayList(targetId));
+        criteria.setSimpleSearch("");
+        criteria.setFullSearch(query);
+        PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(offset == 0 ? null : 1, offset);
+        handler.findByCriteria(paginatedList, new ArrayList<>(), criteria, new SortCriteria(3, false));
+        return paginatedList;
+    }
+}
@@ -0,0 +1,375 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in of an S3-compatible object store, keeping the objects in memory.
+ * Only the requests used by the S3 storage backend are implemented, the signatures are not verified.
+ *
+ * @author bgamard
+ */
+public class LocalS3Server implements AutoCloseable {
+    /**
+     * HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Executor of the requests.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Bucket.
+     */
+    private final String bucket;
+
+    /**
+     * Maximum number of keys by list page.
+     */
+    private final int maxKeys;
+
+    /**
+     * Stored objects.
+     */
+    private final SortedMap<String, StoredObject> objectMap = new ConcurrentSkipListMap<>();
+
+    /**
+     * Parts of the multipart uploads in progress.
+     */
+    private final Map<String, SortedMap<Integer, byte[]>> uploadMap = new ConcurrentHashMap<>();
+
+    /**
+     * Number of uploaded parts.
+     */
+    private final AtomicInteger partCount = new AtomicInteger();
+
+    /**
+     * Number of ranged reads.
+     */
+    private final AtomicInteger rangeCount = new AtomicInteger();
+
+    /**
+     * Constructor, the server listens on a free port.
+     *
+     * @param bucket Bucket
+     * @param maxKeys Maximum number of keys by list page
+     * @throws IOException e
+     */
+    public LocalS3Server(String bucket, int maxKeys) throws IOException {
+        this.bucket = bucket;
+        this.maxKeys = maxKeys;
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } catch (Exception e) {
+                send(exchange, 500, e.toString());
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the endpoint of the server.
+     *
+     * @return Endpoint
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of uploaded parts.
+     *
+     * @return Number of parts
+     */
+    public int getPartCount() {
+        return partCount.get();
+    }
+
+    /**
+     * Returns the number of ranged reads.
+     *
+     * @return Number of ranged reads
+     */
+    public int getRangeCount() {
+        return rangeCount.get();
+    }
+
+    /**
+     * Returns the number of multipart uploads in progress.
+     *
+     * @return Number of uploads
+     */
+    public int getUploadCount() {
+        return uploadMap.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Handle a request.
+     *
+     * @param exchange Exchange
+     * @throws IOException e
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("AWS4-HMAC-SHA256 Credential=")
+                || exchange.getRequestHeaders().getFirst("x-amz-date") == null) {
+            send(exchange, 403, "<Error><Code>AccessDenied</Code></Error>");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getRawPath();
+        if (!path.startsWith("/" + bucket)) {
+            send(exchange, 404, "<Error><Code>NoSuchBucket</Code></Error>");
+            return;
+        }
+        String key = path.length() > bucket.length() + 2 ? decode(path.substring(bucket.length() + 2)) : null;
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String method = exchange.getRequestMethod();
+        byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+
+        if (key == null) {
+            if (method.equals("GET") && "2".equals(query.get("list-type"))) {
+                list(exchange, query.get("continuation-token"));
+            } else {
+                send(exchange, 400, "<Error><Code>InvalidRequest</Code></Error>");
+            }
+            return;
+        }
+
+        switch (method) {
+            case "HEAD": {
+                StoredObject object = objectMap.get(key);
+                if (object == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Length", Integer.toString(object.data.length));
+                exchange.getResponseHeaders().add("Last-Modified", formatDate(object.lastModified));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            case "GET": {
+                StoredObject object = objectMap.get(key);
+                if (object == null) {
+                    send(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>");
+                    return;
+                }
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range == null) {
+                    send(exchange, 200, object.data);
+                    return;
+                }
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Math.min(Integer.parseInt(bounds[1]), object.data.length - 1);
+                rangeCount.incrementAndGet();
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + object.data.length);
+                send(exchange, 206, Arrays.copyOfRange(object.data, start, end + 1));
+                return;
+            }
+
+            case "PUT": {
+                String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+                if (copySource != null) {
+                    StoredObject source = objectMap.get(decode(copySource.substring(bucket.length() + 2)));
+                    if (source == null) {
+                        send(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>");
+                        return;
+                    }
+                    objectMap.put(key, new StoredObject(source.data));
+                    send(exchange, 200, "<CopyObjectResult><ETag>\"copy\"</ETag></CopyObjectResult>");
+                } else if (query.containsKey("uploadId")) {
+                    SortedMap<Integer, byte[]> partMap = uploadMap.get(query.get("uploadId"));
+                    if (partMap == null) {
+                        send(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                        return;
+                    }
+                    int partNumber = Integer.parseInt(query.get("partNumber"));
+                    partMap.put(partNumber, body);
+                    partCount.incrementAndGet();
+                    exchange.getResponseHeaders().add("ETag", "\"part" + partNumber + "\"");
+                    send(exchange, 200, new byte[0]);
+                } else {
+                    objectMap.put(key, new StoredObject(body));
+                    send(exchange, 200, new byte[0]);
+                }
+                return;
+            }
+
+            case "POST": {
+                if (query.containsKey("uploads")) {
+                    String uploadId = UUID.randomUUID().toString();
+                    uploadMap.put(uploadId, new ConcurrentSkipListMap<>());
+                    send(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + key
+                            + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+                } else if (query.containsKey("uploadId")) {
+                    SortedMap<Integer, byte[]> partMap = uploadMap.remove(query.get("uploadId"));
+                    if (partMap == null) {
+                        send(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                        return;
+                    }
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    for (byte[] part : partMap.values()) {
+                        data.write(part);
+                    }
+                    objectMap.put(key, new StoredObject(data.toByteArray()));
+                    send(exchange, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key></CompleteMultipartUploadResult>");
+                } else {
+                    send(exchange, 400, "<Error><Code>InvalidRequest</Code></Error>");
+                }
+                return;
+            }
+
+            case "DELETE": {
+                if (query.containsKey("uploadId")) {
+                    uploadMap.remove(query.get("uploadId"));
+                } else {
+                    objectMap.remove(key);
+                }
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+
+            default:
+                send(exchange, 405, "<Error><Code>MethodNotAllowed</Code></Error>");
+        }
+    }
+
+    /**
+     * Send a page of the keys.
+     *
+     * @param exchange Exchange
+     * @param continuationToken Last key of the previous page
+     * @throws IOException e
+     */
+    private void list(HttpExchange exchange, String continuationToken) throws IOException {
+        SortedMap<String, StoredObject> tailMap = continuationToken == null ? objectMap : objectMap.tailMap(continuationToken + "\0");
+        List<String> keyList = new ArrayList<>(tailMap.keySet());
+        boolean truncated = keyList.size() > maxKeys;
+        StringBuilder sb = new StringBuilder("<ListBucketResult><Name>").append(bucket).append("</Name>");
+        for (String key : keyList.subList(0, Math.min(maxKeys, keyList.size()))) {
+            sb.append("<Contents><Key>").append(key).append("</Key></Contents>");
+        }
+        sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            sb.append("<NextContinuationToken>").append(keyList.get(maxKeys - 1)).append("</NextContinuationToken>");
+        }
+        sb.append("</ListBucketResult>");
+        send(exchange, 200, sb.toString());
+    }
+
+    /**
+     * Send a response.
+     *
+     * @param exchange Exchange
+     * @param status HTTP status
+     * @param body Body
+     * @throws IOException e
+     */
+    private void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send a response.
+     *
+     * @param exchange Exchange
+     * @param status HTTP status
+     * @param body Body
+     * @throws IOException e
+     */
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+    }
+
+    /**
+     * Parse a query string.
+     *
+     * @param rawQuery Raw query string
+     * @return Query parameters
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int index = parameter.indexOf('=');
+            if (index == -1) {
+                query.put(decode(parameter), "");
+            } else {
+                query.put(decode(parameter.substring(0, index)), decode(parameter.substring(index + 1)));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * URL decode a value.
+     *
+     * @param value Value
+     * @return Decoded value
+     */
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Format an HTTP date.
+     *
+     * @param date Date
+     * @return Formatted date
+     */
+    private static String formatDate(Instant date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(date.atOffset(ZoneOffset.UTC));
+    }
+
+    /**
+     * A stored object.
+     */
+    private static class StoredObject {
+        private final byte[] data;
+        private final Instant lastModified = Instant.now();
+
+        StoredObject(byte[] data) {
+            this.data = data;
+        }
+    }
+}
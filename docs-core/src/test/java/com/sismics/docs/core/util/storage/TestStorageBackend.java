@@ -0,0 +1,240 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sismics.BaseTest;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Test of the storage backends.
+ *
+ * @author bgamard
+ */
+public class TestStorageBackend extends BaseTest {
+    @Test
+    public void testFlat() throws Exception {
+        Path directory = Files.createTempDirectory("storage");
+        try (StorageBackend backend = new FlatStorageBackend(directory)) {
+            assertBackend(backend);
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testSharded() throws Exception {
+        List<Path> rootList = Lists.newArrayList(Files.createTempDirectory("storage0"), Files.createTempDirectory("storage1"));
+        try (ShardedStorageBackend backend = new ShardedStorageBackend(rootList)) {
+            assertBackend(backend);
+
+            // Files are spread on two levels of subdirectories of the roots
+            for (int i = 0; i < 20; i++) {
+                writeObject(backend, "file" + i, new byte[] { (byte) i });
+            }
+            for (Path root : rootList) {
+                try (Stream<Path> stream = Files.find(root, 3, (path, attributes) -> attributes.isRegularFile())) {
+                    List<Path> pathList = stream.collect(Collectors.toList());
+                    Assert.assertFalse(pathList.isEmpty());
+                    for (Path path : pathList) {
+                        Assert.assertEquals(3, root.relativize(path).getNameCount());
+                    }
+                }
+            }
+
+            // The renditions are stored next to their file
+            Assert.assertEquals(backend.resolve("file1").getParent(), backend.resolve("file1_thumb").getParent());
+        } finally {
+            for (Path root : rootList) {
+                FileUtils.deleteDirectory(root.toFile());
+            }
+        }
+    }
+
+    @Test
+    public void testMigrating() throws Exception {
+        Path directory = Files.createTempDirectory("storage");
+        try (MigratingStorageBackend backend = new MigratingStorageBackend(directory)) {
+            assertBackend(backend);
+
+            // Files of the flat layout are read in place
+            Files.write(directory.resolve("legacy1"), new byte[] { 1 });
+            Files.write(directory.resolve("legacy1_thumb"), new byte[] { 2 });
+            Files.write(directory.resolve("legacy2"), new byte[] { 3 });
+            Files.write(directory.resolve("legacy3"), new byte[] { 4 });
+            Assert.assertTrue(backend.exists("legacy1"));
+            Assert.assertArrayEquals(new byte[] { 2 }, readObject(backend, "legacy1_thumb", 0));
+            try (Stream<String> stream = backend.list()) {
+                Assert.assertEquals(4, stream.count());
+            }
+
+            // New content is written in the sharded layout
+            writeObject(backend, "legacy2", new byte[] { 5 });
+            Assert.assertFalse(Files.exists(directory.resolve("legacy2")));
+            Assert.assertEquals(3, directory.relativize(backend.resolve("legacy2")).getNameCount());
+            writeObject(backend, "file1", new byte[] { 6 });
+            Assert.assertEquals(3, directory.relativize(backend.resolve("file1")).getNameCount());
+            backend.copy("legacy3", "file2");
+            Assert.assertArrayEquals(new byte[] { 4 }, readObject(backend, "file2", 0));
+
+            // Move the files in batches
+            Assert.assertTrue(backend.migrate(2));
+            Assert.assertFalse(backend.migrate(2));
+            Assert.assertEquals(3L, (long) backend.getStatistics().get("migrated"));
+            Assert.assertEquals(3L, (long) backend.getStatistics().get("total"));
+            Assert.assertTrue(backend.getStatistics().get("legacy_lookup_time") > 0);
+            Assert.assertTrue(backend.getStatistics().get("sharded_lookup_time") > 0);
+            try (Stream<Path> stream = Files.list(directory)) {
+                Assert.assertTrue(stream.noneMatch(Files::isRegularFile));
+            }
+            Assert.assertArrayEquals(new byte[] { 1 }, readObject(backend, "legacy1", 0));
+            Assert.assertArrayEquals(new byte[] { 2 }, readObject(backend, "legacy1_thumb", 0));
+            Assert.assertArrayEquals(new byte[] { 5 }, readObject(backend, "legacy2", 0));
+            Assert.assertArrayEquals(new byte[] { 4 }, readObject(backend, "legacy3", 0));
+            Assert.assertEquals(backend.resolve("legacy1").getParent(), backend.resolve("legacy1_thumb").getParent());
+            try (Stream<String> stream = backend.list()) {
+                Assert.assertEquals(Lists.newArrayList("file1", "file2", "legacy1", "legacy1_thumb", "legacy2", "legacy3"),
+                        stream.sorted().collect(Collectors.toList()));
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testS3() throws Exception {
+        try (LocalS3Server server = new LocalS3Server("teedy", 2);
+             StorageBackend backend = new S3StorageBackend(server.getEndpoint(), "us-east-1", "teedy", "access", "secret", 1024)) {
+            assertBackend(backend);
+
+            // Large objects are uploaded in parts and read in chunks
+            byte[] data = new byte[10 * 1024 + 123];
+            new Random(42).nextBytes(data);
+            int partCount = server.getPartCount();
+            writeObject(backend, "large", data);
+            Assert.assertEquals(partCount + 11, server.getPartCount());
+            Assert.assertEquals(0, server.getUploadCount());
+            int rangeCount = server.getRangeCount();
+            Assert.assertArrayEquals(data, readObject(backend, "large", 0));
+            Assert.assertEquals(rangeCount + 11, server.getRangeCount());
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 5000, data.length), readObject(backend, "large", 5000));
+
+            // An object of exactly one part is sent in a single request
+            partCount = server.getPartCount();
+            writeObject(backend, "part", Arrays.copyOf(data, 1024));
+            Assert.assertEquals(partCount, server.getPartCount());
+            Assert.assertArrayEquals(Arrays.copyOf(data, 1024), readObject(backend, "part", 0));
+        }
+    }
+
+    /**
+     * Check the common behavior of a backend.
+     *
+     * @param backend Storage backend
+     * @throws Exception e
+     */
+    private void assertBackend(StorageBackend backend) throws Exception {
+        byte[] data;
+        try (InputStream inputStream = getSystemResourceAsStream(FILE_PDF)) {
+            data = ByteStreams.toByteArray(inputStream);
+        }
+
+        // Write and read an object
+        Assert.assertFalse(backend.exists("file1"));
+        writeObject(backend, "file1", data);
+        Assert.assertTrue(backend.exists("file1"));
+        Assert.assertEquals(data.length, backend.size("file1"));
+        Assert.assertTrue(backend.getLastModified("file1") > 0);
+        Assert.assertArrayEquals(data, readObject(backend, "file1", 0));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 1000, data.length), readObject(backend, "file1", 1000));
+
+        // Replace an object
+        writeObject(backend, "file1_thumb", new byte[] { 1, 2, 3 });
+        writeObject(backend, "file1_thumb", new byte[] { 4, 5 });
+        Assert.assertArrayEquals(new byte[] { 4, 5 }, readObject(backend, "file1_thumb", 0));
+
+        // Copy an object, replacing the copy keeps the original
+        backend.copy("file1", "file2");
+        Assert.assertArrayEquals(data, readObject(backend, "file2", 0));
+        backend.copy("file1", "file3");
+        writeObject(backend, "file3", new byte[] { 6 });
+        Assert.assertArrayEquals(data, readObject(backend, "file1", 0));
+        Assert.assertArrayEquals(new byte[] { 6 }, readObject(backend, "file3", 0));
+        backend.delete("file3");
+        writeObject(backend, "empty", new byte[0]);
+        Assert.assertEquals(0, backend.size("empty"));
+        Assert.assertEquals(0, readObject(backend, "empty", 0).length);
+
+        // List the objects
+        try (Stream<String> stream = backend.list()) {
+            Assert.assertEquals(Lists.newArrayList("empty", "file1", "file1_thumb", "file2"), stream.sorted().collect(Collectors.toList()));
+        }
+
+        // Delete the objects
+        backend.delete("file1");
+        Assert.assertFalse(backend.exists("file1"));
+        Assert.assertArrayEquals(data, readObject(backend, "file2", 0));
+        backend.delete("file1");
+        backend.delete("file1_thumb");
+        backend.delete("file2");
+        backend.delete("empty");
+        try (Stream<String> stream = backend.list()) {
+            Assert.assertEquals(0, stream.count());
+        }
+
+        // Missing objects
+        try {
+            backend.size("file1");
+            Assert.fail();
+        } catch (NoSuchFileException e) {
+            // NOP
+        }
+        try {
+            backend.newInputStream("file1").close();
+            Assert.fail();
+        } catch (NoSuchFileException e) {
+            // NOP
+        }
+    }
+
+    /**
+     * Write an object.
+     *
+     * @param backend Storage backend
+     * @param key Key
+     * @param data Data
+     * @throws Exception e
+     */
+    private void writeObject(StorageBackend backend, String key, byte[] data) throws Exception {
+        try (OutputStream outputStream = backend.newOutputStream(key)) {
+            outputStream.write(data);
+        }
+    }
+
+    /**
+     * Read an object from an offset.
+     *
+     * @param backend Storage backend
+     * @param key Key
+     * @param offset Offset
+     * @return Data
+     * @throws Exception e
+     */
+    private byte[] readObject(StorageBackend backend, String key, long offset) throws Exception {
+        try (InputStream inputStream = backend.newInputStream(key, offset)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+}
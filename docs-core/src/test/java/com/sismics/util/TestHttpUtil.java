@@ -0,0 +1,37 @@
+package com.sismics.util;
+
+import com.google.common.collect.Range;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Test of the HTTP utilities.
+ *
+ * @author bgamard
+ */
+public class TestHttpUtil {
+    @Test
+    public void parseRangeTest() {
+        // Ignored headers
+        Assert.assertNull(HttpUtil.parseRange(null, 100));
+        Assert.assertNull(HttpUtil.parseRange("items=0-10", 100));
+        Assert.assertNull(HttpUtil.parseRange("bytes=abc", 100));
+        Assert.assertNull(HttpUtil.parseRange("bytes=20-10", 100));
+
+        // Single ranges
+        Assert.assertEquals(List.of(Range.closed(0L, 9L)), HttpUtil.parseRange("bytes=0-9", 100));
+        Assert.assertEquals(List.of(Range.closed(50L, 99L)), HttpUtil.parseRange("bytes=50-", 100));
+        Assert.assertEquals(List.of(Range.closed(90L, 99L)), HttpUtil.parseRange("bytes=-10", 100));
+        Assert.assertEquals(List.of(Range.closed(0L, 99L)), HttpUtil.parseRange("bytes=-200", 100));
+        Assert.assertEquals(List.of(Range.closed(90L, 99L)), HttpUtil.parseRange("bytes=90-200", 100));
+
+        // Multiple ranges
+        Assert.assertEquals(List.of(Range.closed(0L, 0L), Range.closed(99L, 99L)), HttpUtil.parseRange("bytes=0-0, -1", 100));
+
+        // Unsatisfiable ranges
+        Assert.assertTrue(HttpUtil.parseRange("bytes=100-", 100).isEmpty());
+        Assert.assertTrue(HttpUtil.parseRange("bytes=-0", 100).isEmpty());
+    }
+}
@@ -6,6 +6,7 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -68,5 +69,18 @@ public class TestMimeTypeUtil extends BaseTest {
         // Detect MP4 files
         path = Paths.get(getResource(FILE_MP4).toURI());
         Assert.assertEquals(MimeType.VIDEO_MP4, MimeTypeUtil.guessMimeType(path, FILE_MP4));
+
+        // Detect files being read from their name, then from their first bytes
+        byte[] header;
+        try (InputStream inputStream = getResource(FILE_PDF).openStream()) {
+            header = inputStream.readNBytes(64);
+        }
+        Assert.assertEquals(MimeType.APPLICATION_PDF, MimeTypeUtil.guessMimeType(header, null));
+        Assert.assertEquals(MimeType.TEXT_PLAIN, MimeTypeUtil.guessMimeType(header, FILE_TXT));
+        try (InputStream inputStream = getResource(FILE_PNG).openStream()) {
+            header = inputStream.readNBytes(64);
+        }
+        Assert.assertEquals(MimeType.IMAGE_PNG, MimeTypeUtil.guessMimeType(header, "image"));
+        Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(new byte[0], null));
     }
 }
@@ -0,0 +1,70 @@
+package com.sismics.util.jpa;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test of the HikariCP connection provider.
+ *
+ * @author bgamard
+ */
+public class TestHikariConnectionProvider {
+    @Test
+    public void testPool() throws Exception {
+        Map<String, Object> configurationValues = new HashMap<>();
+        configurationValues.put("hibernate.connection.driver_class", "org.h2.Driver");
+        configurationValues.put("hibernate.connection.url", "jdbc:h2:mem:hikari");
+        configurationValues.put("hibernate.connection.username", "sa");
+        configurationValues.put("hibernate.connection.pool_size", "10");
+        configurationValues.put("hibernate.hikari.maximumPoolSize", "2");
+        configurationValues.put("hibernate.hikari.connectionTimeout", "250");
+        configurationValues.put("hibernate.hikari.maxLifetime", "60000");
+        configurationValues.put("hibernate.hikari.leakDetectionThreshold", "10000");
+        HikariConnectionProvider connectionProvider = new HikariConnectionProvider();
+        connectionProvider.configure(configurationValues);
+        try {
+            // The HikariCP properties override the Hibernate ones
+            HikariDataSource dataSource = connectionProvider.unwrap(HikariDataSource.class);
+            Assert.assertEquals(2, dataSource.getMaximumPoolSize());
+            Assert.assertEquals(60000, dataSource.getMaxLifetime());
+            Assert.assertEquals(10000, dataSource.getLeakDetectionThreshold());
+
+            // Acquire all the connections
+            Connection connection1 = connectionProvider.getConnection();
+            Connection connection2 = connectionProvider.getConnection();
+            Assert.assertFalse(connection1.getAutoCommit());
+            Map<String, Long> statistics = connectionProvider.getStatistics();
+            Assert.assertEquals(2L, (long) statistics.get("active"));
+            Assert.assertEquals(0L, (long) statistics.get("idle"));
+            Assert.assertEquals(2L, (long) statistics.get("max"));
+            Assert.assertEquals(2L, (long) statistics.get("acquire_count"));
+
+            // The pool is exhausted
+            try {
+                connectionProvider.getConnection();
+                Assert.fail();
+            } catch (SQLException e) {
+                // NOP
+            }
+            statistics = connectionProvider.getStatistics();
+            Assert.assertEquals(1L, (long) statistics.get("timeout_count"));
+            Assert.assertEquals(3L, (long) statistics.get("acquire_count"));
+            Assert.assertTrue(statistics.get("acquire_time_max") >= 250000000L);
+
+            // Release the connections
+            connectionProvider.closeConnection(connection1);
+            connectionProvider.closeConnection(connection2);
+            statistics = connectionProvider.getStatistics();
+            Assert.assertEquals(0L, (long) statistics.get("active"));
+            Assert.assertEquals(2L, (long) statistics.get("idle"));
+        } finally {
+            connectionProvider.stop();
+        }
+    }
+}
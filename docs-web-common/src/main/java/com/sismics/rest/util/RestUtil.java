@@ -1,8 +1,8 @@
 package com.sismics.rest.util;
 
 import com.sismics.docs.core.model.jpa.File;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.util.JsonUtil;
 
@@ -10,7 +10,6 @@ import jakarta.json.Json;
 import jakarta.json.JsonObjectBuilder;
 
 import java.io.IOException;
-import java.nio.file.Files;
 
 /**
  * Rest utilities.
@@ -27,8 +26,8 @@ public class RestUtil {
      */
     public static JsonObjectBuilder fileToJsonObjectBuilder(File fileDb) {
         try {
-            long fileSize = fileDb.getSize().equals(File.UNKNOWN_SIZE) ? Files.size(DirectoryUtil.getStorageDirectory().resolve(fileDb.getId())) : fileDb.getSize();
-            return Json.createObjectBuilder()
+            long fileSize = fileDb.getSize().equals(File.UNKNOWN_SIZE) ? StorageUtil.getBackend().size(fileDb.getId()) : fileDb.getSize();
+            JsonObjectBuilder file = Json.createObjectBuilder()
                     .add("id", fileDb.getId())
                     .add("processing", FileUtil.isProcessingFile(fileDb.getId()))
                     .add("name", JsonUtil.nullable(fileDb.getName()))
@@ -37,6 +36,11 @@ public class RestUtil {
                     .add("document_id", JsonUtil.nullable(fileDb.getDocumentId()))
                     .add("create_date", fileDb.getCreateDate().getTime())
                     .add("size", fileSize);
+            Integer processingProgress = FileUtil.getProcessingProgress(fileDb.getId());
+            if (processingProgress != null) {
+                file.add("processing_progress", processingProgress);
+            }
+            return file;
         } catch (IOException e) {
             throw new ServerException("FileError", "Unable to get the size of " + fileDb.getId(), e);
         }
@@ -111,6 +111,7 @@ public class RequestContextFilter implements Filter {
         }
 
         // No error processing the request : commit / rollback the current transaction depending on the HTTP code
+        // The transaction is already committed if the resource released it before writing the response
         if (em.isOpen()) {
             if (em.getTransaction() != null && em.getTransaction().isActive()) {
                 HttpServletResponse r = (HttpServletResponse) response;
@@ -118,12 +119,15 @@ public class RequestContextFilter implements Filter {
                 if (statusClass == 2 || statusClass == 3) {
                     try {
                         em.getTransaction().commit();
+                        context.fireAfterCommit();
                     } catch (Exception e) {
                         log.error("Error during commit", e);
+                        context.dropQueuedAsyncEvents();
                         r.sendError(500);
                     }
                 } else {
                     em.getTransaction().rollback();
+                    context.dropQueuedAsyncEvents();
                 }
                 
                 try {
@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.RoleBaseFunctionDao;
 import com.sismics.docs.core.dao.criteria.GroupCriteria;
 import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.PrincipalCache;
 import com.sismics.security.AnonymousPrincipal;
 import com.sismics.security.UserPrincipal;
 import org.joda.time.DateTimeZone;
@@ -54,25 +55,29 @@ public abstract class SecurityFilter implements Filter {
      *
      * @param request HTTP request
      * @param user nullable User to inject
+     * @param cacheKey nullable key of the principal in cache
      */
-    private void injectUser(HttpServletRequest request, User user) {
+    private void injectUser(HttpServletRequest request, User user, String cacheKey) {
         // Check if the user is still valid
         if (user != null && user.getDeleteDate() == null && user.getDisableDate() == null) {
-            injectAuthenticatedUser(request, user);
+            PrincipalCache.CachedPrincipal cachedPrincipal = loadPrincipal(user, getPrincipalExpiryDate(request));
+            if (cacheKey != null) {
+                PrincipalCache.put(cacheKey, cachedPrincipal);
+            }
+            injectAuthenticatedUser(request, cachedPrincipal);
         } else {
             injectAnonymousUser(request);
         }
     }
 
     /**
-     * Inject an authenticated user into the request attributes.
+     * Load the groups and base functions of a user.
      *
-     * @param request HTTP request
-     * @param user User to inject
+     * @param user User
+     * @param expiryDate Expiry date of the authentication (in milliseconds)
+     * @return Principal to inject
      */
-    private void injectAuthenticatedUser(HttpServletRequest request, User user) {
-        UserPrincipal userPrincipal = new UserPrincipal(user.getId(), user.getUsername());
-
+    private PrincipalCache.CachedPrincipal loadPrincipal(User user, long expiryDate) {
         // Add groups
         GroupDao groupDao = new GroupDao();
         Set<String> groupRoleIdSet = new HashSet<>();
@@ -86,15 +91,26 @@ public abstract class SecurityFilter implements Filter {
                 groupRoleIdSet.add(groupDto.getRoleId());
             }
         }
-        userPrincipal.setGroupIdSet(groupIdSet);
 
         // Add base functions
         groupRoleIdSet.add(user.getRoleId());
         RoleBaseFunctionDao userBaseFunction = new RoleBaseFunctionDao();
         Set<String> baseFunctionSet = userBaseFunction.findByRoleId(groupRoleIdSet);
-        userPrincipal.setBaseFunctionSet(baseFunctionSet);
 
-        // Add email
+        return new PrincipalCache.CachedPrincipal(user, groupIdSet, baseFunctionSet, expiryDate);
+    }
+
+    /**
+     * Inject an authenticated user into the request attributes.
+     *
+     * @param request HTTP request
+     * @param cachedPrincipal User with its groups and base functions
+     */
+    private void injectAuthenticatedUser(HttpServletRequest request, PrincipalCache.CachedPrincipal cachedPrincipal) {
+        User user = cachedPrincipal.getUser();
+        UserPrincipal userPrincipal = new UserPrincipal(user.getId(), user.getUsername());
+        userPrincipal.setGroupIdSet(cachedPrincipal.getGroupIdSet());
+        userPrincipal.setBaseFunctionSet(cachedPrincipal.getBaseFunctionSet());
         userPrincipal.setEmail(user.getEmail());
 
         request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
@@ -127,8 +143,15 @@ public abstract class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) req;
 
         if (!hasIdentifiedUser(request)) {
-            User user = authenticate(request);
-            injectUser(request, user);
+            String cacheKey = getPrincipalCacheKey(request);
+            PrincipalCache.CachedPrincipal cachedPrincipal = cacheKey == null ? null : PrincipalCache.get(cacheKey);
+            if (cachedPrincipal == null || cachedPrincipal.getExpiryDate() <= System.currentTimeMillis()) {
+                // An expired authentication is checked again
+                User user = authenticate(request);
+                injectUser(request, user, cacheKey);
+            } else {
+                injectAuthenticatedUser(request, cachedPrincipal);
+            }
         }
 
         filterChain.doFilter(request, response);
@@ -142,4 +165,26 @@ public abstract class SecurityFilter implements Filter {
      */
     protected abstract User authenticate(HttpServletRequest request);
 
+    /**
+     * Returns the key of the authenticated principal in cache.
+     * The principals of the filters without a key are not cached.
+     *
+     * @param request HTTP request
+     * @return nullable key
+     */
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        return null;
+    }
+
+    /**
+     * Returns the expiry date of the last authentication of a request.
+     * A cached principal is authenticated again once expired.
+     *
+     * @param request HTTP request
+     * @return Expiry date (in milliseconds)
+     */
+    protected long getPrincipalExpiryDate(HttpServletRequest request) {
+        return Long.MAX_VALUE;
+    }
+
 }
\ No newline at end of file
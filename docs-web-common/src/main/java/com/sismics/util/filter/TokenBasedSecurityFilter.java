@@ -34,6 +34,11 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
      */
     private static final int TOKEN_SESSION_LIFETIME = 3600 * 24;
 
+    /**
+     * Name of the attribute containing the expiry date of the authentication token.
+     */
+    private static final String EXPIRY_DATE_ATTRIBUTE = "auth_token_expiry_date";
+
     /**
      * Extracts and returns an authentication token from a cookie list.
      *
@@ -67,20 +72,19 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
     }
 
     /**
-     * Returns true if the token is expired.
+     * Returns the expiry date of the token.
      * 
      * @param authenticationToken Authentication token
-     * @return Token expired
+     * @return Expiry date (in milliseconds)
      */
-    private boolean isTokenExpired(AuthenticationToken authenticationToken) {
-        final long now = new Date().getTime();
+    private long getExpiryDate(AuthenticationToken authenticationToken) {
         final long creationDate = authenticationToken.getCreationDate().getTime();
         if (authenticationToken.isLongLasted()) {
-            return now >= creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
+            return creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
         } else {
             long date = authenticationToken.getLastConnectionDate() != null ?
                     authenticationToken.getLastConnectionDate().getTime() : creationDate;
-            return now >= date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
+            return date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
         }
     }
 
@@ -99,11 +103,24 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
             return null;
         }
 
-        if (isTokenExpired(authToken)) {
+        long expiryDate = getExpiryDate(authToken);
+        if (new Date().getTime() >= expiryDate) {
             handleExpiredToken(authTokenDao, authTokenId);
             return null;
         }
+        request.setAttribute(EXPIRY_DATE_ATTRIBUTE, expiryDate);
 
         return new UserDao().getById(authToken.getUserId());
     }
+
+    @Override
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        return extractAuthToken(request.getCookies());
+    }
+
+    @Override
+    protected long getPrincipalExpiryDate(HttpServletRequest request) {
+        Long expiryDate = (Long) request.getAttribute(EXPIRY_DATE_ATTRIBUTE);
+        return expiryDate == null ? Long.MAX_VALUE : expiryDate;
+    }
 }
@@ -1,28 +1,39 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.JobStatus;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.EffectiveAclDao;
 import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.JobDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Config;
-import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.service.InboxService;
 import com.sismics.docs.core.util.ConfigUtil;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.PrincipalCache;
+import com.sismics.docs.core.util.RenditionCache;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
+import com.sismics.docs.core.util.storage.MigratingStorageBackend;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.util.EnvironmentUtil;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
+import com.sismics.util.jpa.EMF;
 import com.sismics.util.log4j.LogCriteria;
 import com.sismics.util.log4j.LogEntry;
 import com.sismics.util.log4j.MemoryAppender;
@@ -40,10 +51,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * General app REST resource.
@@ -57,6 +68,11 @@ public class AppResource extends BaseResource {
      */
     private static final Logger log = LoggerFactory.getLogger(AppResource.class);
 
+    /**
+     * Number of sources whose effective ACLs are rebuilt in a transaction.
+     */
+    private static final int EFFECTIVE_ACL_BATCH_SIZE = 500;
+
     /**
      * Returns information about the application.
      *
@@ -657,24 +673,20 @@ public class AppResource extends BaseResource {
 
         // Get all files
         FileDao fileDao = new FileDao();
-        List<File> fileList = fileDao.findAll(0, Integer.MAX_VALUE);
-        Map<String, File> fileMap = new HashMap<>();
-        for (File file : fileList) {
-            fileMap.put(file.getId(), file);
-        }
-        log.info("Checking {} files", fileMap.size());
+        Set<String> fileIdSet = new HashSet<>(fileDao.findAllIds());
+        log.info("Checking {} files", fileIdSet.size());
 
         // Check if each stored file is valid
-        try (DirectoryStream<java.nio.file.Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
-            for (java.nio.file.Path storedFile : storedFileList) {
-                String fileName = storedFile.getFileName().toString();
-                String[] fileNameArray = fileName.split("_");
-                if (!fileMap.containsKey(fileNameArray[0])) {
-                    log.info("Deleting orphan files at this location: {}", storedFile);
-                    Files.delete(storedFile);
+        StorageBackend backend = StorageUtil.getBackend();
+        try (Stream<String> storedFileList = backend.list()) {
+            for (String storageKey : (Iterable<String>) storedFileList::iterator) {
+                String[] fileNameArray = storageKey.split("_");
+                if (!fileIdSet.contains(fileNameArray[0])) {
+                    log.info("Deleting orphan stored file: {}", storageKey);
+                    backend.delete(storageKey);
                 }
             }
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             throw new ServerException("FileError", "Error deleting orphan files", e);
         }
 
@@ -740,17 +752,216 @@ public class AppResource extends BaseResource {
         log.info("Deleting {} soft deleted shares", em.createQuery("delete Share where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted tags", em.createQuery("delete Tag where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted comments", em.createQuery("delete Comment where deleteDate is not null").executeUpdate());
+        log.info("Deleting {} soft deleted files content", em.createQuery("delete FileContent fc where fc.fileId in (select f.id from File f where f.deleteDate is not null)").executeUpdate());
         log.info("Deleting {} soft deleted files", em.createQuery("delete File where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted documents", em.createQuery("delete Document where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted users", em.createQuery("delete User where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted groups", em.createQuery("delete Group where deleteDate is not null").executeUpdate());
 
+        // Hard delete the jobs failed long ago
+        long retentionDays = EnvironmentUtil.getEnvLong(Constants.JOB_FAILED_RETENTION_DAYS_ENV, 30);
+        log.info("Deleting {} failed jobs", new JobDao().deleteFailed(new Date(System.currentTimeMillis() - retentionDays * 24L * 3600L * 1000L)));
+
+        // Rebuild the effective ACLs from the remaining ACLs and tag links
+        rebuildEffectiveAcls();
+
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("status", "ok");
         return Response.ok().entity(response.build()).build();
     }
 
+    /**
+     * Check the effective ACLs against the ACLs and tag links, and rebuild them if they differ.
+     *
+     * @api {post} /app/batch/check_acl Check the effective ACLs
+     * @apiName PostAppBatchCheckAcl
+     * @apiGroup App
+     * @apiSuccess {String} status Status OK
+     * @apiSuccess {Number} missing Number of effective ACLs missing
+     * @apiSuccess {Number} stale Number of effective ACLs no longer granted
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.9.0
+     *
+     * @return Response
+     */
+    @POST
+    @Path("batch/check_acl")
+    public Response batchCheckAcl() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        EffectiveAclDao effectiveAclDao = new EffectiveAclDao();
+        Map<String, Long> result = effectiveAclDao.check();
+        if (result.get("missing") > 0 || result.get("stale") > 0) {
+            log.warn("Rebuilding the inconsistent effective ACLs: {}", result);
+            rebuildEffectiveAcls();
+        }
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok")
+                .add("missing", result.get("missing"))
+                .add("stale", result.get("stale"));
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Rebuild all the effective ACLs, committing each batch of sources.
+     */
+    private void rebuildEffectiveAcls() {
+        EffectiveAclDao effectiveAclDao = new EffectiveAclDao();
+        String lastSourceId = null;
+        do {
+            TransactionUtil.commit();
+            lastSourceId = effectiveAclDao.rebuild(lastSourceId, EFFECTIVE_ACL_BATCH_SIZE);
+        } while (lastSourceId != null);
+    }
+
+    /**
+     * Get the statistics of the caches, asynchronous jobs, indexing and storage.
+     *
+     * @api {get} /app/stats Get the application statistics
+     * @apiName GetAppStats
+     * @apiGroup App
+     * @apiSuccess {Object} secret_key_cache Statistics of the cache of derived encryption keys
+     * @apiSuccess {Number} secret_key_cache.hit_count Number of keys found in the cache
+     * @apiSuccess {Number} secret_key_cache.miss_count Number of keys derived
+     * @apiSuccess {Number} secret_key_cache.eviction_count Number of keys evicted from the cache
+     * @apiSuccess {Object} rendition_cache Statistics of the cache of decrypted thumbnails
+     * @apiSuccess {Number} rendition_cache.hit_count Number of thumbnails found in the cache
+     * @apiSuccess {Number} rendition_cache.miss_count Number of thumbnails decrypted
+     * @apiSuccess {Number} rendition_cache.hit_rate Ratio of thumbnails found in the cache
+     * @apiSuccess {Number} rendition_cache.eviction_count Number of thumbnails evicted from the cache
+     * @apiSuccess {Number} rendition_cache.memory_usage Memory used by the cached thumbnails (in bytes)
+     * @apiSuccess {Boolean} rendition_cache.off_heap True if the thumbnails are stored outside of the Java heap
+     * @apiSuccess {Object} principal_cache Statistics of the cache of authenticated users
+     * @apiSuccess {Number} principal_cache.hit_count Number of requests authenticated from the cache
+     * @apiSuccess {Number} principal_cache.miss_count Number of requests authenticated from the database
+     * @apiSuccess {Number} principal_cache.hit_rate Ratio of requests authenticated from the cache
+     * @apiSuccess {Number} principal_cache.eviction_count Number of users evicted from the cache
+     * @apiSuccess {Object} jobs Asynchronous jobs statistics
+     * @apiSuccess {Number} jobs.pending Number of jobs waiting to be run
+     * @apiSuccess {Number} jobs.running Number of jobs running
+     * @apiSuccess {Number} jobs.failed Number of jobs which failed too many times
+     * @apiSuccess {Object} indexing Indexing statistics
+     * @apiSuccess {Number} indexing.suggester_rebuild_time Duration of the last search suggester rebuild (in milliseconds)
+     * @apiSuccess {Number} indexing.uncommitted_operations Number of index operations not yet committed
+     * @apiSuccess {Number} indexing.rebuild_running 1 if an index rebuild is running
+     * @apiSuccess {Number} indexing.rebuild_indexed Number of documents and files indexed by the last rebuild
+     * @apiSuccess {Number} indexing.rebuild_total Number of documents and files to index by the last rebuild
+     * @apiSuccess {Number} indexing.rebuild_rate Indexing rate of the last rebuild (per second)
+     * @apiSuccess {Object} storage_migration Migration of the storage directory to the sharded layout
+     * @apiSuccess {Number} storage_migration.migrated Number of files moved to the sharded layout
+     * @apiSuccess {Number} storage_migration.total Number of files in the flat layout when the migration started
+     * @apiSuccess {Number} storage_migration.legacy_lookup_time Average lookup time of a moved file before the move (in nanoseconds)
+     * @apiSuccess {Number} storage_migration.sharded_lookup_time Average lookup time of a moved file after the move (in nanoseconds)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.9.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("stats")
+    public Response getStats() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        JsonObjectBuilder response = Json.createObjectBuilder();
+        CacheStats secretKeyCacheStats = EncryptionUtil.getSecretKeyCacheStats();
+        response.add("secret_key_cache", Json.createObjectBuilder()
+                .add("hit_count", secretKeyCacheStats.hitCount())
+                .add("miss_count", secretKeyCacheStats.missCount())
+                .add("eviction_count", secretKeyCacheStats.evictionCount()));
+
+        CacheStats renditionCacheStats = RenditionCache.getStats();
+        response.add("rendition_cache", Json.createObjectBuilder()
+                .add("hit_count", renditionCacheStats.hitCount())
+                .add("miss_count", renditionCacheStats.missCount())
+                .add("hit_rate", renditionCacheStats.hitRate())
+                .add("eviction_count", renditionCacheStats.evictionCount())
+                .add("memory_usage", RenditionCache.getMemoryUsage())
+                .add("off_heap", RenditionCache.isOffHeap()));
+
+        CacheStats principalCacheStats = PrincipalCache.getStats();
+        response.add("principal_cache", Json.createObjectBuilder()
+                .add("hit_count", principalCacheStats.hitCount())
+                .add("miss_count", principalCacheStats.missCount())
+                .add("hit_rate", principalCacheStats.hitRate())
+                .add("eviction_count", principalCacheStats.evictionCount()));
+
+        JsonObjectBuilder jobs = Json.createObjectBuilder();
+        for (Map.Entry<JobStatus, Long> jobCount : new JobDao().countByStatus().entrySet()) {
+            jobs.add(jobCount.getKey().name().toLowerCase(), jobCount.getValue());
+        }
+        response.add("jobs", jobs);
+
+        JsonObjectBuilder indexing = Json.createObjectBuilder();
+        for (Map.Entry<String, Long> statistic : AppContext.getInstance().getIndexingHandler().getStatistics().entrySet()) {
+            indexing.add(statistic.getKey(), statistic.getValue());
+        }
+        response.add("indexing", indexing);
+
+        StorageBackend storageBackend = StorageUtil.getBackend();
+        if (storageBackend instanceof MigratingStorageBackend) {
+            JsonObjectBuilder storageMigration = Json.createObjectBuilder();
+            for (Map.Entry<String, Long> statistic : ((MigratingStorageBackend) storageBackend).getStatistics().entrySet()) {
+                storageMigration.add(statistic.getKey(), statistic.getValue());
+            }
+            response.add("storage_migration", storageMigration);
+        }
+
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Get the statistics of the database connection pool.
+     *
+     * @api {get} /app/database_pool Get the database connection pool statistics
+     * @apiName GetAppDatabasePool
+     * @apiGroup App
+     * @apiSuccess {String} provider Connection pool (hikari or hibernate), the statistics are only recorded by hikari
+     * @apiSuccess {Number} active Number of connections in use
+     * @apiSuccess {Number} idle Number of connections waiting in the pool
+     * @apiSuccess {Number} total Number of connections opened
+     * @apiSuccess {Number} max Maximum number of connections
+     * @apiSuccess {Number} waiting Number of threads waiting for a connection
+     * @apiSuccess {Number} acquire_count Number of connection requests
+     * @apiSuccess {Number} acquire_time Average time waiting for a connection (in nanoseconds)
+     * @apiSuccess {Number} acquire_time_max Longest time waiting for a connection (in nanoseconds)
+     * @apiSuccess {Number} timeout_count Number of connection requests which timed out
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.9.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("database_pool")
+    public Response getDatabasePool() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        JsonObjectBuilder response = Json.createObjectBuilder();
+        Map<String, Long> statistics = EMF.getPoolStatistics();
+        if (statistics == null) {
+            response.add("provider", "hibernate");
+        } else {
+            response.add("provider", "hikari");
+            for (Map.Entry<String, Long> statistic : statistics.entrySet()) {
+                response.add(statistic.getKey(), statistic.getValue());
+            }
+        }
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Get the LDAP authentication configuration.
      *
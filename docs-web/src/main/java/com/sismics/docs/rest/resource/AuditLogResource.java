@@ -10,6 +10,7 @@ import com.sismics.docs.core.util.SecurityUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.SortCriteria;
+import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.util.JsonUtil;
 
@@ -37,7 +38,9 @@ public class AuditLogResource extends BaseResource {
      * @apiName GetAuditlog
      * @apiGroup Auditlog
      * @apiParam {String} [document] Document ID
+     * @apiParam {String} [cursor] Start after the last log of a page, from its <code>next_cursor</code>
      * @apiSuccess {String} total Total number of logs
+     * @apiSuccess {String} next_cursor Cursor of the next page, null if this page is the last one
      * @apiSuccess {Object[]} logs List of logs
      * @apiSuccess {String} logs.id ID
      * @apiSuccess {String} logs.username Username
@@ -48,19 +51,28 @@ public class AuditLogResource extends BaseResource {
      * @apiSuccess {Number} logs.create_date Create date (timestamp)
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) NotFound Document not found
+     * @apiError (client) ValidationError Validation error
      * @apiPermission user
      * @apiVersion 1.5.0
      *
+     * @param documentId Document ID
+     * @param cursor Cursor of the page
      * @return Response
      */
     @GET
-    public Response list(@QueryParam("document") String documentId) {
+    public Response list(@QueryParam("document") String documentId,
+                         @QueryParam("cursor") String cursor) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
         
         // On a document or a user?
         PaginatedList<AuditLogDto> paginatedList = PaginatedLists.create(20, 0);
+        try {
+            paginatedList.setCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ClientException("ValidationError", "Invalid cursor");
+        }
         SortCriteria sortCriteria = new SortCriteria(1, false);
         AuditLogCriteria criteria = new AuditLogCriteria();
         if (Strings.isNullOrEmpty(documentId)) {
@@ -96,7 +108,8 @@ public class AuditLogResource extends BaseResource {
         // Send the response
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("logs", logs)
-                .add("total", paginatedList.getResultCount());
+                .add("total", paginatedList.getResultCount())
+                .add("next_cursor", JsonUtil.nullable(paginatedList.getNextCursor()));
         return Response.ok().entity(response.build()).build();
     }
 }
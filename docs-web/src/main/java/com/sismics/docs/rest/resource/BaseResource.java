@@ -1,6 +1,8 @@
 package com.sismics.docs.rest.resource;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.security.IPrincipal;
@@ -12,9 +14,14 @@ import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
@@ -54,6 +61,12 @@ public abstract class BaseResource {
      */
     @Context
     protected HttpServletRequest request;
+
+    /**
+     * Injects the JAX-RS request, used to evaluate the conditional headers.
+     */
+    @Context
+    private Request conditionalRequest;
     
     /**
      * Application key.
@@ -106,6 +119,30 @@ public abstract class BaseResource {
         return baseFunctionSet != null && baseFunctionSet.contains(baseFunction.name());
     }
     
+    /**
+     * Build a strong entity tag from the values identifying a version of a resource.
+     *
+     * @param values Values
+     * @return Entity tag
+     */
+    EntityTag buildEntityTag(Object... values) {
+        return new EntityTag(Hashing.murmur3_128().hashString(Joiner.on('|').useForNull("").join(values), StandardCharsets.UTF_8).toString());
+    }
+
+    /**
+     * Evaluate the If-None-Match and If-Modified-Since headers of the request.
+     *
+     * @param entityTag Current entity tag of the resource
+     * @param lastModified Last modification date of the resource (optional)
+     * @return Not modified response builder, or null if the resource must be sent
+     */
+    Response.ResponseBuilder evaluatePreconditions(EntityTag entityTag, Date lastModified) {
+        if (lastModified == null) {
+            return conditionalRequest.evaluatePreconditions(entityTag);
+        }
+        return conditionalRequest.evaluatePreconditions(lastModified, entityTag);
+    }
+
     /**
      * Returns a list of ACL target ID.
      * 
@@ -1,5 +1,6 @@
 package com.sismics.docs.rest.resource;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.sismics.docs.core.constant.AclType;
 import com.sismics.docs.core.constant.ConfigType;
@@ -50,6 +51,7 @@ import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.mime.MimeType;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -62,6 +64,7 @@ import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
 import org.apache.commons.collections4.CollectionUtils;
@@ -96,6 +99,10 @@ import java.util.UUID;
  */
 @Path("/document")
 public class DocumentResource extends BaseResource {
+    /**
+     * Sort columns usable with a cursor, the other ones can be null.
+     */
+    private static final Set<Integer> KEYSET_SORT_COLUMNS = Set.of(0, 1, 3, 4, 8);
 
     /**
      * Returns a document.
@@ -165,11 +172,13 @@ public class DocumentResource extends BaseResource {
      * @apiSuccess {String="STRING","INTEGER","FLOAT","DATE","BOOLEAN"} metadata.type Type
      * @apiSuccess {Object} metadata.value Value
      * @apiError (client) NotFound Document not found
+     * @apiHeader {String} [If-None-Match] Entity tag of the cached document
      * @apiPermission none
      * @apiVersion 1.5.0
      *
      * @param documentId Document ID
      * @param shareId Share ID
+     * @param files Include the files
      * @return Response
      */
     @GET
@@ -271,10 +280,9 @@ public class DocumentResource extends BaseResource {
         MetadataUtil.addMetadata(document, documentId);
 
         // Add files
+        FileDao fileDao = new FileDao();
+        List<File> fileList = fileDao.getByDocumentsIds(Collections.singleton(documentId));
         if (Boolean.TRUE == files) {
-            FileDao fileDao = new FileDao();
-            List<File> fileList = fileDao.getByDocumentsIds(Collections.singleton(documentId));
-
             JsonArrayBuilder filesArrayBuilder = Json.createArrayBuilder();
             for (File fileDb : fileList) {
                 filesArrayBuilder.add(RestUtil.fileToJsonObjectBuilder(fileDb));
@@ -283,7 +291,20 @@ public class DocumentResource extends BaseResource {
             document.add("files", filesArrayBuilder);
         }
 
-        return Response.ok().entity(document.build()).build();
+        // The entity tag is a hash of the response, and of the processing state of the files not always in it
+        JsonObject documentJson = document.build();
+        List<String> fileStateList = new ArrayList<>();
+        for (File fileDb : fileList) {
+            fileStateList.add(fileDb.getId() + ":" + fileDb.getVersion() + ":" + fileDb.getProcessingSignature()
+                    + ":" + FileUtil.isProcessingFile(fileDb.getId()));
+        }
+        EntityTag entityTag = buildEntityTag(documentJson.toString(), Joiner.on(',').join(fileStateList));
+        Response.ResponseBuilder notModifiedBuilder = evaluatePreconditions(entityTag, null);
+        if (notModifiedBuilder != null) {
+            return notModifiedBuilder.tag(entityTag).build();
+        }
+
+        return Response.ok().entity(documentJson).tag(entityTag).build();
     }
 
     /**
@@ -312,6 +333,7 @@ public class DocumentResource extends BaseResource {
      */
     @GET
     @Path("{id: [a-z0-9\\-]+}/pdf")
+    @ReleaseTransaction
     public Response getPdf(
             @PathParam("id") String documentId,
             @QueryParam("share") String shareId,
@@ -369,6 +391,8 @@ public class DocumentResource extends BaseResource {
      * @apiParam {Boolean} [asc] If <code>true</code> sorts in ascending order
      * @apiParam {String} [search] Search query (see "Document search syntax" on the top of the page for explanations) when the input is entered by a human.
      * @apiParam {Boolean} [files] If <code>true</code> includes files information
+     * @apiParam {String} [cursor] Start after the last document of a page, from its <code>next_cursor</code> instead of the offset (not available when sorting on the description, shared or route columns)
+     * @apiParam {Boolean} [estimate_total] If <code>true</code> stops counting the documents after a threshold
      *
      * @apiParam {String} [search[after]] The document must have been created after or at the value moment, accepted format is <code>yyyy-MM-dd</code>
      * @apiParam {String} [search[before]] The document must have been created before or at the value moment, accepted format is <code>yyyy-MM-dd</code>
@@ -386,6 +410,8 @@ public class DocumentResource extends BaseResource {
      * @apiParam {String} [search[workflow]] If the value is <code>me</code> the document must have an active route, for other values the criteria is ignored
      *
      * @apiSuccess {Number} total Total number of documents
+     * @apiSuccess {Boolean} total_estimated True if the total is the counting threshold, there may be more documents
+     * @apiSuccess {String} next_cursor Cursor of the next page, null if this page is the last one
      * @apiSuccess {Object[]} documents List of documents
      * @apiSuccess {String} documents.id ID
      * @apiSuccess {String} documents.highlight Search highlight (for fulltext search)
@@ -412,6 +438,7 @@ public class DocumentResource extends BaseResource {
      * @apiSuccess {String[]} suggestions List of search suggestions
      *
      * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
      * @apiError (server) SearchError Error searching in documents
      * @apiPermission user
      * @apiVersion 1.5.0
@@ -422,6 +449,8 @@ public class DocumentResource extends BaseResource {
      * @param asc Sorting
      * @param search Search query
      * @param files Files list
+     * @param cursor Cursor of the page
+     * @param estimateTotal Estimate the total
      * @return Response
      */
     @GET
@@ -433,6 +462,8 @@ public class DocumentResource extends BaseResource {
             @QueryParam("asc") Boolean asc,
             @QueryParam("search") String search,
             @QueryParam("files") Boolean files,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("estimate_total") Boolean estimateTotal,
 
             @QueryParam("search[after]") String searchCreatedAfter,
             @QueryParam("search[before]") String searchCreatedBefore,
@@ -457,9 +488,20 @@ public class DocumentResource extends BaseResource {
         JsonArrayBuilder documents = Json.createArrayBuilder();
 
         TagDao tagDao = new TagDao();
-        PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(limit, offset);
+        PaginatedList<DocumentDto> paginatedList = PaginatedLists.<DocumentDto>create(limit, offset)
+                .setEstimatedCount(Boolean.TRUE == estimateTotal);
         List<String> suggestionList = Lists.newArrayList();
         SortCriteria sortCriteria = new SortCriteria(sortColumn, asc);
+        if (cursor != null) {
+            if (!KEYSET_SORT_COLUMNS.contains(sortCriteria.getColumn())) {
+                throw new ClientException("ValidationError", "This sort column can't be used with a cursor");
+            }
+            try {
+                paginatedList.setCursor(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new ClientException("ValidationError", "Invalid cursor");
+            }
+        }
 
         List<TagDto> allTagDtoList = tagDao.findByCriteria(new TagCriteria().setTargetIdList(getTargetIdList(null)), null);
 
@@ -490,7 +532,7 @@ public class DocumentResource extends BaseResource {
         }
 
         // Find the files of the documents
-        Iterable<String> documentsIds = CollectionUtils.collect(paginatedList.getResultList(), DocumentDto::getId);
+        Collection<String> documentsIds = CollectionUtils.collect(paginatedList.getResultList(), DocumentDto::getId);
         FileDao fileDao = new FileDao();
         List<File> filesList = null;
         Map<String, Long> filesCountByDocument = null;
@@ -500,11 +542,11 @@ public class DocumentResource extends BaseResource {
             filesCountByDocument = fileDao.countByDocumentsIds(documentsIds);
         }
 
+        // Get tags accessible by the current user on the documents
+        Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIdList(documentsIds, getTargetIdList(null));
+
         for (DocumentDto documentDto : paginatedList.getResultList()) {
-            // Get tags accessible by the current user on this document
-            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
-                    .setTargetIdList(getTargetIdList(null))
-                    .setDocumentId(documentDto.getId()), new SortCriteria(1, true));
+            List<TagDto> tagDtoList = tagDtoMap.getOrDefault(documentDto.getId(), Collections.emptyList());
 
             Long filesCount;
             Collection<File> filesOfDocument = null;
@@ -539,6 +581,8 @@ public class DocumentResource extends BaseResource {
         }
 
         response.add("total", paginatedList.getResultCount())
+                .add("total_estimated", paginatedList.isResultCountEstimated())
+                .add("next_cursor", JsonUtil.nullable(KEYSET_SORT_COLUMNS.contains(sortCriteria.getColumn()) ? paginatedList.getNextCursor() : null))
                 .add("documents", documents)
                 .add("suggestions", suggestions);
 
@@ -560,6 +604,8 @@ public class DocumentResource extends BaseResource {
      * @param asc        Sorting
      * @param search     Search query
      * @param files      Files list
+     * @param cursor     Cursor of the page
+     * @param estimateTotal Estimate the total
      * @return Response
      */
     @POST
@@ -571,6 +617,8 @@ public class DocumentResource extends BaseResource {
             @FormParam("asc") Boolean asc,
             @FormParam("search") String search,
             @FormParam("files") Boolean files,
+            @FormParam("cursor") String cursor,
+            @FormParam("estimate_total") Boolean estimateTotal,
             @FormParam("search[after]") String searchCreatedAfter,
             @FormParam("search[before]") String searchCreatedBefore,
             @FormParam("search[by]") String searchBy,
@@ -593,6 +641,8 @@ public class DocumentResource extends BaseResource {
                 asc,
                 search,
                 files,
+                cursor,
+                estimateTotal,
                 searchCreatedAfter,
                 searchCreatedBefore,
                 searchBy,
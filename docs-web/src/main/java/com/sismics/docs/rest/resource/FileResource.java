@@ -2,6 +2,7 @@ package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
 import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.AclDao;
@@ -15,9 +16,12 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.RenditionCache;
+import com.sismics.docs.core.util.storage.FlatStorageBackend;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
@@ -34,6 +38,7 @@ import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObjectBuilder;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
@@ -41,14 +46,17 @@ import jakarta.ws.rs.core.Response.Status;
 import jakarta.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -76,8 +84,7 @@ public class FileResource extends BaseResource {
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
      * @apiError (client) NotFound Document not found
-     * @apiError (server) StreamError Error reading the input file
-     * @apiError (server) ErrorGuessMime Error guessing mime type
+     * @apiError (client) StreamError Error reading the input file
      * @apiError (client) QuotaReached Quota limit reached
      * @apiError (server) FileError Error adding a file
      * @apiPermission user
@@ -112,28 +119,18 @@ public class FileResource extends BaseResource {
             }
         }
         
-        // Keep unencrypted data temporary on disk
+        // Stream the content straight to the storage
         String name = fileBodyPart.getContentDisposition() != null ?
                 URLDecoder.decode(fileBodyPart.getContentDisposition().getFileName(), StandardCharsets.UTF_8) : null;
-        java.nio.file.Path unencryptedFile;
-        long fileSize;
-        try {
-            unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
-            Files.copy(fileBodyPart.getValueAs(InputStream.class), unencryptedFile, StandardCopyOption.REPLACE_EXISTING);
-            fileSize = Files.size(unencryptedFile);
-        } catch (IOException e) {
-            throw new ServerException("StreamError", "Error reading the input file", e);
-        }
-
-        try {
-            String fileId = FileUtil.createFile(name, previousFileId, unencryptedFile, fileSize, documentDto == null ?
+        try (InputStream inputStream = fileBodyPart.getValueAs(InputStream.class)) {
+            File file = FileUtil.createFile(name, previousFileId, inputStream, documentDto == null ?
                     null : documentDto.getLanguage(), principal.getId(), documentId);
 
             // Always return OK
             JsonObjectBuilder response = Json.createObjectBuilder()
                     .add("status", "ok")
-                    .add("id", fileId)
-                    .add("size", fileSize);
+                    .add("id", file.getId())
+                    .add("size", file.getSize());
             return Response.ok().entity(response.build()).build();
         } catch (IOException e) {
             throw new ClientException(e.getMessage(), e.getMessage(), e);
@@ -198,8 +195,7 @@ public class FileResource extends BaseResource {
         
         // Raise a new file updated event and document updated event (it wasn't sent during file creation)
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+            java.nio.file.Path unencryptedFile = StorageUtil.decryptFile(id, user.getPrivateKey());
             FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent fileUpdatedAsyncEvent = new FileUpdatedAsyncEvent();
             fileUpdatedAsyncEvent.setUserId(principal.getId());
@@ -300,20 +296,13 @@ public class FileResource extends BaseResource {
             throw new NotFoundException();
         }
 
-        // Get the creating user
-        UserDao userDao = new UserDao();
-        User user = userDao.getById(file.getUserId());
-
-        // Start the processing asynchronously
+        // Start the processing asynchronously, the file is decrypted only if it has to be processed again
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
             FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
             event.setUserId(principal.getId());
             event.setLanguage(documentDto.getLanguage());
             event.setFileId(file.getId());
-            event.setUnencryptedFile(unencryptedFile);
             ThreadLocalContext.get().addAsyncEvent(event);
         } catch (Exception e) {
             throw new ServerException("ProcessingError", "Error processing this file", e);
@@ -395,6 +384,7 @@ public class FileResource extends BaseResource {
      * @apiSuccess {Object[]} files List of files
      * @apiSuccess {String} files.id ID
      * @apiSuccess {String} files.processing True if the file is currently processing
+     * @apiSuccess {Number} files.processing_progress Progress of the text extraction (in percent), if known
      * @apiSuccess {String} files.name File name
      * @apiSuccess {String} files.version Zero-based version number
      * @apiSuccess {String} files.mimetype MIME type
@@ -551,7 +541,11 @@ public class FileResource extends BaseResource {
      * @apiParam {String} id File ID
      * @apiParam {String} share Share ID
      * @apiParam {String="web","thumb","content"} [size] Size variation
-     * @apiSuccess {Object} file The file data is the whole response
+     * @apiHeader {String} [Range] Byte ranges to return
+     * @apiHeader {String} [If-Range] Entity tag the ranges apply to
+     * @apiHeader {String} [If-None-Match] Entity tag of the cached file
+     * @apiHeader {String} [If-Modified-Since] Date of the cached file
+     * @apiSuccess {Object} file The file data is the whole response, or the requested ranges
      * @apiError (client) SizeError Size must be web or thumb
      * @apiError (client) ForbiddenError Access denied or document not visible
      * @apiError (client) NotFound File not found
@@ -560,15 +554,22 @@ public class FileResource extends BaseResource {
      * @apiVersion 1.5.0
      *
      * @param fileId File ID
+     * @param shareId Share ID
+     * @param size Size variation
+     * @param rangeHeader Range header
+     * @param ifRangeHeader If-Range header
      * @return Response
      */
     @GET
     @Path("{id: [a-z0-9\\-]+}/data")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @ReleaseTransaction
     public Response data(
             @PathParam("id") final String fileId,
             @QueryParam("share") String shareId,
-            @QueryParam("size") String size) {
+            @QueryParam("size") String size,
+            @HeaderParam("Range") String rangeHeader,
+            @HeaderParam("If-Range") String ifRangeHeader) {
         authenticate();
         
         if (size != null && !Lists.newArrayList("web", "thumb", "content").contains(size)) {
@@ -580,69 +581,137 @@ public class FileResource extends BaseResource {
 
         // Get the stored file
         UserDao userDao = new UserDao();
-        java.nio.file.Path storedFile;
+        StorageBackend backend = StorageUtil.getBackend();
+        String storageKey;
         String mimeType;
         boolean decrypt;
         if (size != null) {
             if (size.equals("content")) {
-                return Response.ok(Strings.nullToEmpty(file.getContent()))
+                return Response.ok(Strings.nullToEmpty(new FileDao().getContent(fileId)))
                         .header(HttpHeaders.CONTENT_TYPE, "text/plain; charset=utf-8")
                         .build();
             }
 
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_" + size);
+            storageKey = fileId + "_" + size;
             mimeType = MimeType.IMAGE_JPEG; // Thumbnails are JPEG
             decrypt = true; // Thumbnails are encrypted
-            if (!Files.exists(storedFile)) {
-                try {
-                    storedFile = Paths.get(getClass().getResource("/image/file-" + size + ".png").toURI());
-                } catch (URISyntaxException e) {
-                    // Ignore
+            try {
+                if (!backend.exists(storageKey)) {
+                    // Serve the default image from the classpath
+                    backend = new FlatStorageBackend(Paths.get(getClass().getResource("/image").toURI()));
+                    storageKey = "file-" + size + ".png";
+                    mimeType = MimeType.IMAGE_PNG;
+                    decrypt = false;
                 }
-                mimeType = MimeType.IMAGE_PNG;
-                decrypt = false;
+            } catch (IOException | URISyntaxException e) {
+                return Response.status(Status.SERVICE_UNAVAILABLE).build();
             }
         } else {
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
+            storageKey = fileId;
             mimeType = file.getMimeType();
             decrypt = true; // Original files are encrypted
         }
         
-        // Stream the output and decrypt it if necessary
-        StreamingOutput stream;
-        
+        long length;
+        Date lastModified;
+        try {
+            length = backend.size(storageKey);
+            lastModified = new Date(backend.getLastModified(storageKey));
+        } catch (IOException e) {
+            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        // Answer conditional requests before decrypting anything, the thumbnails are regenerated in place
+        EntityTag entityTag = null;
+        if (decrypt) {
+            entityTag = buildEntityTag(file.getId(), file.getVersion(), size, lastModified.getTime(), length);
+            Response.ResponseBuilder notModifiedBuilder = evaluatePreconditions(entityTag, lastModified);
+            if (notModifiedBuilder != null) {
+                return notModifiedBuilder.tag(entityTag)
+                        .header(HttpHeaders.CACHE_CONTROL, "private")
+                        .build();
+            }
+        }
+
         // A file is always encrypted by the creator of it
         User user = userDao.getById(file.getUserId());
-        
-        // Write the decrypted file to the output
-        try {
-            InputStream fileInputStream = Files.newInputStream(storedFile);
-            final InputStream responseInputStream = decrypt ?
-                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey()) : fileInputStream;
-                    
-            stream = outputStream -> {
+        final String privateKey = decrypt ? user.getPrivateKey() : null;
+        final StorageBackend responseBackend = backend;
+        final String responseKey = storageKey;
+        final String responseMimeType = mimeType;
+        final String renditionVersion = file.getProcessingSignature() + "_" + lastModified.getTime() + "_" + length;
+
+        // Find the requested ranges, the decrypted file has the same length as the stored one
+        // If the client has an outdated version, the whole file is sent
+        boolean rangeApplicable = ifRangeHeader == null || entityTag != null && ifRangeHeader.equals(entityTag.toString());
+        List<Range<Long>> rangeList = rangeApplicable ? HttpUtil.parseRange(rangeHeader, length) : null;
+
+        Response.ResponseBuilder builder;
+        if (rangeList == null) {
+            // Stream the whole file, decrypted renditions are kept in memory
+            boolean cachedRendition = size != null && decrypt && RenditionCache.isEnabled();
+            builder = Response.ok((StreamingOutput) outputStream -> {
                 try {
-                    ByteStreams.copy(responseInputStream, outputStream);
-                } finally {
-                    try {
-                        responseInputStream.close();
-                        outputStream.close();
-                    } catch (IOException e) {
-                        // Ignore
+                    if (cachedRendition) {
+                        Channels.newChannel(outputStream).write(getRendition(fileId, size, renditionVersion, privateKey));
+                    } else {
+                        try (InputStream inputStream = openFile(responseBackend, responseKey, privateKey, 0)) {
+                            ByteStreams.copy(inputStream, outputStream);
+                        }
                     }
+                } finally {
+                    outputStream.close();
                 }
-            };
-        } catch (Exception e) {
-            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+            });
+            builder.header(HttpHeaders.CONTENT_LENGTH, length)
+                    .header(HttpHeaders.CONTENT_TYPE, mimeType);
+        } else if (rangeList.isEmpty()) {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+        } else if (rangeList.size() == 1) {
+            // Stream a single part of the file
+            Range<Long> range = rangeList.get(0);
+            builder = Response.status(Status.PARTIAL_CONTENT)
+                    .entity((StreamingOutput) outputStream -> {
+                        try {
+                            copyRange(responseBackend, responseKey, privateKey, range, outputStream);
+                        } finally {
+                            outputStream.close();
+                        }
+                    })
+                    .header("Content-Range", buildContentRange(range, length))
+                    .header(HttpHeaders.CONTENT_LENGTH, range.upperEndpoint() - range.lowerEndpoint() + 1)
+                    .header(HttpHeaders.CONTENT_TYPE, mimeType);
+        } else {
+            // Stream multiple parts of the file
+            String boundary = UUID.randomUUID().toString();
+            builder = Response.status(Status.PARTIAL_CONTENT)
+                    .entity((StreamingOutput) outputStream -> {
+                        try {
+                            for (Range<Long> range : rangeList) {
+                                outputStream.write(("\r\n--" + boundary + "\r\n"
+                                        + HttpHeaders.CONTENT_TYPE + ": " + responseMimeType + "\r\n"
+                                        + "Content-Range: " + buildContentRange(range, length) + "\r\n\r\n")
+                                        .getBytes(StandardCharsets.US_ASCII));
+                                copyRange(responseBackend, responseKey, privateKey, range, outputStream);
+                            }
+                            outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                        } finally {
+                            outputStream.close();
+                        }
+                    })
+                    .header(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
         }
 
-        Response.ResponseBuilder builder = Response.ok(stream)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, mimeType);
+        builder.header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
+                .header("Accept-Ranges", "bytes");
         if (decrypt) {
             // Cache real files
             builder.header(HttpHeaders.CACHE_CONTROL, "private")
-                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L));
+                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L))
+                    .tag(entityTag)
+                    .lastModified(lastModified);
         } else {
             // Do not cache the temporary thumbnail
             builder.header(HttpHeaders.CACHE_CONTROL, "no-store, must-revalidate")
@@ -651,6 +720,77 @@ public class FileResource extends BaseResource {
         return builder.build();
     }
 
+    /**
+     * Returns a decrypted rendition from the renditions cache.
+     *
+     * @param fileId File ID
+     * @param size Rendition size
+     * @param version Version of the stored rendition
+     * @param privateKey Private key used to encrypt the file
+     * @return Decrypted rendition
+     * @throws IOException e
+     */
+    private ByteBuffer getRendition(String fileId, String size, String version, String privateKey) throws IOException {
+        try {
+            return RenditionCache.get(fileId, size, version, privateKey);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to decrypt the rendition " + fileId + "_" + size, e);
+        }
+    }
+
+    /**
+     * Open a stored file from an offset, and decrypt it if necessary.
+     *
+     * @param backend Storage backend
+     * @param storageKey Key of the stored file
+     * @param privateKey Private key of the file creator, null if the file is not encrypted
+     * @param offset Offset
+     * @return Decrypted stream
+     * @throws IOException e
+     */
+    private InputStream openFile(StorageBackend backend, String storageKey, String privateKey, long offset) throws IOException {
+        // Seek in the file and in the cipher counter, nothing before the offset is read
+        InputStream inputStream = backend.newInputStream(storageKey, offset);
+        if (privateKey == null) {
+            return inputStream;
+        }
+        try {
+            return EncryptionUtil.decryptInputStream(inputStream, privateKey, offset);
+        } catch (Exception e) {
+            inputStream.close();
+            throw new IOException("Error decrypting the file", e);
+        }
+    }
+
+    /**
+     * Copy a range of a stored file to an output stream.
+     *
+     * @param backend Storage backend
+     * @param storageKey Key of the stored file
+     * @param privateKey Private key of the file creator, null if the file is not encrypted
+     * @param range Byte range (inclusive)
+     * @param outputStream Output stream
+     * @throws IOException e
+     */
+    private void copyRange(StorageBackend backend, String storageKey, String privateKey, Range<Long> range, OutputStream outputStream) throws IOException {
+        try (InputStream inputStream = openFile(backend, storageKey, privateKey, range.lowerEndpoint())) {
+            ByteStreams.copy(ByteStreams.limit(inputStream, range.upperEndpoint() - range.lowerEndpoint() + 1), outputStream);
+        }
+    }
+
+    /**
+     * Build a Content-Range HTTP header.
+     *
+     * @param range Byte range (inclusive)
+     * @param length Total length
+     * @return Header value
+     */
+    private String buildContentRange(Range<Long> range, long length) {
+        return "bytes " + range.lowerEndpoint() + "-" + range.upperEndpoint() + "/" + length;
+    }
+
     /**
      * Returns all files from a document, zipped.
      *
@@ -672,6 +812,7 @@ public class FileResource extends BaseResource {
     @GET
     @Path("zip")
     @Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.TEXT_PLAIN})
+    @ReleaseTransaction
     public Response zip(
             @QueryParam("id") String documentId,
             @QueryParam("share") String shareId) {
@@ -710,6 +851,7 @@ public class FileResource extends BaseResource {
     @POST
     @Path("zip")
     @Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.TEXT_PLAIN})
+    @ReleaseTransaction
     public Response zip(
             @FormParam("files") List<String> filesIdsList) {
         authenticate();
@@ -721,7 +863,13 @@ public class FileResource extends BaseResource {
      * Sent the content of a list of files.
      */
     private Response sendZippedFiles(String zipFileName, List<File> fileList) {
-        final UserDao userDao = new UserDao();
+        UserDao userDao = new UserDao();
+        for (File file : fileList) {
+            // Files are encrypted by the creator of them
+            // Store its private key to decrypt it, the database is released before the ZIP stream is written
+            User user = userDao.getById(file.getUserId());
+            file.setPrivateKey(user.getPrivateKey());
+        }
 
         // Create the ZIP stream
         StreamingOutput stream = outputStream -> {
@@ -729,13 +877,10 @@ public class FileResource extends BaseResource {
                 // Add each file to the ZIP stream
                 int index = 0;
                 for (File file : fileList) {
-                    java.nio.file.Path storedfile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-                    InputStream fileInputStream = Files.newInputStream(storedfile);
+                    InputStream fileInputStream = StorageUtil.getBackend().newInputStream(file.getId());
 
                     // Add the decrypted file to the ZIP stream
-                    // Files are encrypted by the creator of them
-                    User user = userDao.getById(file.getUserId());
-                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey())) {
+                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, file.getPrivateKey())) {
                         ZipEntry zipEntry = new ZipEntry(index + "-" + file.getFullName(Integer.toString(index)));
                         zipOutputStream.putNextEntry(zipEntry);
                         ByteStreams.copy(decryptedStream, zipOutputStream);
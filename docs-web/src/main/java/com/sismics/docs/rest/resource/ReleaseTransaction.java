@@ -0,0 +1,20 @@
+package com.sismics.docs.rest.resource;
+
+import jakarta.ws.rs.NameBinding;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The request transaction is committed and its connection released before the response body is written.
+ * Used by the resources streaming large bodies to slow clients, the body must not use the database.
+ *
+ * @author bgamard
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface ReleaseTransaction {
+}
@@ -0,0 +1,28 @@
+package com.sismics.docs.rest.resource;
+
+import com.sismics.docs.core.util.TransactionUtil;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Commit the request transaction of the resources annotated with {@link ReleaseTransaction}
+ * once they have built their response, before its body is written.
+ * The failed requests are left to the request context filter, which rolls them back.
+ *
+ * @author bgamard
+ */
+@Provider
+@ReleaseTransaction
+public class ReleaseTransactionFilter implements ContainerResponseFilter {
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Response.Status.Family family = responseContext.getStatusInfo().getFamily();
+        if (family == Response.Status.Family.SUCCESSFUL || family == Response.Status.Family.REDIRECTION) {
+            TransactionUtil.release();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.model.jpa.Config;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ClientException;
@@ -19,6 +20,7 @@ import org.glassfish.jersey.media.multipart.FormDataParam;
 
 import jakarta.json.*;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
@@ -28,6 +30,7 @@ import java.io.OutputStream;
 import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Date;
 import java.util.Map;
 
 /**
@@ -44,6 +47,7 @@ public class ThemeResource extends BaseResource {
      * @apiName GetThemeStylesheet
      * @apiGroup Theme
      * @apiSuccess {String} stylesheet The whole response is the stylesheet
+     * @apiHeader {String} [If-None-Match] Entity tag of the cached stylesheet
      * @apiPermission none
      * @apiVersion 1.5.0
      *
@@ -60,8 +64,14 @@ public class ThemeResource extends BaseResource {
     	sb.append(new Selector(".navbar")
             .rule("background-color", themeConfig.getString("color", "#ffffff")));
         sb.append(themeConfig.getString("css", ""));
+        String stylesheet = sb.toString();
 
-        return Response.ok().entity(sb.toString()).build();
+        EntityTag entityTag = buildEntityTag(stylesheet);
+        Response.ResponseBuilder notModifiedBuilder = evaluatePreconditions(entityTag, null);
+        if (notModifiedBuilder != null) {
+            return notModifiedBuilder.tag(entityTag).build();
+        }
+        return Response.ok().entity(stylesheet).tag(entityTag).build();
     }
 
     /**
@@ -199,6 +209,8 @@ public class ThemeResource extends BaseResource {
      * @apiGroup Theme
      * @apiParam {String="logo","background"} type Image type
      * @apiSuccess {String} image The whole response is the image
+     * @apiHeader {String} [If-None-Match] Entity tag of the cached image
+     * @apiHeader {String} [If-Modified-Since] Date of the cached image
      * @apiPermission none
      * @apiVersion 1.5.0
      *
@@ -211,6 +223,26 @@ public class ThemeResource extends BaseResource {
     public Response getImage(@PathParam("type") final String type) {
         final java.nio.file.Path filePath = DirectoryUtil.getThemeDirectory().resolve(type);
 
+        // The default images only change with the application version
+        EntityTag entityTag;
+        Date lastModified = null;
+        try {
+            if (Files.exists(filePath)) {
+                lastModified = new Date(Files.getLastModifiedTime(filePath).toMillis());
+                entityTag = buildEntityTag(type, lastModified.getTime(), Files.size(filePath));
+            } else {
+                entityTag = buildEntityTag(type, ConfigUtil.getConfigBundle().getString("api.current_version"));
+            }
+        } catch (IOException e) {
+            throw new ServerException("ImageError", "Error reading the image", e);
+        }
+        Response.ResponseBuilder notModifiedBuilder = evaluatePreconditions(entityTag, lastModified);
+        if (notModifiedBuilder != null) {
+            return notModifiedBuilder.tag(entityTag)
+                    .header(HttpHeaders.CACHE_CONTROL, "public")
+                    .build();
+        }
+
         // Copy the image to the response output
         return Response.ok(new StreamingOutput() {
             @Override
@@ -238,6 +270,8 @@ public class ThemeResource extends BaseResource {
         .header(HttpHeaders.CONTENT_TYPE, "image/*")
         .header(HttpHeaders.CACHE_CONTROL, "public")
         .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 15L))
+        .tag(entityTag)
+        .lastModified(lastModified)
         .build();
     }
 
@@ -325,6 +325,14 @@ public class TestAclResource extends BaseJerseyTest {
         JsonArray documents = json.getJsonArray("documents");
         Assert.assertEquals(0, documents.size());
 
+        // acltag2 cannot find any document with a fulltext search
+        json = target().path("/document/list")
+                .queryParam("search", "full:super")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, acltag2Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(0, json.getJsonArray("documents").size());
+
         // acltag2 cannot edit tag1
         response = target().path("/tag/" + tag1Id).request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, acltag2Token)
@@ -406,6 +414,16 @@ public class TestAclResource extends BaseJerseyTest {
         documents = json.getJsonArray("documents");
         Assert.assertEquals(1, documents.size());
 
+        // acltag2 finds document1 with a fulltext search, readable through tag1
+        json = target().path("/document/list")
+                .queryParam("search", "full:super")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, acltag2Token)
+                .get(JsonObject.class);
+        documents = json.getJsonArray("documents");
+        Assert.assertEquals(1, documents.size());
+        Assert.assertEquals(document1Id, documents.getJsonObject(0).getString("id"));
+
         // Add an ACL WRITE for acltag2 with acltag1 on tag1
         target().path("/acl").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, acltag1Token)
@@ -62,6 +62,23 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertEquals("eng", json.getString("default_language"));
         Assert.assertTrue(json.containsKey("global_storage_current"));
         Assert.assertTrue(json.getJsonNumber("active_user_count").longValue() > 0);
+        Assert.assertFalse(json.containsKey("jobs"));
+
+        // Anonymous users cannot read the statistics
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), target().path("/app/stats").request()
+                .get().getStatus());
+
+        // Check the application statistics
+        json = target().path("/app/stats").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        JsonObject jobs = json.getJsonObject("jobs");
+        Assert.assertTrue(jobs.containsKey("pending"));
+        Assert.assertTrue(jobs.containsKey("running"));
+        Assert.assertTrue(jobs.containsKey("failed"));
+        Assert.assertTrue(json.containsKey("secret_key_cache"));
+        Assert.assertTrue(json.containsKey("rendition_cache"));
+        Assert.assertTrue(json.containsKey("principal_cache"));
 
         // Rebuild Lucene index
         Response response = target().path("/app/batch/reindex").request()
@@ -69,6 +86,14 @@ public class TestAppResource extends BaseJerseyTest {
                 .post(Entity.form(new Form()));
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
 
+        // Check the rebuild progress
+        json = target().path("/app/stats").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        JsonObject indexing = json.getJsonObject("indexing");
+        Assert.assertEquals(0, indexing.getJsonNumber("rebuild_running").longValue());
+        Assert.assertEquals(indexing.getJsonNumber("rebuild_total").longValue(), indexing.getJsonNumber("rebuild_indexed").longValue());
+
         // Clean storage
         response = target().path("/app/batch/clean_storage").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
@@ -132,6 +157,26 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertTrue(date3 >= date4);
     }
 
+    /**
+     * Test the database connection pool statistics.
+     */
+    @Test
+    public void testDatabasePool() {
+        // Login admin
+        String adminToken = adminToken();
+
+        // Anonymous users cannot read the statistics
+        Response response = target().path("/app/database_pool").request()
+                .get();
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), response.getStatus());
+
+        // The tests use the Hibernate pool
+        JsonObject json = target().path("/app/database_pool").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertEquals("hibernate", json.getString("provider"));
+    }
+
     /**
      * Test the guest login.
      */
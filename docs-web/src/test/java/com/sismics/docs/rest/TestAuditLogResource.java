@@ -9,6 +9,8 @@ import jakarta.json.JsonObject;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Test the audit log resource.
@@ -119,6 +121,36 @@ public class TestAuditLogResource extends BaseJerseyTest {
         Assert.assertEquals(countByClass(logs, "Acl"), 2);
         Assert.assertEquals(countByClass(logs, "File"), 1);
 
+        // Get the logs of the current user by pages
+        for (int i = 0; i < 20; i++) {
+            target().path("/tag").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                    .put(Entity.form(new Form()
+                            .param("name", "PageTag" + i)
+                            .param("color", "#ffff00")), JsonObject.class);
+        }
+        json = target().path("/auditlog").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .get(JsonObject.class);
+        int total = json.getInt("total");
+        logs = json.getJsonArray("logs");
+        Assert.assertEquals(20, logs.size());
+        Set<String> logIdSet = new HashSet<>();
+        for (int i = 0; i < logs.size(); i++) {
+            logIdSet.add(logs.getJsonObject(i).getString("id"));
+        }
+        json = target().path("/auditlog")
+                .queryParam("cursor", json.getString("next_cursor"))
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .get(JsonObject.class);
+        logs = json.getJsonArray("logs");
+        Assert.assertEquals(total - 20, logs.size());
+        for (int i = 0; i < logs.size(); i++) {
+            Assert.assertTrue(logIdSet.add(logs.getJsonObject(i).getString("id")));
+        }
+        Assert.assertTrue(json.isNull("next_cursor"));
+
         // Delete auditlog1
         String adminToken = adminToken();
         target().path("/user/auditlog1").request()
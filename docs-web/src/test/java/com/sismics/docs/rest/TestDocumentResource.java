@@ -2,7 +2,9 @@ package com.sismics.docs.rest;
 
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.storage.FileSystemStorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
+import com.sismics.docs.rest.resource.ThirdPartyWebhookResource;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
@@ -15,11 +17,15 @@ import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Exhaustive test of the document resource.
@@ -288,6 +294,47 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertFalse(json.containsKey("files"));
         Assert.assertEquals(file1Id, json.getString("file_id"));
 
+        // Get the unchanged document conditionally
+        Response response = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get();
+        String entityTag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(entityTag);
+        long updateDate = response.readEntity(JsonObject.class).getJsonNumber("update_date").longValue();
+        response = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, entityTag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
+
+        // Share document 1 with guest, the cached document is outdated
+        target().path("/acl").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .put(Entity.form(new Form()
+                        .param("source", document1Id)
+                        .param("perm", "READ")
+                        .param("target", "guest")
+                        .param("type", "USER")), JsonObject.class);
+        response = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, entityTag)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertNotEquals(entityTag, response.getHeaderString(HttpHeaders.ETAG));
+        Assert.assertEquals(updateDate, response.readEntity(JsonObject.class).getJsonNumber("update_date").longValue());
+        entityTag = response.getHeaderString(HttpHeaders.ETAG);
+
+        // Unshare document 1
+        target().path("/acl/" + document1Id + "/READ/guest").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .delete(JsonObject.class);
+        response = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, entityTag)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        entityTag = response.getHeaderString(HttpHeaders.ETAG);
+
         // Create a tag
         json = target().path("/tag").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
@@ -322,7 +369,7 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals(document2Id, json.getString("id"));
 
         // Export a document in PDF format
-        Response response = target().path("/document/" + document1Id + "/pdf")
+        response = target().path("/document/" + document1Id + "/pdf")
                 .queryParam("margin", "10")
                 .queryParam("metadata", "true")
                 .queryParam("comments", "true")
@@ -332,7 +379,7 @@ public class TestDocumentResource extends BaseJerseyTest {
                 .get();
         InputStream is = (InputStream) response.getEntity();
         byte[] pdfBytes = ByteStreams.toByteArray(is);
-        Assert.assertTrue(pdfBytes.length > 0);
+        Assert.assertEquals("%PDF", new String(pdfBytes, 0, 4, StandardCharsets.US_ASCII));
 
         // Search documents by query
         json = target().path("/document/list")
@@ -363,9 +410,12 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("image/png", files.getJsonObject(0).getString("mimetype"));
 
         // Get document 1
-        json = target().path("/document/" + document1Id).request()
+        response = target().path("/document/" + document1Id).request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
-                .get(JsonObject.class);
+                .header(HttpHeaders.IF_NONE_MATCH, entityTag)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        json = response.readEntity(JsonObject.class);
         Assert.assertTrue(json.getString("title").contains("new"));
         Assert.assertTrue(json.getString("description").contains("new"));
         Assert.assertTrue(json.getString("subject").contains("new"));
@@ -418,9 +468,9 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
 
         // Check that the associated files are deleted from FS
-        java.io.File storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id).toFile();
-        java.io.File webFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_web").toFile();
-        java.io.File thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_thumb").toFile();
+        java.io.File storedFile = ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(file1Id).toFile();
+        java.io.File webFile = ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(file1Id + "_web").toFile();
+        java.io.File thumbnailFile = ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(file1Id + "_thumb").toFile();
         Assert.assertFalse(storedFile.exists());
         Assert.assertFalse(webFile.exists());
         Assert.assertFalse(thumbnailFile.exists());
@@ -814,6 +864,72 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("application/pdf", files.getJsonObject(1).getString("mimetype"));
     }
 
+    /**
+     * Test the pagination of the documents list with a cursor.
+     */
+    @Test
+    public void testDocumentListCursor() {
+        // Login document_cursor
+        clientUtil.createUser("document_cursor");
+        String documentCursorToken = clientUtil.login("document_cursor");
+
+        // Create 3 documents with the same title
+        Set<String> documentIdSet = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            documentIdSet.add(clientUtil.createDocument(documentCursorToken));
+        }
+
+        // Get the first page
+        JsonObject json = target().path("/document/list")
+                .queryParam("limit", 2)
+                .queryParam("sort_column", 1)
+                .queryParam("asc", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentCursorToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(3, json.getInt("total"));
+        Assert.assertFalse(json.getBoolean("total_estimated"));
+        JsonArray documents = json.getJsonArray("documents");
+        Assert.assertEquals(2, documents.size());
+        Assert.assertTrue(documentIdSet.remove(documents.getJsonObject(0).getString("id")));
+        Assert.assertTrue(documentIdSet.remove(documents.getJsonObject(1).getString("id")));
+        String cursor = json.getString("next_cursor");
+
+        // Get the next page from the cursor
+        json = target().path("/document/list")
+                .queryParam("limit", 2)
+                .queryParam("sort_column", 1)
+                .queryParam("asc", true)
+                .queryParam("cursor", cursor)
+                .queryParam("estimate_total", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentCursorToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(3, json.getInt("total"));
+        Assert.assertFalse(json.getBoolean("total_estimated"));
+        documents = json.getJsonArray("documents");
+        Assert.assertEquals(1, documents.size());
+        Assert.assertTrue(documentIdSet.remove(documents.getJsonObject(0).getString("id")));
+        Assert.assertTrue(json.isNull("next_cursor"));
+
+        // A cursor can't be used on a nullable column
+        Response response = target().path("/document/list")
+                .queryParam("sort_column", 2)
+                .queryParam("cursor", cursor)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentCursorToken)
+                .get();
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+
+        // Invalid cursor
+        response = target().path("/document/list")
+                .queryParam("cursor", "%%%")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentCursorToken)
+                .get();
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+    }
+
     /**
      * Test custom metadata.
      */
@@ -999,4 +1115,67 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("BOOLEAN", meta.getString("type"));
         Assert.assertTrue(meta.getBoolean("value"));
     }
+
+    /**
+     * Test the transaction released before writing the response.
+     */
+    @Test
+    public void testReleaseTransaction() {
+        // Login document_release
+        clientUtil.createUser("document_release");
+        String documentReleaseToken = clientUtil.login("document_release");
+        String adminToken = adminToken();
+
+        // Create a document
+        String document1Id = clientUtil.createDocument(documentReleaseToken);
+
+        // Create a webhook
+        target().path("/webhook").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("event", "DOCUMENT_UPDATED")
+                        .param("url", "http://localhost:" + getPort() + "/docs/thirdpartywebhook")), JsonObject.class);
+
+        // The changes are committed before the response is streamed
+        Response response = target().path("/releasetransactiontest").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentReleaseToken)
+                .post(Entity.form(new Form()
+                        .param("id", document1Id)
+                        .param("title", "Released title")
+                        .param("status", "200")));
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("true", response.readEntity(String.class));
+        JsonObject json = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentReleaseToken)
+                .get(JsonObject.class);
+        Assert.assertEquals("Released title", json.getString("title"));
+
+        // The async events are fired after the release
+        JsonObject payload = ThirdPartyWebhookResource.getLastPayload();
+        Assert.assertEquals("DOCUMENT_UPDATED", payload.getString("event"));
+        Assert.assertEquals(document1Id, payload.getString("id"));
+
+        // The failed requests are not released and rolled back
+        response = target().path("/releasetransactiontest").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentReleaseToken)
+                .post(Entity.form(new Form()
+                        .param("id", document1Id)
+                        .param("title", "Rolled back title")
+                        .param("status", "400")));
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("false", response.readEntity(String.class));
+        json = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentReleaseToken)
+                .get(JsonObject.class);
+        Assert.assertEquals("Released title", json.getString("title"));
+
+        // Delete the webhook
+        json = target().path("/webhook")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        target().path("/webhook/" + json.getJsonArray("webhooks").getJsonObject(0).getString("id")).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .delete(JsonObject.class);
+    }
 }
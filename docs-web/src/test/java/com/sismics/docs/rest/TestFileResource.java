@@ -2,7 +2,8 @@ package com.sismics.docs.rest;
 
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.storage.FileSystemStorageBackend;
+import com.sismics.docs.core.util.storage.StorageUtil;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import com.sismics.util.mime.MimeType;
 import com.sismics.util.mime.MimeTypeUtil;
@@ -16,12 +17,15 @@ import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.zip.ZipInputStream;
 
@@ -57,8 +61,53 @@ public class TestFileResource extends BaseJerseyTest {
                 .get();
         InputStream is = (InputStream) response.getEntity();
         byte[] fileBytes = ByteStreams.toByteArray(is);
-        Assert.assertTrue(fileBytes.length > 0);
-        
+        Assert.assertArrayEquals(Resources.toByteArray(Resources.getResource(FILE_PIA_00452_JPG)), fileBytes);
+        Assert.assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+
+        // Get the unchanged file data conditionally
+        String entityTag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(entityTag);
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, entityTag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
+
+        // Get a range of an outdated version of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=0-9")
+                .header("If-Range", "\"outdated\"")
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Get a range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=1000-2999")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes 1000-2999/" + fileBytes.length, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, 1000, 3000), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get multiple ranges of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=0-9,-10")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertTrue(response.getHeaderString(HttpHeaders.CONTENT_TYPE).startsWith("multipart/byteranges"));
+        String multipart = new String(ByteStreams.toByteArray((InputStream) response.getEntity()), StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(multipart.contains("Content-Range: bytes 0-9/" + fileBytes.length));
+        Assert.assertTrue(multipart.contains(new String(Arrays.copyOfRange(fileBytes, fileBytes.length - 10, fileBytes.length), StandardCharsets.ISO_8859_1)));
+
+        // Get an unsatisfiable range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=" + fileBytes.length + "-")
+                .get();
+        Assert.assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE, Status.fromStatusCode(response.getStatus()));
+
         // Get the thumbnail data
         response = target().path("/file/" + file1Id + "/data")
                 .queryParam("size", "thumb")
@@ -90,7 +139,7 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertTrue(fileBytes.length > 0);
         
         // Check that the files are not readable directly from FS
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id);
+        Path storedFile = ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(file1Id);
         Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(storedFile, null));
 
         // Get all files from a document
@@ -168,9 +217,9 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
         
         // Check that files are deleted from FS
-        storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id);
-        Path webFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_web");
-        Path thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_thumb");
+        storedFile = ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(file1Id);
+        Path webFile = ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(file1Id + "_web");
+        Path thumbnailFile = ((FileSystemStorageBackend) StorageUtil.getBackend()).resolve(file1Id + "_thumb");
         Assert.assertFalse(Files.exists(storedFile));
         Assert.assertFalse(Files.exists(webFile));
         Assert.assertFalse(Files.exists(thumbnailFile));
@@ -252,6 +301,39 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertEquals(file3Id, files.getJsonObject(0).getString("id"));
         Assert.assertEquals("document.txt", files.getJsonObject(0).getString("name"));
         Assert.assertEquals(1, files.getJsonObject(0).getInt("version"));
+
+        // Add a new version with the same content, its processing is reused
+        String file4Id;
+        try (InputStream is0 = Resources.getResource("file/document.txt").openStream()) {
+            StreamDataBodyPart streamDataBodyPart = new StreamDataBodyPart("file", is0, "document.txt");
+            try (FormDataMultiPart multiPart = new FormDataMultiPart()) {
+                json = target()
+                        .register(MultiPartFeature.class)
+                        .path("/file").request()
+                        .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                        .put(Entity.entity(
+                                multiPart
+                                        .field("id", document1Id)
+                                        .field("previousFileId", file3Id)
+                                        .bodyPart(streamDataBodyPart),
+                                MediaType.MULTIPART_FORM_DATA_TYPE), JsonObject.class);
+                file4Id = json.getString("id");
+            }
+        }
+
+        // The content is the same as the previous version
+        String file3Content = target().path("/file/" + file3Id + "/data")
+                .queryParam("size", "content")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .get(String.class);
+        String file4Content = target().path("/file/" + file4Id + "/data")
+                .queryParam("size", "content")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .get(String.class);
+        Assert.assertFalse(file4Content.isEmpty());
+        Assert.assertEquals(file3Content, file4Content);
     }
     
     @Test
@@ -276,6 +358,7 @@ public class TestFileResource extends BaseJerseyTest {
         InputStream is = (InputStream) response.getEntity();
         ZipInputStream zipInputStream = new ZipInputStream(is);
         Assert.assertEquals(zipInputStream.getNextEntry().getName(), "0-PIA00452.jpg");
+        Assert.assertArrayEquals(Resources.toByteArray(Resources.getResource(FILE_PIA_00452_JPG)), ByteStreams.toByteArray(zipInputStream));
         Assert.assertNull(zipInputStream.getNextEntry());
 
         // Fail if we don't have access to the document
@@ -302,7 +385,9 @@ public class TestFileResource extends BaseJerseyTest {
         is = (InputStream) response.getEntity();
         zipInputStream = new ZipInputStream(is);
         Assert.assertNotNull(zipInputStream.getNextEntry().getName());
+        Assert.assertTrue(ByteStreams.toByteArray(zipInputStream).length > 0);
         Assert.assertNotNull(zipInputStream.getNextEntry().getName());
+        Assert.assertTrue(ByteStreams.toByteArray(zipInputStream).length > 0);
         Assert.assertNull(zipInputStream.getNextEntry());
         
         // Fail if we don't have access to the files
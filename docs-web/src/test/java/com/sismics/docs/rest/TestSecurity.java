@@ -1,17 +1,23 @@
 package com.sismics.docs.rest;
 
 import jakarta.json.JsonObject;
+import jakarta.persistence.Query;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 
+import com.sismics.docs.core.util.PrincipalCache;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.filter.HeaderBasedSecurityFilter;
 import org.junit.Assert;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
+import java.util.Date;
+
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 
 /**
@@ -111,4 +117,69 @@ public class TestSecurity extends BaseJerseyTest {
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
                 .delete();
     }
+
+    /**
+     * Test of the cache of authenticated users.
+     */
+    @Test
+    public void testPrincipalCache() throws Exception {
+        // Create a user
+        clientUtil.createUser("principal_cache");
+        String userToken = clientUtil.login("principal_cache");
+
+        // The second request is authenticated from the cache
+        Assert.assertEquals(Status.OK.getStatusCode(), target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, userToken)
+                .get().getStatus());
+        long hitCount = PrincipalCache.getStats().hitCount();
+        Assert.assertEquals(Status.OK.getStatusCode(), target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, userToken)
+                .get().getStatus());
+        Assert.assertEquals(hitCount + 1, PrincipalCache.getStats().hitCount());
+
+        // A disabled user is rejected immediately
+        String adminToken = adminToken();
+        target().path("/user/principal_cache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("disabled", "true")), JsonObject.class);
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, userToken)
+                .get().getStatus());
+        target().path("/user/principal_cache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("disabled", "false")), JsonObject.class);
+        Assert.assertEquals(Status.OK.getStatusCode(), target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, userToken)
+                .get().getStatus());
+
+        // A token is rejected immediately after logout
+        clientUtil.logout(userToken);
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, userToken)
+                .get().getStatus());
+
+        // A cached token is rejected once expired
+        String expiringToken = clientUtil.login("principal_cache");
+        TransactionUtil.handle(() -> {
+            Query q = ThreadLocalContext.get().getEntityManager().createNativeQuery("update T_AUTHENTICATION_TOKEN " +
+                    " set AUT_CREATIONDATE_D = :date, AUT_LASTCONNECTIONDATE_D = :date where AUT_ID_C = :id");
+            q.setParameter("date", new Date(System.currentTimeMillis() - 24 * 3600 * 1000L + 2000L));
+            q.setParameter("id", expiringToken);
+            q.executeUpdate();
+        });
+        Assert.assertEquals(Status.OK.getStatusCode(), target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, expiringToken)
+                .get().getStatus());
+        Thread.sleep(2500);
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, expiringToken)
+                .get().getStatus());
+
+        // Delete the user
+        target().path("/user/principal_cache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .delete();
+    }
 }
\ No newline at end of file
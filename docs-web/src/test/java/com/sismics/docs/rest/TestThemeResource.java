@@ -11,6 +11,7 @@ import org.junit.Test;
 import jakarta.json.JsonObject;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import java.io.InputStream;
@@ -55,6 +56,15 @@ public class TestThemeResource extends BaseJerseyTest {
         Assert.assertTrue(stylesheet.contains("background-color: #ff0000;"));
         Assert.assertTrue(stylesheet.contains("Custom CSS"));
 
+        // Get the unchanged stylesheet conditionally
+        Response response = target().path("/theme/stylesheet").request().get();
+        String entityTag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(entityTag);
+        response = target().path("/theme/stylesheet").request()
+                .header(HttpHeaders.IF_NONE_MATCH, entityTag)
+                .get();
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+
         // Get the theme configuration anonymously
         json = target().path("/theme").request()
                 .get(JsonObject.class);
@@ -63,8 +73,13 @@ public class TestThemeResource extends BaseJerseyTest {
         Assert.assertEquals(".body { content: 'Custom CSS'; }", json.getString("css"));
 
         // Get the logo
-        Response response = target().path("/theme/image/logo").request().get();
+        response = target().path("/theme/image/logo").request().get();
         Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        String logoEntityTag = response.getHeaderString(HttpHeaders.ETAG);
+        response = target().path("/theme/image/logo").request()
+                .header(HttpHeaders.IF_NONE_MATCH, logoEntityTag)
+                .get();
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
 
         // Get the background
         response = target().path("/theme/image/background").request().get();
@@ -96,8 +111,10 @@ public class TestThemeResource extends BaseJerseyTest {
             }
         }
 
-        // Get the logo
-        response = target().path("/theme/image/logo").request().get();
+        // Get the changed logo
+        response = target().path("/theme/image/logo").request()
+                .header(HttpHeaders.IF_NONE_MATCH, logoEntityTag)
+                .get();
         Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
 
         // Get the background
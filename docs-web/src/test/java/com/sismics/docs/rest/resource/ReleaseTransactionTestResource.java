@@ -0,0 +1,62 @@
+package com.sismics.docs.rest.resource;
+
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.rest.exception.ForbiddenClientException;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.ws.rs.FormParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Resource releasing its transaction before writing its response.
+ *
+ * @author bgamard
+ */
+@Path("/releasetransactiontest")
+public class ReleaseTransactionTestResource extends BaseResource {
+    /**
+     * Rename a document, then stream if the transaction was released.
+     *
+     * @param documentId Document ID
+     * @param title New title
+     * @param status Response status
+     * @return Response
+     */
+    @POST
+    @Produces(MediaType.TEXT_PLAIN)
+    @ReleaseTransaction
+    public Response rename(
+            @FormParam("id") String documentId,
+            @FormParam("title") String title,
+            @FormParam("status") int status) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        DocumentDao documentDao = new DocumentDao();
+        Document document = documentDao.getById(documentId);
+        document.setTitle(title);
+        documentDao.update(document, principal.getId());
+
+        DocumentUpdatedAsyncEvent event = new DocumentUpdatedAsyncEvent();
+        event.setUserId(principal.getId());
+        event.setDocumentId(documentId);
+        ThreadLocalContext.get().addAsyncEvent(event);
+
+        StreamingOutput stream = outputStream -> {
+            EntityManager em = ThreadLocalContext.get().getEntityManager();
+            outputStream.write(Boolean.toString(!em.isOpen()).getBytes(StandardCharsets.UTF_8));
+        };
+        return Response.status(status).entity(stream).build();
+    }
+}